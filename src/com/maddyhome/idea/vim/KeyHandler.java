@@ -303,19 +303,25 @@ public class KeyHandler {
     }
 
     final List<KeyStroke> mappingKeys = commandState.getMappingKeys();
-    final List<KeyStroke> fromKeys = new ArrayList<>(mappingKeys);
-    fromKeys.add(key);
-
     final KeyMapping mapping = VimPlugin.getKey().getKeyMapping(mappingMode);
-    final MappingInfo currentMappingInfo = mapping.get(fromKeys);
-    final MappingInfo prevMappingInfo = mapping.get(mappingKeys);
+
+    // Advance the mapping trie node of the pending keys by one key instead of looking up all the keys again
+    KeyMapping.Prefix prevPrefix = mappingKeys.isEmpty() ? mapping.getRoot() : commandState.getMappingPrefix();
+    if (prevPrefix == null) {
+      prevPrefix = mapping.getPrefix(mappingKeys);
+    }
+    final KeyMapping.Prefix prefix = prevPrefix != null ? prevPrefix.get(key) : null;
+    final MappingInfo currentMappingInfo = prefix != null ? prefix.getMappingInfo() : null;
+    final MappingInfo prevMappingInfo = prevPrefix != null ? prevPrefix.getMappingInfo() : null;
     final MappingInfo mappingInfo = currentMappingInfo != null ? currentMappingInfo : prevMappingInfo;
 
     final Application application = ApplicationManager.getApplication();
 
-    if (mapping.isPrefix(fromKeys)) {
+    if (prefix != null && prefix.isPrefix()) {
       mappingKeys.add(key);
+      commandState.setMappingPrefix(prefix);
       if (!application.isUnitTestMode() && OptionsManager.INSTANCE.getTimeout().isSet()) {
+        final List<KeyStroke> fromKeys = new ArrayList<>(mappingKeys);
         commandState.startMappingTimer(actionEvent -> application.invokeLater(() -> {
           mappingKeys.clear();
           if (editor.isDisposed()) {
@@ -379,10 +385,12 @@ public class KeyHandler {
       return true;
     }
     else {
-      final List<KeyStroke> unhandledKeys = new ArrayList<>(mappingKeys);
-      mappingKeys.clear();
-      for (KeyStroke keyStroke : unhandledKeys) {
-        handleKey(editor, keyStroke, context, false);
+      if (!mappingKeys.isEmpty()) {
+        final List<KeyStroke> unhandledKeys = new ArrayList<>(mappingKeys);
+        mappingKeys.clear();
+        for (KeyStroke keyStroke : unhandledKeys) {
+          handleKey(editor, keyStroke, context, false);
+        }
       }
       return false;
     }
@@ -37,6 +37,7 @@ class RegisterActions {
   static void registerActions() {
     registerVimCommandActions();
     registerSystemMappings();
+    VimPlugin.getKey().buildKeyLookupTables();
   }
 
   private static void registerVimCommandActions() {
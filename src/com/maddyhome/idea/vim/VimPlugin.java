@@ -59,6 +59,7 @@ import org.jdom.Element;
 import org.jdom.JDOMException;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
 
 import javax.swing.event.HyperlinkEvent;
 import java.awt.*;
@@ -85,6 +86,8 @@ public class VimPlugin implements BaseComponent, PersistentStateComponent<Elemen
   private static long lastBeepTimeMillis;
 
   private boolean error = false;
+  // The last message shown in the status bar, only kept in unit test mode where there is no status bar to read
+  @Nullable private String message = null;
 
   private int previousStateVersion = 0;
   private String previousKeyMap = "";
@@ -112,6 +115,7 @@ public class VimPlugin implements BaseComponent, PersistentStateComponent<Elemen
   @NotNull private final VisualMotionGroup visualMotion;
   @NotNull private final YankGroup yank;
   @NotNull private final PutGroup put;
+  @NotNull private final QuickfixGroup quickfix;
 
   @NotNull private final VimState state;
 
@@ -133,6 +137,7 @@ public class VimPlugin implements BaseComponent, PersistentStateComponent<Elemen
     visualMotion = new VisualMotionGroup();
     yank = new YankGroup();
     put = new PutGroup();
+    quickfix = new QuickfixGroup();
 
     state = new VimState();
 
@@ -311,6 +316,11 @@ public class VimPlugin implements BaseComponent, PersistentStateComponent<Elemen
     return getInstance().put;
   }
 
+  @NotNull
+  public static QuickfixGroup getQuickfix() {
+    return getInstance().quickfix;
+  }
+
   @NotNull
   private static NotificationService getNotifications() {
     return getNotifications(null);
@@ -421,11 +431,23 @@ public class VimPlugin implements BaseComponent, PersistentStateComponent<Elemen
     }
   }
 
+  /**
+   * Gets the last message shown in the status bar, only in unit test mode.
+   */
+  @TestOnly
+  @Nullable
+  public static String getMessage() {
+    return getInstance().message;
+  }
+
   public static void showMode(String msg) {
     showMessage(msg);
   }
 
   public static void showMessage(@Nullable String msg) {
+    if (ApplicationManager.getApplication().isUnitTestMode()) {
+      getInstance().message = msg;
+    }
     ProjectManager pm = ProjectManager.getInstance();
     Project[] projects = pm.getOpenProjects();
     for (Project project : projects) {
@@ -22,6 +22,7 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Editor;
 import com.maddyhome.idea.vim.VimPlugin;
 import com.maddyhome.idea.vim.helper.UserDataManager;
+import com.maddyhome.idea.vim.key.KeyMapping;
 import com.maddyhome.idea.vim.key.ParentNode;
 import com.maddyhome.idea.vim.option.NumberOption;
 import com.maddyhome.idea.vim.option.OptionsManager;
@@ -48,6 +49,7 @@ public class CommandState {
   @Nullable private Command myCommand;
   @NotNull private ParentNode myCurrentNode = VimPlugin.getKey().getKeyRoot(getMappingMode());
   @NotNull private final List<KeyStroke> myMappingKeys = new ArrayList<>();
+  @Nullable private KeyMapping.Prefix myMappingPrefix = null;
   @NotNull private final Timer myMappingTimer;
   private EnumSet<CommandFlags> myFlags = EnumSet.noneOf(CommandFlags.class);
   private boolean myIsRecording = false;
@@ -101,11 +103,13 @@ public class CommandState {
       logger.debug("Stack state before push: " + toSimpleString());
     }
     myStates.push(newState);
+    myMappingPrefix = null;
     updateStatus();
   }
 
   public void popState() {
     final State popped = myStates.pop();
+    myMappingPrefix = null;
     updateStatus();
     logger.info("Pop state: " + popped.toSimpleString());
     if (logger.isDebugEnabled()) {
@@ -133,6 +137,19 @@ public class CommandState {
     return myMappingKeys;
   }
 
+  /**
+   * Returns the key mapping trie node for the pending mapping keys, or null if it has to be looked up again, e.g.
+   * after the mapping mode has changed
+   */
+  @Nullable
+  public KeyMapping.Prefix getMappingPrefix() {
+    return myMappingPrefix;
+  }
+
+  public void setMappingPrefix(@Nullable KeyMapping.Prefix prefix) {
+    myMappingPrefix = prefix;
+  }
+
   public void startMappingTimer(@NotNull ActionListener actionListener) {
     final NumberOption timeoutLength = OptionsManager.INSTANCE.getTimeoutlen();
     myMappingTimer.setInitialDelay(timeoutLength.value());
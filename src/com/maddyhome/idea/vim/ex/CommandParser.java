@@ -53,6 +53,7 @@ public class CommandParser {
     new CmdHandler(),
     new CmdClearHandler(),
     new CopyTextHandler(),
+    new CurrentQuickfixHandler(),
     new DelCmdHandler(),
     new DeleteLinesHandler(),
     new DigraphHandler(),
@@ -64,21 +65,25 @@ public class CommandParser {
     new FindClassHandler(),
     new FindFileHandler(),
     new FindSymbolHandler(),
+    new GlobalHandler(),
     new GotoCharacterHandler(),
     //new GotoLineHandler(); - not needed here
     new HelpHandler(),
     new HistoryHandler(),
     new JoinLinesHandler(),
     new JumpsHandler(),
+    new ListQuickfixHandler(),
     new LetHandler(),
     new MapHandler(),
     new MarkHandler(),
     new MarksHandler(),
     new MoveTextHandler(),
     new NextFileHandler(),
+    new NextQuickfixHandler(),
     new NoHLSearchHandler(),
     new OnlyHandler(),
     new PreviousFileHandler(),
+    new PreviousQuickfixHandler(),
     new PromptFindHandler(),
     new PromptReplaceHandler(),
     new PutLinesHandler(),
@@ -97,6 +102,7 @@ public class CommandParser {
     new SplitHandler(),
     new SubstituteHandler(),
     new UndoHandler(),
+    new VimGrepHandler(),
     new WriteAllHandler(),
     new WriteHandler(),
     new WriteNextFileHandler(),
@@ -248,6 +254,33 @@ public class CommandParser {
     return result;
   }
 
+  /**
+   * Parse and execute the Ex command of :global for a line, without saving it to the history or the : register
+   *
+   * @param editor  The editor to run the command in
+   * @param context The data context
+   * @param cmd     The command to execute
+   * @return True if the command succeeded, false if it failed
+   * @throws ExException if any part of the command is invalid or unknown
+   */
+  public boolean processGlobalCommand(@NotNull Editor editor, @NotNull DataContext context, @NotNull String cmd)
+    throws ExException {
+    final ExCommand command = parse(cmd);
+    final CommandHandler handler = getCommandHandler(command);
+
+    if (handler == null) {
+      final String message = MessageHelper.message(Msg.NOT_EX_CMD, command.getCommand());
+      throw new InvalidCommandException(message, cmd);
+    }
+
+    if (handler.getArgFlags().getFlags().contains(CommandHandler.Flag.WRITABLE) && !editor.getDocument().isWritable()) {
+      VimPlugin.indicateError();
+      return false;
+    }
+
+    return handler.process(editor, context, command, 1);
+  }
+
   @Nullable
   public CommandHandler getCommandHandler(@NotNull ExCommand command) {
     final String cmd = command.getCommand();
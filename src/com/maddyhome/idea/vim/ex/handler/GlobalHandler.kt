@@ -0,0 +1,50 @@
+/*
+ * IdeaVim - Vim emulator for IDEs based on the IntelliJ platform
+ * Copyright (C) 2003-2019 The IdeaVim authors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.maddyhome.idea.vim.ex.handler
+
+import com.intellij.openapi.actionSystem.DataContext
+import com.intellij.openapi.editor.Editor
+import com.maddyhome.idea.vim.VimPlugin
+import com.maddyhome.idea.vim.ex.CommandHandler
+import com.maddyhome.idea.vim.ex.ExCommand
+import com.maddyhome.idea.vim.ex.LineRange
+import com.maddyhome.idea.vim.ex.commands
+import com.maddyhome.idea.vim.ex.flags
+import com.maddyhome.idea.vim.helper.EditorHelper
+
+class GlobalHandler : CommandHandler.SingleExecution() {
+  override val names = commands("g[lobal]", "v[global]")
+  override val argFlags = flags(RangeFlag.RANGE_OPTIONAL, ArgumentFlag.ARGUMENT_REQUIRED)
+  override fun execute(editor: Editor, context: DataContext, cmd: ExCommand): Boolean {
+    var argument = cmd.argument
+    var invert = cmd.command.startsWith("v")
+    if (!invert && argument.startsWith("!")) {
+      invert = true
+      argument = argument.substring(1)
+    }
+
+    // Without a range the command is done for the whole file
+    val range = if (cmd.ranges.size() == 0) {
+      LineRange(0, EditorHelper.getLineCount(editor) - 1)
+    } else {
+      cmd.getLineRange(editor, editor.caretModel.primaryCaret, context)
+    }
+    return VimPlugin.getSearch().processGlobalCommand(editor, context, range, argument, invert)
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * IdeaVim - Vim emulator for IDEs based on the IntelliJ platform
+ * Copyright (C) 2003-2019 The IdeaVim authors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.maddyhome.idea.vim.ex.handler
+
+import com.intellij.openapi.actionSystem.DataContext
+import com.intellij.openapi.editor.Editor
+import com.maddyhome.idea.vim.VimPlugin
+import com.maddyhome.idea.vim.ex.CommandHandler
+import com.maddyhome.idea.vim.ex.ExCommand
+import com.maddyhome.idea.vim.ex.ExOutputModel
+import com.maddyhome.idea.vim.ex.commands
+import com.maddyhome.idea.vim.ex.flags
+import com.maddyhome.idea.vim.helper.MessageHelper
+import com.maddyhome.idea.vim.helper.Msg
+
+/**
+ * Lists the quickfix list in the output panel, there is no quickfix window
+ */
+class ListQuickfixHandler : CommandHandler.SingleExecution() {
+  override val names = commands("cl[ist]", "cope[n]")
+  override val argFlags = flags(RangeFlag.RANGE_FORBIDDEN, ArgumentFlag.ARGUMENT_OPTIONAL)
+
+  override fun execute(editor: Editor, context: DataContext, cmd: ExCommand): Boolean {
+    val quickfix = VimPlugin.getQuickfix()
+    val entries = quickfix.entries
+    if (entries.isEmpty()) {
+      VimPlugin.showMessage(MessageHelper.message(Msg.E42))
+      return false
+    }
+
+    val width = entries.size.toString().length
+    val res = entries.withIndex().joinToString("\n") { (index, entry) ->
+      val marker = if (index == quickfix.current) ">" else " "
+      val number = (index + 1).toString().padStart(width)
+      "$marker$number ${entry.name}:${entry.line + 1} col ${entry.col + 1}: ${entry.text.trim()}"
+    }
+    ExOutputModel.getInstance(editor).output(res)
+    return true
+  }
+}
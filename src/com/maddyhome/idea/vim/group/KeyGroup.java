@@ -254,6 +254,16 @@ public class KeyGroup {
     return res;
   }
 
+  /**
+   * Builds the lookup tables of the key/action trees of all the mapping modes. Should be called once all the actions
+   * are registered
+   */
+  public void buildKeyLookupTables() {
+    for (RootNode root : keyRoots.values()) {
+      root.buildLookupTables();
+    }
+  }
+
   /**
    * Registers a shortcut that is handled by KeyHandler#handleKey directly, rather than by an action
    *
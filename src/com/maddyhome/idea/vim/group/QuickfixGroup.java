@@ -0,0 +1,587 @@
+/*
+ * IdeaVim - Vim emulator for IDEs based on the IntelliJ platform
+ * Copyright (C) 2003-2019 The IdeaVim authors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.maddyhome.idea.vim.group;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.impl.DocumentImpl;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.fileEditor.OpenFileDescriptor;
+import com.intellij.openapi.fileEditor.impl.LoadTextUtil;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.util.io.FileUtilRt;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.maddyhome.idea.vim.VimPlugin;
+import com.maddyhome.idea.vim.helper.EditorHelper;
+import com.maddyhome.idea.vim.helper.MessageHelper;
+import com.maddyhome.idea.vim.helper.Msg;
+import com.maddyhome.idea.vim.regexp.CharPointer;
+import com.maddyhome.idea.vim.regexp.RegExp;
+import com.maddyhome.idea.vim.regexp.RegExpCache;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.InvalidPathException;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * The quickfix list, filled by :vimgrep and walked with :cnext, :cprevious and :cc.
+ */
+public class QuickfixGroup {
+  public QuickfixGroup() {
+  }
+
+  /**
+   * Searches the files for the pattern and puts the matches in the quickfix list, replacing the list.
+   * <p>
+   * The files are searched in the background, in batches on a bounded pool of threads. The matches of each batch
+   * are added to the list as soon as it's done, and unless the "j" flag is given the first one is jumped to. The
+   * files are read without opening them in an editor, the text of documents with unsaved changes is searched
+   * instead of the file.
+   *
+   * @param editor   The editor the command is executed in
+   * @param argument The pattern, optionally between delimiters and followed by flags, and the files to search
+   * @return True if the search is started, false if the argument is invalid
+   */
+  public boolean vimgrep(@NotNull Editor editor, @NotNull String argument) {
+    final Project project = editor.getProject();
+    if (project == null) {
+      VimPlugin.indicateError();
+      return false;
+    }
+
+    CharPointer p = new CharPointer(new StringBuffer(argument.trim()));
+    if (p.isNul()) {
+      VimPlugin.showMessage(MessageHelper.message(Msg.E683));
+      return false;
+    }
+    String pattern;
+    boolean all = false;
+    boolean noJump = false;
+    if (Character.isLetterOrDigit(p.charAt()) || p.charAt() == '_') {
+      /* The pattern without delimiters ends at white space */
+      final CharPointer pat = p.ref(0);
+      while (!p.isNul() && !Character.isWhitespace(p.charAt())) {
+        p.inc();
+      }
+      pattern = pat.substring(p.pointer() - pat.pointer());
+    }
+    else {
+      final char delimiter = p.charAt();
+      p.inc();
+      final CharPointer pat = p.ref(0);
+      p = RegExp.skip_regexp(p, delimiter, true);
+      if (p.charAt() != delimiter) {
+        VimPlugin.showMessage(MessageHelper.message(Msg.E682));
+        return false;
+      }
+      p.set('\u0000').inc();
+      pattern = pat.toString();
+      for (; p.charAt() == 'g' || p.charAt() == 'j'; p.inc()) {
+        if (p.charAt() == 'g') {
+          all = true;
+        }
+        else {
+          noJump = true;
+        }
+      }
+    }
+    if (!p.isNul() && !Character.isWhitespace(p.charAt())) {
+      VimPlugin.showMessage(MessageHelper.message(Msg.E682));
+      return false;
+    }
+
+    if (pattern.isEmpty()) {
+      pattern = VimPlugin.getSearch().getLastSearch();
+      if (pattern == null) {
+        VimPlugin.showMessage(MessageHelper.message(Msg.E35));
+        return false;
+      }
+    }
+
+    final String files = p.toString().trim();
+    if (files.isEmpty()) {
+      VimPlugin.showMessage(MessageHelper.message(Msg.E683));
+      return false;
+    }
+
+    final List<String> fileNames = Arrays.asList(files.split("\\s+"));
+    final List<PathMatcher> matchers = getMatchers(fileNames);
+    if (matchers == null) {
+      VimPlugin.showMessage(MessageHelper.message(Msg.E683));
+      return false;
+    }
+
+    final RegExp.regprog_T prog = RegExpCache.vim_regcomp(pattern, 1);
+    if (prog == null) {
+      VimPlugin.showMessage(MessageHelper.message(Msg.e_invcmd));
+      return false;
+    }
+
+    if (job != null) {
+      job.stop();
+    }
+    entries.clear();
+    current = -1;
+    final boolean ignoreCase = SearchGroup.shouldIgnoreCase(pattern, false);
+    job = new VimGrep(project, editor, pattern, fileNames, matchers, prog, ignoreCase, all, noJump);
+    job.start();
+    return true;
+  }
+
+  /**
+   * Gets the matchers of the file names with wildcards, which are matched with the paths of the files relative to the
+   * content roots of the project.
+   *
+   * @return The matchers, or null if a file name isn't a valid pattern
+   */
+  @Nullable
+  private static List<PathMatcher> getMatchers(@NotNull List<String> fileNames) {
+    final List<PathMatcher> matchers = new ArrayList<>();
+    for (String fileName : fileNames) {
+      if (!hasWildcards(fileName)) {
+        continue;
+      }
+      try {
+        matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + fileName));
+        /* Like in Vim "**" also matches no directory at all */
+        if (fileName.startsWith("**/")) {
+          matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + fileName.substring(3)));
+        }
+      }
+      catch (IllegalArgumentException e) {
+        return null;
+      }
+    }
+    return matchers;
+  }
+
+  private static boolean hasWildcards(@NotNull String fileName) {
+    return StringUtil.containsAnyChar(fileName, "*?[{");
+  }
+
+  /**
+   * Jumps to an entry of the quickfix list.
+   *
+   * @param editor The editor the command is executed in
+   * @param index  The index of the entry, or -1 for the current entry
+   * @return True if the entry is jumped to, false if there is no such entry
+   */
+  public boolean gotoEntry(@NotNull Editor editor, int index) {
+    if (entries.isEmpty()) {
+      VimPlugin.showMessage(MessageHelper.message(Msg.E42));
+      return false;
+    }
+    if (index >= entries.size()) {
+      VimPlugin.showMessage(MessageHelper.message(Msg.E553));
+      return false;
+    }
+    return jumpToEntry(editor, index == -1 ? Math.max(current, 0) : index);
+  }
+
+  /**
+   * Jumps to the entry "count" entries after the current one, or before it when "count" is negative.
+   */
+  public boolean gotoNextEntry(@NotNull Editor editor, int count) {
+    if (entries.isEmpty()) {
+      VimPlugin.showMessage(MessageHelper.message(Msg.E42));
+      return false;
+    }
+
+    final int index = current + count;
+    if (index < 0 && current == 0 || index >= entries.size() && current == entries.size() - 1) {
+      VimPlugin.showMessage(MessageHelper.message(Msg.E553));
+      return false;
+    }
+    return jumpToEntry(editor, Math.max(0, Math.min(index, entries.size() - 1)));
+  }
+
+  @NotNull
+  public List<Entry> getEntries() {
+    return Collections.unmodifiableList(entries);
+  }
+
+  /**
+   * The index of the current entry, -1 when no entry has been jumped to
+   */
+  public int getCurrent() {
+    return current;
+  }
+
+  private boolean jumpToEntry(@NotNull Editor editor, int index) {
+    final Project project = editor.getProject();
+    final Entry entry = entries.get(index);
+    if (project == null || !entry.file.isValid()) {
+      VimPlugin.indicateError();
+      return false;
+    }
+
+    /* The text may have changed since it was searched, go to the same line and column when they're still there */
+    final Document document = FileDocumentManager.getInstance().getDocument(entry.file);
+    int offset = 0;
+    if (document != null && document.getLineCount() > 0) {
+      final int line = Math.min(entry.line, document.getLineCount() - 1);
+      offset = Math.min(document.getLineStartOffset(line) + entry.col, document.getLineEndOffset(line));
+    }
+
+    if (!editor.isDisposed()) {
+      VimPlugin.getMark().saveJumpLocation(editor);
+    }
+    FileEditorManager.getInstance(project).openTextEditor(new OpenFileDescriptor(project, entry.file, offset), true);
+    current = index;
+    VimPlugin.showMessage(MessageHelper.message(Msg.quickfix_entry, index + 1, entries.size(), entry.text.trim()));
+    return true;
+  }
+
+  private void addEntries(@NotNull VimGrep grep, @NotNull List<Entry> found) {
+    if (grep != job) {
+      return;
+    }
+    final boolean first = entries.isEmpty();
+    entries.addAll(found);
+    if (first && !grep.noJump) {
+      jumpToEntry(grep.editor, 0);
+    }
+  }
+
+  private void finish(@NotNull VimGrep grep) {
+    if (grep != job) {
+      return;
+    }
+    job = null;
+    if (entries.isEmpty()) {
+      VimPlugin.showMessage(MessageHelper.message(Msg.E480, grep.pattern));
+    }
+    else if (current != -1) {
+      /* Show the number of matches that were found after the jump */
+      final Entry entry = entries.get(current);
+      VimPlugin.showMessage(MessageHelper.message(Msg.quickfix_entry, current + 1, entries.size(), entry.text.trim()));
+    }
+  }
+
+  /**
+   * A match of :vimgrep
+   */
+  public static class Entry {
+    @NotNull public final VirtualFile file;
+    /* The path of the file relative to its content root, or its full path */
+    @NotNull public final String name;
+    public final int line;
+    public final int col;
+    /* The text of the line of the match */
+    @NotNull public final String text;
+
+    Entry(@NotNull VirtualFile file, @NotNull String name, int line, int col, @NotNull String text) {
+      this.file = file;
+      this.name = name;
+      this.line = line;
+      this.col = col;
+      this.text = text;
+    }
+  }
+
+  /**
+   * A search of :vimgrep, cancelled by the progress indicator or by the next :vimgrep.
+   */
+  private class VimGrep extends Task.Backgroundable {
+    @NotNull private final Project project;
+    @NotNull private final Editor editor;
+    @NotNull private final String pattern;
+    @NotNull private final List<String> fileNames;
+    /* The matchers of the file names with wildcards */
+    @NotNull private final List<PathMatcher> matchers;
+    @NotNull private final RegExp.regprog_T prog;
+    private final boolean ignoreCase;
+    private final boolean all;
+    private final boolean noJump;
+    @Nullable private volatile ProgressIndicator indicator;
+    private volatile boolean cancelled = false;
+
+    VimGrep(@NotNull Project project, @NotNull Editor editor, @NotNull String pattern, @NotNull List<String> fileNames,
+            @NotNull List<PathMatcher> matchers, @NotNull RegExp.regprog_T prog, boolean ignoreCase, boolean all,
+            boolean noJump) {
+      super(project, MessageHelper.message(Msg.quickfix_searching, pattern), true);
+      this.project = project;
+      this.editor = editor;
+      this.pattern = pattern;
+      this.fileNames = fileNames;
+      this.matchers = matchers;
+      this.prog = prog;
+      this.ignoreCase = ignoreCase;
+      this.all = all;
+      this.noJump = noJump;
+    }
+
+    void start() {
+      if (ApplicationManager.getApplication().isUnitTestMode()) {
+        run(new EmptyProgressIndicator());
+        finish(this);
+      }
+      else {
+        ProgressManager.getInstance().run(this);
+      }
+    }
+
+    void stop() {
+      cancelled = true;
+      final ProgressIndicator progress = indicator;
+      if (progress != null) {
+        progress.cancel();
+      }
+    }
+
+    @Override
+    public void run(@NotNull ProgressIndicator indicator) {
+      this.indicator = indicator;
+      indicator.setIndeterminate(false);
+
+      final List<Source> sources = ReadAction.compute(this::findFiles);
+      for (int i = 0; i < sources.size() && !isStopped(); i += BATCH_FILES) {
+        indicator.setFraction((double)i / sources.size());
+
+        final List<Callable<List<Entry>>> tasks = new ArrayList<>();
+        for (Source source : sources.subList(i, Math.min(i + BATCH_FILES, sources.size()))) {
+          tasks.add(() -> searchFile(source));
+        }
+
+        final List<Entry> found = new ArrayList<>();
+        try {
+          for (Future<List<Entry>> future : EXECUTOR.invokeAll(tasks)) {
+            found.addAll(future.get());
+          }
+        }
+        catch (InterruptedException e) {
+          return;
+        }
+        catch (ExecutionException e) {
+          logger.warn("Searching files for :vimgrep failed", e);
+          return;
+        }
+
+        if (!found.isEmpty()) {
+          if (ApplicationManager.getApplication().isUnitTestMode()) {
+            addEntries(this, found);
+          }
+          else {
+            ApplicationManager.getApplication().invokeLater(() -> addEntries(this, found));
+          }
+        }
+      }
+    }
+
+    @Override
+    public void onFinished() {
+      finish(this);
+    }
+
+    private boolean isStopped() {
+      final ProgressIndicator progress = indicator;
+      return cancelled || progress != null && progress.isCanceled();
+    }
+
+    /**
+     * Finds the files of the file names, which may have wildcards that are matched with the paths of the files
+     * relative to the content roots of the project. "%" is the file of the editor.
+     */
+    @NotNull
+    private List<Source> findFiles() {
+      final ProjectFileIndex fileIndex = ProjectFileIndex.getInstance(project);
+      final Set<VirtualFile> found = new LinkedHashSet<>();
+      for (String fileName : fileNames) {
+        if (fileName.equals("%")) {
+          final VirtualFile file = EditorHelper.getVirtualFile(editor);
+          if (file != null) {
+            found.add(file);
+          }
+        }
+        else if (!hasWildcards(fileName)) {
+          final VirtualFile file = VimPlugin.getFile().findFile(fileName, project);
+          if (file != null && !file.isDirectory()) {
+            found.add(file);
+          }
+        }
+      }
+
+      if (!matchers.isEmpty()) {
+        fileIndex.iterateContent(file -> {
+          if (!file.isDirectory() && matches(matchers, getName(fileIndex, file))) {
+            found.add(file);
+          }
+          return !isStopped();
+        });
+      }
+      found.removeIf(file -> file.getFileType().isBinary() || FileUtilRt.isTooLarge(file.getLength()));
+
+      final FileDocumentManager documentManager = FileDocumentManager.getInstance();
+      final Map<VirtualFile, CharSequence> unsaved = new HashMap<>();
+      for (Document document : documentManager.getUnsavedDocuments()) {
+        final VirtualFile file = documentManager.getFile(document);
+        if (file != null && found.contains(file)) {
+          unsaved.put(file, document.getImmutableCharSequence());
+        }
+      }
+
+      final List<Source> sources = new ArrayList<>(found.size());
+      for (VirtualFile file : found) {
+        final String path = getName(fileIndex, file);
+        sources.add(new Source(file, path != null ? path : file.getPresentableUrl(), unsaved.get(file)));
+      }
+      return sources;
+    }
+
+    /**
+     * The path of the file relative to its content root
+     */
+    @Nullable
+    private String getName(@NotNull ProjectFileIndex fileIndex, @NotNull VirtualFile file) {
+      final VirtualFile root = fileIndex.getContentRootForFile(file);
+      return root != null ? VfsUtilCore.getRelativePath(file, root) : null;
+    }
+
+    private boolean matches(@NotNull List<PathMatcher> matchers, @Nullable String path) {
+      if (path == null) {
+        return false;
+      }
+      try {
+        for (PathMatcher matcher : matchers) {
+          if (matcher.matches(Paths.get(path))) {
+            return true;
+          }
+        }
+      }
+      catch (InvalidPathException e) {
+        return false;
+      }
+      return false;
+    }
+
+    /**
+     * Finds the matches in a file, on a thread of the pool. The text of the file is only kept while it's searched.
+     */
+    @NotNull
+    private List<Entry> searchFile(@NotNull Source source) {
+      final List<Entry> found = new ArrayList<>();
+      if (isStopped()) {
+        return found;
+      }
+
+      final VirtualFile file = source.file;
+      CharSequence text = source.unsavedText;
+      if (text == null) {
+        try {
+          text = LoadTextUtil.getTextByBinaryPresentation(file.contentsToByteArray(), file);
+        }
+        catch (IOException e) {
+          logger.debug("Can't read " + file.getPath(), e);
+          return found;
+        }
+      }
+      final Document document = new DocumentImpl(StringUtil.convertLineSeparators(text.toString()), true);
+
+      final RegExp sp = RegExp.obtain();
+      final RegExp.regmmatch_T regmatch = new RegExp.regmmatch_T();
+      regmatch.regprog = prog;
+      regmatch.rmm_ic = ignoreCase;
+      final int lcount = getLineCount(document);
+      for (int lnum = 0; lnum < lcount && !isStopped(); lnum++) {
+        lnum = sp.vim_regexec_nextline(regmatch, document, lcount, lnum, 0, 1);
+        if (lnum == -1) {
+          break;
+        }
+
+        int col = 0;
+        while (sp.vim_regexec_multi(regmatch, null, document, lcount, lnum, col, 0) > 0) {
+          final int line = lnum + regmatch.startpos[0].lnum;
+          final int lineStart = document.getLineStartOffset(line);
+          final String lineText = document.getCharsSequence().subSequence(lineStart, document.getLineEndOffset(line))
+            .toString();
+          found.add(new Entry(file, source.name, line, regmatch.startpos[0].col, lineText));
+
+          /* Without the "g" flag a line is only listed once, with it the search goes on after the match */
+          if (!all || regmatch.startpos[0].lnum != 0 || regmatch.endpos[0].lnum != 0) {
+            break;
+          }
+          col = Math.max(regmatch.endpos[0].col, col + 1);
+          if (col > lineText.length()) {
+            break;
+          }
+        }
+      }
+      sp.release();
+      return found;
+    }
+  }
+
+  /**
+   * A file to search for :vimgrep, found in a read action so the search doesn't need one
+   */
+  private static class Source {
+    @NotNull final VirtualFile file;
+    @NotNull final String name;
+    /* The text of the document when it has changes that aren't saved, null to read the file */
+    @Nullable final CharSequence unsavedText;
+
+    Source(@NotNull VirtualFile file, @NotNull String name, @Nullable CharSequence unsavedText) {
+      this.file = file;
+      this.name = name;
+      this.unsavedText = unsavedText;
+    }
+  }
+
+  /**
+   * The number of lines in the document, a new line at the end doesn't start another line
+   */
+  private static int getLineCount(@NotNull Document document) {
+    final int length = document.getTextLength();
+    final boolean newLineAtEnd = length > 0 && document.getCharsSequence().charAt(length - 1) == '\n';
+    return document.getLineCount() - (newLineAtEnd ? 1 : 0);
+  }
+
+  @NotNull private final List<Entry> entries = new ArrayList<>();
+  private int current = -1;
+  @Nullable private VimGrep job;
+
+  /* Files searched by :vimgrep before their matches are added to the quickfix list */
+  private static final int BATCH_FILES = 256;
+  private static final ExecutorService EXECUTOR =
+    AppExecutorUtil.createBoundedApplicationPoolExecutor("IdeaVim vimgrep", ForkJoinPool.getCommonPoolParallelism());
+
+  private static final Logger logger = Logger.getInstance(QuickfixGroup.class.getName());
+}
@@ -18,25 +18,41 @@
 package com.maddyhome.idea.vim.group;
 
 import com.google.common.collect.Lists;
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.actionSystem.DataContext;
 import com.intellij.openapi.editor.*;
 import com.intellij.openapi.editor.colors.EditorColors;
 import com.intellij.openapi.editor.event.DocumentEvent;
 import com.intellij.openapi.editor.event.DocumentListener;
+import com.intellij.openapi.editor.event.VisibleAreaEvent;
+import com.intellij.openapi.editor.event.VisibleAreaListener;
+import com.intellij.openapi.editor.ex.DocumentEx;
 import com.intellij.openapi.editor.markup.*;
 import com.intellij.openapi.fileEditor.FileEditorManager;
 import com.intellij.openapi.fileEditor.FileEditorManagerEvent;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.Ref;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.maddyhome.idea.vim.VimPlugin;
 import com.maddyhome.idea.vim.command.CommandFlags;
 import com.maddyhome.idea.vim.command.CommandState;
 import com.maddyhome.idea.vim.command.SelectionType;
 import com.maddyhome.idea.vim.common.CharacterPosition;
 import com.maddyhome.idea.vim.common.TextRange;
+import com.maddyhome.idea.vim.ex.CommandParser;
+import com.maddyhome.idea.vim.ex.ExException;
+import com.maddyhome.idea.vim.ex.ExOutputModel;
 import com.maddyhome.idea.vim.ex.LineRange;
 import com.maddyhome.idea.vim.helper.*;
+import com.maddyhome.idea.vim.option.KeywordOption;
 import com.maddyhome.idea.vim.option.ListOption;
 import com.maddyhome.idea.vim.option.OptionChangeListener;
 import com.maddyhome.idea.vim.option.OptionsManager;
@@ -44,17 +60,24 @@ import com.maddyhome.idea.vim.regexp.CharHelper;
 import com.maddyhome.idea.vim.regexp.CharPointer;
 import com.maddyhome.idea.vim.regexp.CharacterClasses;
 import com.maddyhome.idea.vim.regexp.RegExp;
+import com.maddyhome.idea.vim.regexp.RegExpCache;
 import com.maddyhome.idea.vim.ui.ExEntryPanel;
 import com.maddyhome.idea.vim.ui.ModalEntry;
 import org.jdom.Element;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.concurrency.CancellablePromise;
 
 import java.awt.*;
 import java.text.NumberFormat;
 import java.text.ParsePosition;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class SearchGroup {
   public SearchGroup() {
@@ -117,22 +140,110 @@ public class SearchGroup {
                                          int startLine,
                                          int endLine,
                                          boolean ignoreCase) {
-    final List<TextRange> results = Lists.newArrayList();
+    final RegExp.regprog_T prog = RegExpCache.vim_regcomp(pattern, 1);
+    if (prog == null) {
+      return Lists.newArrayList();
+    }
+
+    return findAll(editor, prog, startLine, endLine, ignoreCase, null).ranges;
+  }
+
+  /**
+   * Like {@link #findAll(Editor, String, int, int, boolean)}, but only searches some of the lines.
+   *
+   * @param lines The sorted lines to search, null to search all lines from "startLine" to "endLine"
+   * @return The matches, and whether the time limit passed
+   */
+  @NotNull
+  private static Matches findAll(@NotNull Editor editor,
+                                 @NotNull RegExp.regprog_T prog,
+                                 int startLine,
+                                 int endLine,
+                                 boolean ignoreCase,
+                                 @Nullable int[] lines) {
     final int lineCount = EditorHelper.getLineCount(editor);
     final int actualEndLine = endLine == -1 ? lineCount : endLine;
 
-    final RegExp.regmmatch_T regMatch = new RegExp.regmmatch_T();
-    final RegExp regExp = new RegExp();
-    regMatch.regprog = regExp.vim_regcomp(pattern, 1);
-    if (regMatch.regprog == null) {
-      return results;
+    /* Like Vim's 'hlsearch' highlighting, stop looking for matches after 'redrawtime' */
+    final long tm = System.nanoTime() + OptionsManager.INSTANCE.getRedrawtime().value() * 1000000L;
+
+    final Matches matches;
+    if (lines != null) {
+      matches = new Matches();
+      for (int i = 0; i < lines.length && !matches.timedOut; i++) {
+        findMatches(editor, prog, ignoreCase, lineCount, lines[i], 0, lines[i] + 1, tm, matches, false);
+      }
+    }
+    else if (canSearchInParallel(actualEndLine - startLine)) {
+      matches = findAllParallel(editor, prog, ignoreCase, lineCount, startLine, actualEndLine + 1, tm);
+    }
+    else {
+      matches = new Matches();
+      findMatches(editor, prog, ignoreCase, lineCount, startLine, 0, actualEndLine + 1, tm, matches, false);
+    }
+    if (matches.timedOut) {
+      VimPlugin.showMessage(MessageHelper.message(Msg.e_redrawtime));
+    }
+    else if (startLine == 0 && endLine == -1) {
+      SearchIndex.store(editor, prog, ignoreCase, matches.ranges);
     }
 
+    return matches;
+  }
+
+  /**
+   * Matches found by {@link #findMatches}, and where the search continues after them.
+   */
+  private static class Matches {
+    @NotNull final List<TextRange> ranges = new ArrayList<>();
+    int nextLine;
+    int nextCol;
+    boolean timedOut;
+  }
+
+  /**
+   * Finds the matches that start in the lines before "lineLimit", starting the search at "line" and "col".
+   * <p>
+   * Like in Vim the search continues at the end of each match, or on the next line after an empty match.
+   *
+   * @param tm        The time limit as a {@link System#nanoTime()} value
+   * @param matches   Gets the matches that are found, where the search continues after them and whether the time
+   *                  limit passed
+   * @param onlyFirst Whether to stop after the first match
+   */
+  private static void findMatches(@NotNull Editor editor,
+                                  @NotNull RegExp.regprog_T prog,
+                                  boolean ignoreCase,
+                                  int lineCount,
+                                  int line,
+                                  int col,
+                                  int lineLimit,
+                                  long tm,
+                                  @NotNull Matches matches,
+                                  boolean onlyFirst) {
+    final RegExp.regmmatch_T regMatch = new RegExp.regmmatch_T();
+    regMatch.regprog = prog;
     regMatch.rmm_ic = ignoreCase;
+    final RegExp regExp = RegExp.obtain();
 
-    int col = 0;
-    for (int line = startLine; line <= actualEndLine; ) {
-      int matchedLines = regExp.vim_regexec_multi(regMatch, editor, lineCount, line, col);
+    while (line < lineLimit) {
+      final int candidateLine =
+        regExp.vim_regexec_nextline(regMatch, editor, Math.min(lineCount, lineLimit), line, col, DIR_FORWARDS);
+      if (candidateLine == -1) {
+        line = lineLimit;
+        col = 0;
+        break;
+      }
+      if (candidateLine != line) {
+        line = candidateLine;
+        col = 0;
+        continue;
+      }
+      int matchedLines = regExp.vim_regexec_multi(regMatch, editor, lineCount, line, col, tm);
+      if (regExp.vim_regexec_timed_out()) {
+        matches.timedOut = true;
+        break;
+      }
       if (matchedLines > 0) {
         final CharacterPosition startPos = new CharacterPosition(line + regMatch.startpos[0].lnum,
                                                                  regMatch.startpos[0].col);
@@ -140,7 +251,7 @@ public class SearchGroup {
                                                                regMatch.endpos[0].col);
         int start = startPos.toOffset(editor);
         int end = endPos.toOffset(editor);
-        results.add(new TextRange(start, end));
+        matches.ranges.add(new TextRange(start, end));
 
         if (start != end) {
           line += matchedLines - 1;
@@ -150,14 +261,828 @@ public class SearchGroup {
           line += matchedLines;
           col = 0;
         }
+        if (onlyFirst) {
+          break;
+        }
       }
       else {
         line++;
         col = 0;
       }
     }
+    regExp.release();
+
+    matches.nextLine = line;
+    matches.nextCol = col;
+  }
+
+  /**
+   * Whether this many lines are searched in chunks on other threads, see {@link #findAllParallel}.
+   */
+  private static boolean canSearchInParallel(int lines) {
+    /* The chunks are searched in read actions on other threads, which would wait for a write action or a pending one */
+    final int parallelLines = OptionsManager.INSTANCE.getIdeaparallelsearch().value();
+    final Application application = ApplicationManager.getApplication();
+    return parallelLines > 0 && lines > parallelLines && application.isDispatchThread() &&
+           !application.isWriteAccessAllowed();
+  }
+
+  /**
+   * Finds the same matches as {@link #findMatches} with the lines split in chunks, which are searched in parallel.
+   */
+  @NotNull
+  private static Matches findAllParallel(@NotNull Editor editor,
+                                         @NotNull RegExp.regprog_T prog,
+                                         boolean ignoreCase,
+                                         int lineCount,
+                                         int startLine,
+                                         int lineLimit,
+                                         long tm) {
+    final int chunkCount = getChunkCount(lineLimit - startLine);
+    final int chunkLines = (lineLimit - startLine + chunkCount - 1) / chunkCount;
+    final List<Callable<Matches>> chunks = new ArrayList<>();
+    for (int i = 0; i < chunkCount; i++) {
+      final int first = startLine + i * chunkLines;
+      final int limit = Math.min(first + chunkLines, lineLimit);
+      chunks.add(() -> ApplicationManager.getApplication().runReadAction((Computable<Matches>)() -> {
+        final Matches chunk = new Matches();
+        findMatches(editor, prog, ignoreCase, lineCount, first, 0, limit, tm, chunk, false);
+        return chunk;
+      }));
+    }
+
+    final List<Future<Matches>> futures = ForkJoinPool.commonPool().invokeAll(chunks);
+    final Matches matches = new Matches();
+    matches.nextLine = startLine;
+    try {
+      for (int i = 0; i < chunkCount && !matches.timedOut; i++) {
+        final int first = startLine + i * chunkLines;
+        addChunkMatches(editor, prog, ignoreCase, lineCount, tm, matches, futures.get(i).get(), first,
+                        Math.min(first + chunkLines, lineLimit));
+      }
+    }
+    catch (InterruptedException | ExecutionException e) {
+      logger.warn("Parallel search failed", e);
+      final Matches sequential = new Matches();
+      findMatches(editor, prog, ignoreCase, lineCount, startLine, 0, lineLimit, tm, sequential, false);
+      return sequential;
+    }
+    return matches;
+  }
+
+  private static int getChunkCount(int lines) {
+    return Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism() * 4, lines / MIN_PARALLEL_CHUNK_LINES));
+  }
+
+  /**
+   * Adds the matches of a chunk of lines, which was searched from its first line, to the matches found before it.
+   * <p>
+   * When the last match before the chunk ends in it, the search continues after that instead. The chunk is searched
+   * again from there until a match is found that the first search also found, from then on both find the same matches.
+   */
+  private static void addChunkMatches(@NotNull Editor editor,
+                                      @NotNull RegExp.regprog_T prog,
+                                      boolean ignoreCase,
+                                      int lineCount,
+                                      long tm,
+                                      @NotNull Matches matches,
+                                      @NotNull Matches chunk,
+                                      int first,
+                                      int limit) {
+    if (matches.nextLine == first && matches.nextCol == 0) {
+      matches.ranges.addAll(chunk.ranges);
+      matches.nextLine = chunk.nextLine;
+      matches.nextCol = chunk.nextCol;
+      matches.timedOut = chunk.timedOut;
+      return;
+    }
+
+    int next = 0;
+    boolean same = false;
+    while (!same && !matches.timedOut && matches.nextLine < limit) {
+      final Matches again = new Matches();
+      findMatches(editor, prog, ignoreCase, lineCount, matches.nextLine, matches.nextCol, limit, tm, again, true);
+      matches.ranges.addAll(again.ranges);
+      matches.nextLine = again.nextLine;
+      matches.nextCol = again.nextCol;
+      matches.timedOut = again.timedOut;
+      if (again.ranges.isEmpty()) {
+        break;
+      }
+
+      final TextRange range = again.ranges.get(0);
+      while (next < chunk.ranges.size() && chunk.ranges.get(next).getStartOffset() < range.getStartOffset()) {
+        next++;
+      }
+      same = next < chunk.ranges.size() && chunk.ranges.get(next).getStartOffset() == range.getStartOffset() &&
+             chunk.ranges.get(next).getEndOffset() == range.getEndOffset();
+    }
+    if (same) {
+      /* Both searches continue from the end of this match */
+      matches.ranges.addAll(chunk.ranges.subList(next + 1, chunk.ranges.size()));
+      matches.nextLine = chunk.nextLine;
+      matches.nextCol = chunk.nextCol;
+      matches.timedOut = chunk.timedOut;
+    }
+  }
+
+  /**
+   * Highlights the matches outside the lines around the visible area, after the matches in them are highlighted.
+   * <p>
+   * The lines are split in chunks that are searched in background read actions, in parallel like
+   * {@link #findAllParallel} when the file has more lines than 'ideaparallelsearch'. The matches of a chunk are
+   * highlighted when the chunks before it are, first the chunks after the visible lines, then the ones before them.
+   * <p>
+   * The document is searched once for all editors that show it. Other editors join the job of the document, they
+   * highlight the matches around their own visible area, and get the other matches from the job.
+   * <p>
+   * Like Vim's 'hlsearch' highlighting, the whole job stops after 'redrawtime', counted from the search of the lines
+   * around the visible area.
+   */
+  private static class SearchHighlightJob {
+    @NotNull private final Editor editor;
+    @NotNull private final Document document;
+    @NotNull final String pattern;
+    @NotNull final RegExp.regprog_T prog;
+    final boolean ignoreCase;
+    private final long stamp;
+    private final int lineCount;
+    private final int currentMatchOffset;
+    /* The time limit of the job as a System.nanoTime() value */
+    private final long tm;
+    @NotNull private final int[] firsts;
+    @NotNull private final int[] limits;
+    @NotNull private final Matches[] results;
+    /* Where the search continues after the matches highlighted so far */
+    @NotNull private final Matches matches = new Matches();
+    private int next;
+    /* The matches highlighted so far, the ones around the visible area of the first editor first */
+    @NotNull private final List<TextRange> found = new ArrayList<>();
+    /* The editors that show the matches, with the offsets of the lines whose matches they highlighted themselves */
+    @NotNull private final Map<Editor, TextRange> editors = new LinkedHashMap<>();
+    @NotNull private final List<CancellablePromise<Matches>> promises = new ArrayList<>();
+    private volatile boolean cancelled;
+
+    SearchHighlightJob(@NotNull Editor editor,
+                       @NotNull String pattern,
+                       @NotNull RegExp.regprog_T prog,
+                       boolean ignoreCase,
+                       int lineCount,
+                       int currentMatchOffset,
+                       long tm,
+                       @NotNull Matches visible,
+                       int top,
+                       int bottomLimit) {
+      this.editor = editor;
+      this.document = editor.getDocument();
+      this.pattern = pattern;
+      this.prog = prog;
+      this.ignoreCase = ignoreCase;
+      this.stamp = document.getModificationStamp();
+      this.lineCount = lineCount;
+      this.currentMatchOffset = currentMatchOffset;
+      this.tm = tm;
+      matches.nextLine = visible.nextLine;
+      matches.nextCol = visible.nextCol;
+      found.addAll(visible.ranges);
+      editors.put(editor, getLinesRange(editor, top, bottomLimit));
+      editor.putUserData(SEARCH_HIGHLIGHT_JOB, this);
+      document.putUserData(SEARCH_HIGHLIGHT_JOB, this);
+
+      final int afterCount = bottomLimit <= lineCount ? getChunkCount(lineCount + 1 - bottomLimit) : 0;
+      final int beforeCount = top > 0 ? getChunkCount(top) : 0;
+      firsts = new int[afterCount + beforeCount];
+      limits = new int[afterCount + beforeCount];
+      results = new Matches[afterCount + beforeCount];
+      addChunks(0, afterCount, bottomLimit, lineCount + 1);
+      addChunks(afterCount, beforeCount, 0, top);
+    }
+
+    private void addChunks(int index, int count, int startLine, int lineLimit) {
+      final int chunkLines = count > 0 ? (lineLimit - startLine + count - 1) / count : 0;
+      for (int i = 0; i < count; i++) {
+        firsts[index + i] = startLine + i * chunkLines;
+        limits[index + i] = Math.min(startLine + (i + 1) * chunkLines, lineLimit);
+      }
+    }
+
+    void start() {
+      final int parallelLines = OptionsManager.INSTANCE.getIdeaparallelsearch().value();
+      final Executor executor = parallelLines > 0 && lineCount > parallelLines ? PARALLEL_EXECUTOR : SEQUENTIAL_EXECUTOR;
+      for (int i = 0; i < results.length; i++) {
+        final int chunk = i;
+        if (ApplicationManager.getApplication().isUnitTestMode()) {
+          addChunk(chunk, search(chunk));
+        }
+        else {
+          promises.add(ReadAction.nonBlocking(() -> search(chunk))
+                         .expireWhen(() -> cancelled)
+                         .finishOnUiThread(ModalityState.any(), result -> addChunk(chunk, result))
+                         .submit(executor));
+        }
+      }
+    }
+
+    /**
+     * Whether an editor of the document can show the matches of this job instead of searching the document again.
+     */
+    boolean canJoin(@NotNull String pattern, @NotNull RegExp.regprog_T prog, boolean ignoreCase) {
+      return !cancelled && this.pattern.equals(pattern) && this.prog == prog && this.ignoreCase == ignoreCase &&
+             stamp == document.getModificationStamp();
+    }
+
+    /**
+     * Highlights the matches found so far in another editor of the document, and the ones found later.
+     *
+     * @param visibleLines The offsets of the lines whose matches the editor highlighted itself
+     */
+    void join(@NotNull Editor editor, @NotNull TextRange visibleLines) {
+      final List<TextRange> ranges = new ArrayList<>(found);
+      ranges.sort(Comparator.comparingInt(TextRange::getStartOffset));
+      highlight(editor, visibleLines, ranges);
+      editors.put(editor, visibleLines);
+      editor.putUserData(SEARCH_HIGHLIGHT_JOB, this);
+    }
+
+    /**
+     * Stops highlighting the matches in the editor, the search is cancelled when no editor is left.
+     */
+    void leave(@NotNull Editor editor) {
+      editors.remove(editor);
+      if (editor.getUserData(SEARCH_HIGHLIGHT_JOB) == this) {
+        editor.putUserData(SEARCH_HIGHLIGHT_JOB, null);
+      }
+      if (editors.isEmpty()) {
+        cancel();
+      }
+    }
+
+    private void cancel() {
+      cancelled = true;
+      for (CancellablePromise<Matches> promise : promises) {
+        promise.cancel();
+      }
+      if (document.getUserData(SEARCH_HIGHLIGHT_JOB) == this) {
+        document.putUserData(SEARCH_HIGHLIGHT_JOB, null);
+      }
+    }
+
+    @NotNull
+    private Matches search(int chunk) {
+      final Matches found = new Matches();
+      findMatches(editor, prog, ignoreCase, lineCount, firsts[chunk], 0, limits[chunk], tm, found, false);
+      return found;
+    }
+
+    private void addChunk(int chunk, @NotNull Matches chunkMatches) {
+      if (cancelled) {
+        return;
+      }
+      editors.keySet().removeIf(Editor::isDisposed);
+      if (editors.isEmpty()) {
+        cancel();
+        return;
+      }
+
+      results[chunk] = chunkMatches;
+      /* The editor that started the job may be closed, the matches only depend on the document */
+      final Editor live = editors.keySet().iterator().next();
+      while (next < results.length && results[next] != null) {
+        if (firsts[next] == 0) {
+          matches.nextLine = 0;
+          matches.nextCol = 0;
+        }
+        addChunkMatches(live, prog, ignoreCase, lineCount, tm, matches, results[next], firsts[next], limits[next]);
+        results[next++] = null;
+        for (Map.Entry<Editor, TextRange> entry : editors.entrySet()) {
+          highlight(entry.getKey(), entry.getValue(), matches.ranges);
+        }
+        found.addAll(matches.ranges);
+        matches.ranges.clear();
+        if (matches.timedOut) {
+          VimPlugin.showMessage(MessageHelper.message(Msg.e_redrawtime));
+          break;
+        }
+      }
+      if (next == results.length || matches.timedOut) {
+        if (!matches.timedOut) {
+          /* Later searches and other editors of the document get the matches from the index */
+          found.sort(Comparator.comparingInt(TextRange::getStartOffset));
+          SearchIndex.store(live, prog, ignoreCase, found);
+        }
+        for (Editor joined : new ArrayList<>(editors.keySet())) {
+          leave(joined);
+        }
+      }
+    }
+
+    private void highlight(@NotNull Editor editor, @NotNull TextRange visibleLines, @NotNull List<TextRange> ranges) {
+      final List<TextRange> others = new ArrayList<>(ranges.size());
+      for (TextRange range : ranges) {
+        if (range.getStartOffset() < visibleLines.getStartOffset() ||
+            range.getStartOffset() >= visibleLines.getEndOffset()) {
+          others.add(range);
+        }
+      }
+      highlightSearchResults(editor, pattern, others, currentMatchOffset);
+    }
+  }
+
+  /**
+   * Gets the offsets from the start of the first line to the start of the line limit, or up to any offset after the
+   * end of the file if it is past the last line.
+   */
+  @NotNull
+  private static TextRange getLinesRange(@NotNull Editor editor, int startLine, int lineLimit) {
+    final int endOffset = lineLimit < EditorHelper.getLineCount(editor)
+                          ? EditorHelper.getLineStartOffset(editor, lineLimit)
+                          : Integer.MAX_VALUE;
+    return new TextRange(EditorHelper.getLineStartOffset(editor, startLine), endOffset);
+  }
+
+  /**
+   * Stops highlighting the matches of a search in the background in the editor.
+   *
+   * @return The job that was stopped, null if there was none
+   */
+  @Nullable
+  private static SearchHighlightJob cancelSearchHighlightJob(@NotNull Editor editor) {
+    final SearchHighlightJob job = editor.getUserData(SEARCH_HIGHLIGHT_JOB);
+    if (job != null) {
+      job.leave(editor);
+    }
+    return job;
+  }
+
+  /**
+   * The matches of a search in an editor with more matches than 'ideamaxhighlights'. Only the matches in the lines
+   * around the visible area are highlighted, up to 'ideamaxhighlights' of them, the offsets of the others are kept.
+   * The highlighters are created again when the visible area moves to other lines.
+   */
+  private static class LazySearchHighlights implements VisibleAreaListener {
+    @NotNull private final Editor editor;
+    @NotNull private final String pattern;
+    private int currentMatchOffset;
+    /* Start and end offsets of the matches, sorted */
+    @NotNull private int[] starts = new int[0];
+    @NotNull private int[] ends = new int[0];
+    private int size;
+    /* The offsets of the lines whose matches are highlighted */
+    @Nullable private TextRange highlightedLines;
+
+    /**
+     * Replaces the highlighters of the editor by the offsets of their matches, and adds the new matches.
+     */
+    LazySearchHighlights(@NotNull Editor editor, @NotNull String pattern, @NotNull List<RangeHighlighter> highlighters,
+                         @NotNull List<TextRange> results, int currentMatchOffset) {
+      this.editor = editor;
+      this.pattern = pattern;
+      this.currentMatchOffset = currentMatchOffset;
+
+      final List<TextRange> highlighted = new ArrayList<>(highlighters.size());
+      for (RangeHighlighter highlighter : highlighters) {
+        if (highlighter.isValid()) {
+          highlighted.add(new TextRange(highlighter.getStartOffset(), highlighter.getEndOffset()));
+          final TextAttributes attributes = highlighter.getTextAttributes();
+          if (this.currentMatchOffset == -1 && attributes != null &&
+              attributes.getEffectType() == EffectType.ROUNDED_BOX) {
+            this.currentMatchOffset = highlighter.getStartOffset();
+          }
+        }
+        editor.getMarkupModel().removeHighlighter(highlighter);
+      }
+      highlighters.clear();
+      merge(highlighted);
+
+      editor.putUserData(LAZY_SEARCH_HIGHLIGHTS, this);
+      editor.getScrollingModel().addVisibleAreaListener(this);
+      add(results, -1);
+      highlightVisibleArea(true);
+    }
+
+    /**
+     * Adds the sorted matches, and highlights the ones in the highlighted lines.
+     */
+    void add(@NotNull List<TextRange> results, int currentMatchOffset) {
+      merge(results);
+      boolean visible = false;
+      if (currentMatchOffset != -1 && currentMatchOffset != this.currentMatchOffset) {
+        this.currentMatchOffset = currentMatchOffset;
+        visible = true;
+      }
+      for (TextRange range : results) {
+        visible |= highlightedLines != null && range.getStartOffset() < highlightedLines.getEndOffset() &&
+                   range.getEndOffset() >= highlightedLines.getStartOffset();
+      }
+      if (visible) {
+        highlightVisibleArea(true);
+      }
+    }
+
+    private void merge(@NotNull List<TextRange> results) {
+      final int[] mergedStarts = new int[size + results.size()];
+      final int[] mergedEnds = new int[size + results.size()];
+      int i = 0;
+      int j = 0;
+      int k = 0;
+      while (i < size || j < results.size()) {
+        if (j == results.size() || (i < size && starts[i] <= results.get(j).getStartOffset())) {
+          mergedStarts[k] = starts[i];
+          mergedEnds[k++] = ends[i++];
+        }
+        else {
+          mergedStarts[k] = results.get(j).getStartOffset();
+          mergedEnds[k++] = results.get(j++).getEndOffset();
+        }
+      }
+      starts = mergedStarts;
+      ends = mergedEnds;
+      size = k;
+    }
+
+    /**
+     * Moves the matches like the text moves, and removes the matches in the changed lines, like
+     * {@link #removeSearchHighlights} does for highlighters. The lines are searched again.
+     */
+    void update(@NotNull DocumentEvent event, int startLineOffset, int endLineOffset) {
+      int kept = 0;
+      for (int i = 0; i < size; i++) {
+        final int start = moveOffset(event, starts[i], false);
+        final int end = moveOffset(event, ends[i], true);
+        if (start >= startLineOffset && end <= endLineOffset) {
+          continue;
+        }
+        starts[kept] = start;
+        ends[kept++] = end;
+      }
+      size = kept;
+      highlightedLines = null;
+    }
+
+    /**
+     * Moves an offset like a highlighter of a match moves when the text changes.
+     */
+    private static int moveOffset(@NotNull DocumentEvent event, int offset, boolean end) {
+      final int changeEnd = event.getOffset() + event.getOldLength();
+      if (offset < event.getOffset() || (end && offset == event.getOffset())) {
+        return offset;
+      }
+      if (offset >= changeEnd) {
+        return offset + event.getNewLength() - event.getOldLength();
+      }
+      return event.getOffset();
+    }
+
+    @Override
+    public void visibleAreaChanged(@NotNull VisibleAreaEvent e) {
+      highlightVisibleArea(false);
+    }
+
+    /**
+     * Highlights the matches in the lines around the visible area instead of the ones highlighted before.
+     *
+     * @param force Whether to highlight the matches again when the lines didn't change
+     */
+    void highlightVisibleArea(boolean force) {
+      final TextRange lines = getLinesRange(editor, getVisibleAreaTopLine(editor), getVisibleAreaBottomLine(editor) + 1);
+      if (!force && highlightedLines != null && lines.getStartOffset() == highlightedLines.getStartOffset() &&
+          lines.getEndOffset() == highlightedLines.getEndOffset()) {
+        return;
+      }
+      highlightedLines = lines;
+
+      List<RangeHighlighter> highlighters = UserDataManager.getVimLastHighlighters(editor);
+      if (highlighters == null) {
+        highlighters = new ArrayList<>();
+        UserDataManager.setVimLastHighlighters(editor, highlighters);
+      }
+      for (RangeHighlighter highlighter : highlighters) {
+        editor.getMarkupModel().removeHighlighter(highlighter);
+      }
+      highlighters.clear();
+
+      int low = 0;
+      int high = size;
+      while (low < high) {
+        final int mid = (low + high) >>> 1;
+        if (starts[mid] < lines.getStartOffset()) {
+          low = mid + 1;
+        }
+        else {
+          high = mid;
+        }
+      }
+      if (low > 0 && ends[low - 1] > lines.getStartOffset()) {
+        low--;
+      }
+      final int max = OptionsManager.INSTANCE.getIdeamaxhighlights().value();
+      for (int i = low; i < size && starts[i] < lines.getEndOffset() && highlighters.size() < max; i++) {
+        highlighters.add(highlightMatch(editor, starts[i], ends[i], starts[i] == currentMatchOffset, pattern));
+      }
+    }
+
+    void dispose() {
+      editor.getScrollingModel().removeVisibleAreaListener(this);
+      if (editor.getUserData(LAZY_SEARCH_HIGHLIGHTS) == this) {
+        editor.putUserData(LAZY_SEARCH_HIGHLIGHTS, null);
+      }
+    }
+  }
+
+  /**
+   * The matches of a search in a document, for a pattern whose matches in a line only depend on that line. They are
+   * the matches {@link #findIt} looks at: in each line the search continues at the end of a match, or one character
+   * after an empty match.
+   * <p>
+   * Repeating a search with "n", "N" or "gn" looks the match up instead of searching the text again. Changes to the
+   * text only search the changed lines again, see {@link DocumentSearchListener}.
+   * <p>
+   * The index is built a few lines at a time, so that repeating a search in a large file doesn't wait until the whole
+   * file is searched. Until the index is complete the search looks for the match in the text.
+   */
+  private static class SearchIndex {
+    @NotNull private final RegExp.regprog_T prog;
+    private final boolean ignoreCase;
+    /* The modification stamp of the document the matches were found in */
+    private long stamp;
+    /* Start and end offsets of the matches, sorted */
+    @NotNull private int[] starts = new int[16];
+    @NotNull private int[] ends = new int[16];
+    private int size;
+    /* The lines before it are searched, the index is complete when it is past the last line */
+    private int nextLine;
+    private boolean complete;
+
+    private SearchIndex(@NotNull RegExp.regprog_T prog, boolean ignoreCase) {
+      this.prog = prog;
+      this.ignoreCase = ignoreCase;
+    }
+
+    /**
+     * Gets the index of the matches of a program in the document of the editor, if it is complete and up to date.
+     */
+    @Nullable
+    static SearchIndex get(@NotNull Editor editor, @NotNull RegExp.regprog_T prog, boolean ignoreCase) {
+      final SearchIndex index = getPartial(editor, prog, ignoreCase);
+      return index != null && index.complete ? index : null;
+    }
+
+    @Nullable
+    private static SearchIndex getPartial(@NotNull Editor editor, @NotNull RegExp.regprog_T prog, boolean ignoreCase) {
+      final Document document = editor.getDocument();
+      final SearchIndex index = document.getUserData(SEARCH_INDEX);
+      return index != null && index.prog == prog && index.ignoreCase == ignoreCase &&
+             index.stamp == document.getModificationStamp() ? index : null;
+    }
+
+    /**
+     * Finds more matches of a program in the document of the editor, until the index is complete, the time limit
+     * passes or it has more matches than the limit. The next build continues where this one stopped.
+     *
+     * @return The index, which may not be complete, or null when the matches of the program can't be indexed
+     */
+    @Nullable
+    static SearchIndex build(@NotNull Editor editor, @NotNull RegExp.regprog_T prog, boolean ignoreCase,
+                             int limit) {
+      if (!RegExp.re_linelocal(prog)) {
+        return null;
+      }
+      SearchIndex index = getPartial(editor, prog, ignoreCase);
+      if (index == null) {
+        index = new SearchIndex(prog, ignoreCase);
+        index.stamp = editor.getDocument().getModificationStamp();
+        editor.getDocument().putUserData(SEARCH_INDEX, index);
+      }
+      if (index.complete || index.size > limit) {
+        return index;
+      }
+
+      final int lastLine = EditorHelper.getLineCount(editor) - 1;
+      final long tm = System.nanoTime() + SEARCH_INDEX_TIMEOUT * 1000000L;
+      index.nextLine = index.searchLines(editor, index.nextLine, lastLine, tm, limit);
+      index.complete = index.nextLine > lastLine;
+      return index;
+    }
+
+    /**
+     * Whether the matches that start before the offset are all in the index.
+     */
+    boolean isSearchedBefore(@NotNull Editor editor, int offset) {
+      return complete || offset < EditorHelper.getLineStartOffset(editor, nextLine);
+    }
+
+    /**
+     * Stores the matches {@link #findAll} found in the whole document of the editor. They are the same as the
+     * matches of the index when the search continues at the end of every match, i.e. when no match is empty.
+     */
+    static void store(@NotNull Editor editor, @NotNull RegExp.regprog_T prog, boolean ignoreCase,
+                      @NotNull List<TextRange> ranges) {
+      if (get(editor, prog, ignoreCase) != null || !RegExp.re_linelocal(prog)) {
+        return;
+      }
+      for (TextRange range : ranges) {
+        if (range.getStartOffset() == range.getEndOffset()) {
+          return;
+        }
+      }
+
+      final SearchIndex index = new SearchIndex(prog, ignoreCase);
+      for (TextRange range : ranges) {
+        index.add(range.getStartOffset(), range.getEndOffset());
+      }
+      index.complete = true;
+      index.stamp = editor.getDocument().getModificationStamp();
+      editor.getDocument().putUserData(SEARCH_INDEX, index);
+    }
+
+    /**
+     * Gets the matches {@link #findAll} finds in the whole document, which are the matches of the index if none of
+     * them is empty.
+     *
+     * @return The matches, or null if a match is empty
+     */
+    @Nullable
+    List<TextRange> getAllMatches() {
+      final List<TextRange> ranges = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        if (starts[i] == ends[i]) {
+          return null;
+        }
+        ranges.add(new TextRange(starts[i], ends[i]));
+      }
+      return ranges;
+    }
+
+    /**
+     * Searches the changed lines again, and moves the matches after them.
+     */
+    void update(@NotNull Editor editor, @NotNull DocumentEvent event) {
+      final Document document = event.getDocument();
+      final int startLine = document.getLineNumber(event.getOffset());
+      final int endLine = document.getLineNumber(event.getOffset() + event.getNewLength());
+      final int startOffset = document.getLineStartOffset(startLine);
+      final int delta = event.getNewLength() - event.getOldLength();
+      final int oldEndOffset = document.getLineEndOffset(endLine) - delta;
+
+      final int removeFrom = indexOf(startOffset);
+      final int removeTo = indexOf(oldEndOffset + 1);
+      final int[] afterStarts = Arrays.copyOfRange(starts, removeTo, size);
+      final int[] afterEnds = Arrays.copyOfRange(ends, removeTo, size);
+      size = removeFrom;
+      searchLines(editor, startLine, Math.min(endLine, EditorHelper.getLineCount(editor) - 1), 0, Integer.MAX_VALUE);
+      for (int i = 0; i < afterStarts.length; i++) {
+        add(afterStarts[i] + delta, afterEnds[i] + delta);
+      }
+      stamp = document.getModificationStamp();
+    }
+
+    /**
+     * Adds the matches in the lines from "startLine" to "endLine", until there are more matches than the limit.
+     *
+     * @param tm The time limit as a {@link System#nanoTime()} value, 0 for no limit
+     * @return The line after the last line that was searched, the matches of the line the time limit passed in are
+     * not added
+     */
+    private int searchLines(@NotNull Editor editor, int startLine, int endLine, long tm, int limit) {
+      final RegExp.regmmatch_T regMatch = new RegExp.regmmatch_T();
+      regMatch.regprog = prog;
+      regMatch.rmm_ic = ignoreCase;
+      final RegExp regExp = RegExp.obtain();
+      final int lineCount = EditorHelper.getLineCount(editor);
+
+      int line = startLine;
+      while (line <= endLine && size <= limit) {
+        if (tm != 0 && System.nanoTime() - tm > 0) {
+          break;
+        }
+        final int candidateLine =
+          regExp.vim_regexec_nextline(regMatch, editor, Math.min(lineCount, endLine + 1), line, 0, DIR_FORWARDS);
+        if (candidateLine == -1 || candidateLine > endLine) {
+          line = endLine + 1;
+          break;
+        }
+        line = candidateLine;
+
+        final CharPointer ptr = new CharPointer(EditorHelper.getLineBuffer(editor, line));
+        final int lineStart = EditorHelper.getLineStartOffset(editor, line);
+        final int lineSize = size;
+        int col = 0;
+        while (regExp.vim_regexec_multi(regMatch, editor, lineCount, line, col, tm) > 0) {
+          final int startCol = regMatch.startpos[0].col;
+          final int endCol = regMatch.endpos[0].col;
+          add(lineStart + startCol, lineStart + endCol);
+
+          col = endCol == startCol && ptr.charAt(endCol) != '\u0000' ? endCol + 1 : endCol;
+          if (ptr.charAt(col) == '\u0000') {
+            break;
+          }
+        }
+        if (regExp.vim_regexec_timed_out()) {
+          size = lineSize;
+          break;
+        }
+        line++;
+      }
+      regExp.release();
+      return line;
+    }
+
+    private void add(int start, int end) {
+      if (size == starts.length) {
+        starts = Arrays.copyOf(starts, size * 2);
+        ends = Arrays.copyOf(ends, size * 2);
+      }
+      starts[size] = start;
+      ends[size] = end;
+      size++;
+    }
+
+    /**
+     * Gets the index of the first match that starts at or after the offset.
+     */
+    private int indexOf(int offset) {
+      int low = 0;
+      int high = size;
+      while (low < high) {
+        final int mid = (low + high) >>> 1;
+        if (starts[mid] < offset) {
+          low = mid + 1;
+        }
+        else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+
+    /**
+     * Finds the match {@link #findIt} finds when it searches the whole file.
+     */
+    @Nullable
+    TextRange find(@NotNull Editor editor, int startOffset, int count, int dir, boolean wrap) {
+      final Document document = editor.getDocument();
+      final CharacterPosition start = CharacterPosition.Companion.fromOffset(editor, startOffset);
+      int line = start.line;
+      int col = start.column;
+      int found;
+      do {
+        found = dir == DIR_FORWARDS ? findForwards(editor, line, col, wrap) : findBackwards(editor, line, col, wrap);
+        if (found == -1) {
+          return null;
+        }
+        line = document.getLineNumber(starts[found]);
+        col = starts[found] - document.getLineStartOffset(line);
+      }
+      while (--count > 0);
+
+      return new TextRange(starts[found], ends[found]);
+    }
+
+    private int findForwards(@NotNull Editor editor, int line, int col, boolean wrap) {
+      int next = size;
+      if (line < EditorHelper.getLineCount(editor)) {
+        final int lineStart = EditorHelper.getLineStartOffset(editor, line);
+        final int lineEnd = editor.getDocument().getLineEndOffset(line);
+        final int length = new CharPointer(EditorHelper.getLineBuffer(editor, line)).strlen();
+        next = indexOf(lineStart);
+        /* Like findIt, skip the matches that don't start after the column, on the last character for one at the end */
+        while (next < size && starts[next] <= lineEnd) {
+          final int startCol = starts[next] - lineStart;
+          if (startCol - (startCol == length ? 1 : 0) >= col + 1) {
+            break;
+          }
+          next++;
+        }
+      }
+      if (next < size) {
+        return next;
+      }
+      return wrap && size > 0 ? 0 : -1;
+    }
 
-    return results;
+    private int findBackwards(@NotNull Editor editor, int line, int col, boolean wrap) {
+      int previous = -1;
+      if (col == 0) {
+        /* Like findIt, start in the line before */
+        previous = indexOf(editor.getDocument().getLineStartOffset(line)) - 1;
+      }
+      else if (line < EditorHelper.getLineCount(editor)) {
+        /* Like findIt, the last match in the line that starts before the column, or else in the lines before */
+        final int lineStart = EditorHelper.getLineStartOffset(editor, line);
+        final int lineEnd = editor.getDocument().getLineEndOffset(line);
+        previous = indexOf(lineStart) - 1;
+        for (int i = previous + 1; i < size && starts[i] <= lineEnd; i++) {
+          if (CharacterPosition.charOffsetOnLineToColumn(editor, line, starts[i] - lineStart + 1) > col) {
+            break;
+          }
+          previous = i;
+        }
+      }
+      if (previous >= 0) {
+        return previous;
+      }
+      return wrap && size > 0 ? size - 1 : -1;
+    }
   }
 
   @NotNull
@@ -194,7 +1119,7 @@ public class SearchGroup {
     return result.get();
   }
 
-  private static boolean shouldIgnoreCase(@NotNull String pattern, boolean ignoreSmartCase) {
+  static boolean shouldIgnoreCase(@NotNull String pattern, boolean ignoreSmartCase) {
     boolean sc = !ignoreSmartCase && OptionsManager.INSTANCE.getSmartcase().isSet();
     boolean ic = OptionsManager.INSTANCE.getIgnorecase().isSet();
 
@@ -207,7 +1132,7 @@ public class SearchGroup {
 
   public int search(@NotNull Editor editor, @NotNull Caret caret, @NotNull String command, int count, EnumSet<CommandFlags> flags,
                     boolean moveCursor) {
-    final int res = search(editor, command, caret.getOffset(), count, flags);
+    final int res = search(editor, command, caret.getOffset(), count, flags, true);
 
     if (res != -1 && moveCursor) {
       VimPlugin.getMark().saveJumpLocation(editor);
@@ -218,6 +1143,11 @@ public class SearchGroup {
   }
 
   public int search(@NotNull Editor editor, @NotNull String command, int startOffset, int count, EnumSet<CommandFlags> flags) {
+    return search(editor, command, startOffset, count, flags, false);
+  }
+
+  private int search(@NotNull Editor editor, @NotNull String command, int startOffset, int count,
+                     EnumSet<CommandFlags> flags, boolean showCount) {
     int dir = DIR_FORWARDS;
     char type = '/';
     String pattern = lastSearch;
@@ -274,7 +1204,7 @@ public class SearchGroup {
     resetShowSearchHighlight();
     forceUpdateSearchHighlights();
 
-    return findItOffset(editor, startOffset, count, lastDir);
+    return findItOffset(editor, startOffset, count, lastDir, showCount);
   }
 
   public int searchWord(@NotNull Editor editor, @NotNull Caret caret, int count, boolean whole, int dir) {
@@ -284,12 +1214,21 @@ public class SearchGroup {
       return -1;
     }
 
+    /* Like in Vim the word is matched literally, and only a keyword is matched as a whole word. Such a pattern is
+       matched by searching for the literal, without running the regexp matcher. */
+    final String word = EditorHelper.getText(editor, range.getStartOffset(), range.getEndOffset());
+    final KeywordOption iskeyword = OptionsManager.INSTANCE.getIskeyword();
     StringBuilder pattern = new StringBuilder();
-    if (whole) {
+    if (whole && iskeyword.isKeyword(word.charAt(0))) {
       pattern.append("\\<");
     }
-    pattern.append(EditorHelper.getText(editor, range.getStartOffset(), range.getEndOffset()));
-    if (whole) {
+    for (int i = 0; i < word.length(); i++) {
+      if ("\\/.*$^~[".indexOf(word.charAt(i)) != -1) {
+        pattern.append('\\');
+      }
+      pattern.append(word.charAt(i));
+    }
+    if (whole && iskeyword.isKeyword(word.charAt(word.length() - 1))) {
       pattern.append("\\>");
     }
 
@@ -304,7 +1243,7 @@ public class SearchGroup {
     resetShowSearchHighlight();
     forceUpdateSearchHighlights();
 
-    return findItOffset(editor, caret.getOffset(), count, lastDir);
+    return findItOffset(editor, caret.getOffset(), count, lastDir, true);
   }
 
   public int searchNext(@NotNull Editor editor, @NotNull Caret caret, int count) {
@@ -318,13 +1257,62 @@ public class SearchGroup {
   public int searchNextFromOffset(@NotNull Editor editor, int offset, int count) {
     resetShowSearchHighlight();
     updateSearchHighlights();
-    return findItOffset(editor, offset, count, 1);
+    buildSearchIndex(editor, lastIgnoreSmartCase);
+    return findItOffset(editor, offset, count, 1, false);
   }
 
   private int searchNextWithDirection(@NotNull Editor editor, @NotNull Caret caret, int count, int dir) {
     resetShowSearchHighlight();
     updateSearchHighlights();
-    return findItOffset(editor, caret.getOffset(), count, dir);
+    buildSearchIndex(editor, lastIgnoreSmartCase);
+    return findItOffset(editor, caret.getOffset(), count, dir, true);
+  }
+
+  /**
+   * Indexes the matches of the last search pattern, so that repeating the search doesn't search the text again.
+   */
+  private void buildSearchIndex(@NotNull Editor editor, boolean ignoreSmartCase) {
+    if (lastSearch == null || lastSearch.isEmpty()) {
+      return;
+    }
+    final RegExp.regprog_T prog = RegExpCache.vim_regcomp(lastSearch, 1);
+    if (prog != null) {
+      SearchIndex.build(editor, prog, shouldIgnoreCase(lastSearch, ignoreSmartCase), Integer.MAX_VALUE);
+    }
+  }
+
+  /**
+   * Gets the index of the match of the last search pattern that starts at the offset and the number of matches, like
+   * "[2/5]". Counts above 'maxsearchcount' are shown as ">999".
+   * <p>
+   * The matches are counted in the index of the matches, which is kept up to date when the text changes, so showing
+   * the count again doesn't search the whole text again. Like Vim's search count, the search stops after
+   * 'maxsearchcount' matches or when the time limit passes, then the unknown counts are shown as "[?/??]".
+   *
+   * @return The count, or null when the matches of the pattern can't be indexed
+   */
+  @Nullable
+  public String getSearchCount(@NotNull Editor editor, int offset) {
+    if (lastSearch == null || lastSearch.isEmpty()) {
+      return null;
+    }
+    final RegExp.regprog_T prog = RegExpCache.vim_regcomp(lastSearch, 1);
+    if (prog == null) {
+      return null;
+    }
+    final boolean ignoreCase = shouldIgnoreCase(lastSearch, lastIgnoreSmartCase);
+    final int max = OptionsManager.INSTANCE.getMaxsearchcount().value();
+    final SearchIndex index = SearchIndex.build(editor, prog, ignoreCase, max);
+    if (index == null) {
+      return null;
+    }
+
+    final String total = index.size > max ? ">" + max : index.complete ? String.valueOf(index.size) : "??";
+    if (!index.isSearchedBefore(editor, offset + 1)) {
+      return "[" + (index.size > max ? ">" + max : "?") + "/" + total + "]";
+    }
+    final int current = index.indexOf(offset + 1);
+    return "[" + (current > max ? ">" + max : current) + "/" + total + "]";
   }
 
   private void resetShowSearchHighlight() {
@@ -345,6 +1333,7 @@ public class SearchGroup {
   }
 
   public void resetIncsearchHighlights() {
+    incsearchLines = null;
     updateSearchHighlights(lastSearch, lastIgnoreSmartCase, showSearchHighlight, true);
   }
 
@@ -369,6 +1358,13 @@ public class SearchGroup {
                                      int initialOffset, @Nullable LineRange searchRange, boolean forwards, boolean forceUpdate) {
     int currentMatchOffset = -1;
 
+    /* The matches only depend on the document, unless the pattern matches the cursor. Editors that show the same
+       document only create their own highlighters */
+    final RegExp.regprog_T prog = pattern == null || pattern.isEmpty() ? null : RegExpCache.vim_regcomp(pattern, 1);
+    final boolean sameMatches = prog != null && !RegExp.re_cursor(prog);
+    final Map<Document, List<TextRange>> documentResults = new HashMap<>();
+    final Map<Document, TextRange> documentCurrentMatches = new HashMap<>();
+
     Project[] projects = ProjectManager.getInstance().getOpenProjects();
     for (Project project : projects) {
       Editor current = FileEditorManager.getInstance(project).getSelectedTextEditor();
@@ -385,21 +1381,48 @@ public class SearchGroup {
           removeSearchHighlight(editor);
         }
 
+        final Document document = editor.getDocument();
         if (shouldAddSearchHighlight(editor, pattern, showHighlights)) {
-          final int startLine = searchRange == null ? 0 : searchRange.getStartLine();
-          final int endLine = searchRange == null ? -1 : searchRange.getEndLine();
-          List<TextRange> results = findAll(editor, pattern, startLine, endLine, shouldIgnoreCase(pattern, shouldIgnoreSmartCase));
-          if (!results.isEmpty()) {
-            currentMatchOffset = findClosestMatch(editor, results, initialOffset, forwards);
-            highlightSearchResults(editor, pattern, results, currentMatchOffset);
+          if (searchRange == null && canHighlightFromVisibleArea(editor, pattern)) {
+            currentMatchOffset = -1;
+            if (initialOffset != -1) {
+              /* The closest match may be in the lines searched in the background, find it now like without 'hlsearch' */
+              final TextRange currentMatch = sameMatches && documentCurrentMatches.containsKey(document)
+                                             ? documentCurrentMatches.get(document)
+                                             : findCurrentMatch(editor, pattern, initialOffset, forwards,
+                                                                shouldIgnoreSmartCase);
+              documentCurrentMatches.put(document, currentMatch);
+              if (currentMatch != null) {
+                currentMatchOffset = currentMatch.getStartOffset();
+              }
+            }
+            highlightSearchFromVisibleArea(editor, pattern, prog, shouldIgnoreCase(pattern, shouldIgnoreSmartCase),
+                                           currentMatchOffset);
+          }
+          else {
+            final int startLine = searchRange == null ? 0 : searchRange.getStartLine();
+            final int endLine = searchRange == null ? -1 : searchRange.getEndLine();
+            List<TextRange> results = sameMatches ? documentResults.get(document) : null;
+            if (results == null) {
+              final boolean ignoreCase = shouldIgnoreCase(pattern, shouldIgnoreSmartCase);
+              results = initialOffset != -1
+                        ? findIncsearchMatches(editor, pattern, startLine, endLine, ignoreCase)
+                        : findAll(editor, pattern, startLine, endLine, ignoreCase);
+              documentResults.put(document, results);
+            }
+            if (!results.isEmpty()) {
+              currentMatchOffset = findClosestMatch(editor, results, initialOffset, forwards);
+              highlightSearchResults(editor, pattern, results, currentMatchOffset);
+            }
           }
           UserDataManager.setVimLastSearch(editor, pattern);
         }
         else if (!showHighlights && initialOffset != -1) {
           // Incremental search always highlights current match. We know it's incsearch if we have a valid initial offset
-          final boolean wrap = OptionsManager.INSTANCE.getWrapscan().isSet();
-          final TextRange result = findIt(editor, pattern, initialOffset, 1,
-            forwards ? DIR_FORWARDS : DIR_BACKWARDS, shouldIgnoreSmartCase, wrap, false, true);
+          final TextRange result = sameMatches && documentCurrentMatches.containsKey(document)
+                                   ? documentCurrentMatches.get(document)
+                                   : findCurrentMatch(editor, pattern, initialOffset, forwards, shouldIgnoreSmartCase);
+          documentCurrentMatches.put(document, result);
           if (result != null) {
             currentMatchOffset = result.getStartOffset();
             final List<TextRange> results = Collections.singletonList(result);
@@ -412,6 +1435,147 @@ public class SearchGroup {
     return currentMatchOffset;
   }
 
+  private static int getVisibleAreaTopLine(@NotNull Editor editor) {
+    final int top = EditorHelper.visualLineToLogicalLine(editor, Math.max(0, EditorHelper.getVisualLineAtTopOfScreen(editor)));
+    return Math.max(0, top - VISIBLE_AREA_MARGIN_LINES);
+  }
+
+  private static int getVisibleAreaBottomLine(@NotNull Editor editor) {
+    final int bottom =
+      EditorHelper.visualLineToLogicalLine(editor, Math.max(0, EditorHelper.getVisualLineAtBottomOfScreen(editor)));
+    return Math.min(EditorHelper.getLineCount(editor), bottom + VISIBLE_AREA_MARGIN_LINES);
+  }
+
+  /**
+   * Whether the file is longer than the lines around the visible area and the matches of the pattern in a line only
+   * depend on that line. Other matches might start before the lines around the visible area.
+   */
+  private static boolean canHighlightFromVisibleArea(@NotNull Editor editor, @NotNull String pattern) {
+    if (getVisibleAreaTopLine(editor) == 0 && getVisibleAreaBottomLine(editor) >= EditorHelper.getLineCount(editor)) {
+      return false;
+    }
+    final RegExp.regprog_T prog = RegExpCache.vim_regcomp(pattern, 1);
+    return prog != null && RegExp.re_linelocal(prog);
+  }
+
+  /**
+   * Finds the matches of the pattern of an incremental search. When the pattern is the previous one followed by more
+   * characters that only match themselves, only the lines with matches of the previous pattern are searched again.
+   */
+  @NotNull
+  private List<TextRange> findIncsearchMatches(@NotNull Editor editor, @NotNull String pattern, int startLine,
+                                               int endLine, boolean ignoreCase) {
+    final IncsearchLines previous = incsearchLines;
+    incsearchLines = null;
+    final RegExp.regprog_T prog = RegExpCache.vim_regcomp(pattern, 1);
+    if (prog == null) {
+      return Lists.newArrayList();
+    }
+
+    final Document document = editor.getDocument();
+    final boolean lineLocal = RegExp.re_linelocal(prog);
+    final boolean refine = lineLocal && previous != null && previous.document == document &&
+                           previous.stamp == document.getModificationStamp() && previous.startLine == startLine &&
+                           previous.endLine == endLine && previous.ignoreCase == ignoreCase &&
+                           isLiteralExtension(previous.pattern, pattern);
+    final Matches matches = findAll(editor, prog, startLine, endLine, ignoreCase, refine ? previous.lines : null);
+    if (lineLocal && !matches.timedOut) {
+      incsearchLines = new IncsearchLines(document, pattern, ignoreCase, startLine, endLine, matches.ranges);
+    }
+    return matches.ranges;
+  }
+
+  /**
+   * Whether the pattern is the previous pattern followed by letters, digits, "_" or spaces, which only match
+   * themselves in all modes of magic, and don't change the meaning of the end of the previous pattern.
+   */
+  private static boolean isLiteralExtension(@NotNull String previous, @NotNull String pattern) {
+    if (previous.isEmpty() || pattern.length() <= previous.length() || !pattern.startsWith(previous)) {
+      return false;
+    }
+    for (int i = previous.length(); i < pattern.length(); i++) {
+      if (!isLiteralChar(pattern.charAt(i))) {
+        return false;
+      }
+    }
+
+    /* The characters at the end of the previous pattern must not be part of an item like "\zs", "\%d123" or "\{1" */
+    int start = previous.length();
+    while (start > 0 && isLiteralChar(previous.charAt(start - 1))) {
+      start--;
+    }
+    return start < previous.length() && (start == 0 || "\\%{@".indexOf(previous.charAt(start - 1)) == -1);
+  }
+
+  private static boolean isLiteralChar(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == ' ';
+  }
+
+  /**
+   * Finds the match that incremental search moves to, giving up after a short time.
+   */
+  @Nullable
+  private static TextRange findCurrentMatch(@NotNull Editor editor, @NotNull String pattern, int initialOffset,
+                                            boolean forwards, boolean shouldIgnoreSmartCase) {
+    final boolean wrap = OptionsManager.INSTANCE.getWrapscan().isSet();
+    return findIt(editor, pattern, initialOffset, 1, forwards ? DIR_FORWARDS : DIR_BACKWARDS, shouldIgnoreSmartCase,
+                  wrap, false, true, System.nanoTime() + INCSEARCH_TIMEOUT * 1000000L);
+  }
+
+  /**
+   * Highlights the matches in the lines around the visible area, then the rest of them in the background, so that the
+   * time until the matches on the screen are highlighted doesn't depend on the size of the file.
+   */
+  private static void highlightSearchFromVisibleArea(@NotNull Editor editor, @NotNull String pattern,
+                                                     @NotNull RegExp.regprog_T prog, boolean ignoreCase,
+                                                     int currentMatchOffset) {
+    final SearchIndex index = SearchIndex.get(editor, prog, ignoreCase);
+    final List<TextRange> all = index != null ? index.getAllMatches() : null;
+    if (all != null) {
+      /* The document was already searched, for another editor or to repeat a search */
+      highlightSearchResults(editor, pattern, all, currentMatchOffset);
+      return;
+    }
+
+    final int lineCount = EditorHelper.getLineCount(editor);
+    final int top = getVisibleAreaTopLine(editor);
+    final int bottom = getVisibleAreaBottomLine(editor);
+    final long tm = System.nanoTime() + OptionsManager.INSTANCE.getRedrawtime().value() * 1000000L;
+    final Matches visible = new Matches();
+    findMatches(editor, prog, ignoreCase, lineCount, top, 0, bottom + 1, tm, visible, false);
+    highlightSearchResults(editor, pattern, visible.ranges, currentMatchOffset);
+    if (visible.timedOut) {
+      VimPlugin.showMessage(MessageHelper.message(Msg.e_redrawtime));
+      return;
+    }
+    if (top == 0 && bottom >= lineCount) {
+      return;
+    }
+
+    final SearchHighlightJob running = editor.getDocument().getUserData(SEARCH_HIGHLIGHT_JOB);
+    if (running != null && running.canJoin(pattern, prog, ignoreCase)) {
+      running.join(editor, getLinesRange(editor, top, bottom + 1));
+      return;
+    }
+
+    new SearchHighlightJob(editor, pattern, prog, ignoreCase, lineCount, currentMatchOffset, tm, visible, top,
+                           bottom + 1).start();
+  }
+
+  /**
+   * Highlights the matches of a search again after the text changed while they were highlighted in the background.
+   */
+  private static void restartSearchHighlightJob(@NotNull Editor editor, @NotNull SearchHighlightJob job) {
+    if (editor.isDisposed() || !job.pattern.equals(UserDataManager.getVimLastSearch(editor)) ||
+        editor.getUserData(SEARCH_HIGHLIGHT_JOB) != null) {
+      return;
+    }
+
+    removeSearchHighlight(editor);
+    highlightSearchFromVisibleArea(editor, job.pattern, job.prog, job.ignoreCase, -1);
+    UserDataManager.setVimLastSearch(editor, job.pattern);
+  }
+
   /**
    * Remove current search highlights if hlSearch is false, or if the pattern is changed
    */
@@ -426,11 +1590,25 @@ public class SearchGroup {
     return hlSearch && newPattern != null && !newPattern.equals(UserDataManager.getVimLastSearch(editor)) && !Objects.equals(newPattern, "");
   }
 
-  private void highlightSearchLines(@NotNull Editor editor, int startLine, int endLine) {
-    if (lastSearch != null) {
-      final List<TextRange> results = findAll(editor, lastSearch, startLine, endLine, shouldIgnoreCase(lastSearch, lastIgnoreSmartCase));
-      highlightSearchResults(editor, lastSearch, results, -1);
+  /**
+   * Highlights the matches of the last search in the lines.
+   *
+   * @param results The matches in the lines found for another editor of the document, null to search the lines
+   * @return The matches, null if they depend on the editor
+   */
+  @Nullable
+  private List<TextRange> highlightSearchLines(@NotNull Editor editor, int startLine, int endLine,
+                                               @Nullable List<TextRange> results) {
+    if (lastSearch == null) {
+      return null;
+    }
+    if (results == null) {
+      results = findAll(editor, lastSearch, startLine, endLine, shouldIgnoreCase(lastSearch, lastIgnoreSmartCase));
     }
+    highlightSearchResults(editor, lastSearch, results, -1);
+
+    final RegExp.regprog_T prog = RegExpCache.vim_regcomp(lastSearch, 1);
+    return prog != null && !RegExp.re_cursor(prog) ? results : null;
   }
 
   private int findClosestMatch(@NotNull Editor editor, List<TextRange> results, int initialOffset, boolean forwards) {
@@ -464,6 +1642,7 @@ public class SearchGroup {
   @Nullable
   public TextRange getNextSearchRange(@NotNull Editor editor, int count, boolean forwards) {
     editor.getCaretModel().removeSecondaryCarets();
+    buildSearchIndex(editor, false);
     TextRange current = findUnderCaret(editor);
 
     if (current == null || CommandStateHelper.inVisualMode(editor) && atEdgeOfGnRange(current, editor, forwards)) {
@@ -525,6 +1704,19 @@ public class SearchGroup {
   @Nullable
   private static TextRange findIt(@NotNull Editor editor, @Nullable String pattern, int startOffset, int count, int dir,
                                  boolean ignoreSmartCase, boolean wrap, boolean showMessages, boolean wholeFile) {
+    return findIt(editor, pattern, startOffset, count, dir, ignoreSmartCase, wrap, showMessages, wholeFile, 0);
+  }
+
+  /**
+   * Like {@link #findIt(Editor, String, int, int, int, boolean, boolean, boolean, boolean)}, but gives up when the
+   * time limit "tm" has passed.
+   *
+   * @param tm The time limit as a {@link System#nanoTime()} value, 0 for no limit
+   */
+  @Nullable
+  private static TextRange findIt(@NotNull Editor editor, @Nullable String pattern, int startOffset, int count, int dir,
+                                  boolean ignoreSmartCase, boolean wrap, boolean showMessages, boolean wholeFile,
+                                  long tm) {
     if (pattern == null || pattern.length() == 0) {
       logger.warn("Pattern is null or empty. Cannot perform search");
       return null;
@@ -534,13 +1726,31 @@ public class SearchGroup {
     RegExp sp;
     RegExp.regmmatch_T regmatch = new RegExp.regmmatch_T();
     regmatch.rmm_ic = shouldIgnoreCase(pattern, ignoreSmartCase);
-    sp = new RegExp();
-    regmatch.regprog = sp.vim_regcomp(pattern, 1);
+    regmatch.regprog = RegExpCache.vim_regcomp(pattern, 1);
     if (regmatch.regprog == null) {
       if (logger.isDebugEnabled()) logger.debug("bad pattern: " + pattern);
       return null;
     }
 
+    final SearchIndex index = wholeFile && tm == 0 ? SearchIndex.get(editor, regmatch.regprog, regmatch.rmm_ic) : null;
+    if (index != null) {
+      final TextRange range = index.find(editor, startOffset, count, dir, wrap);
+      if (range == null && showMessages) {
+        if (wrap) {
+          VimPlugin.showMessage(MessageHelper.message(Msg.e_patnotf2, pattern));
+        }
+        else if (dir == DIR_BACKWARDS || EditorHelper.getLineCount(editor) <= 0) {
+          VimPlugin.showMessage(MessageHelper.message(Msg.E384, pattern));
+        }
+        else {
+          VimPlugin.showMessage(MessageHelper.message(Msg.E385, pattern));
+        }
+      }
+      return range;
+    }
+
+    sp = RegExp.obtain();
+
     /*
     int extra_col = 1;
     int startcol = -1;
@@ -598,18 +1808,36 @@ public class SearchGroup {
         lnum = pos.lnum;
       }
 
-      int lcount = EditorHelper.getLineCount(editor);
-      for (loop = 0; loop <= 1; ++loop)   /* loop twice if 'wrapscan' set */ {
-        if (!wholeFile) {
-          startLine = lnum;
-          endLine = lnum + 1;
-        }
-        for (; lnum >= startLine && lnum < endLine; lnum += dir, at_first_line = false) {
+      int lcount = EditorHelper.getLineCount(editor);
+      for (loop = 0; loop <= 1; ++loop)   /* loop twice if 'wrapscan' set */ {
+        if (!wholeFile) {
+          startLine = lnum;
+          endLine = lnum + 1;
+        }
+        /* nearest line that may contain a match, found by scanning for the pattern's literal */
+        int candidate = dir == DIR_FORWARDS ? -1 : lcount;
+        for (; lnum >= startLine && lnum < endLine; lnum += dir, at_first_line = false) {
+          if (sp.vim_regexec_timed_out()) {
+            break;
+          }
+          if (dir == DIR_FORWARDS ? lnum > candidate : lnum < candidate) {
+            candidate = sp.vim_regexec_nextline(regmatch, editor, lcount, lnum, 0, dir);
+            if (candidate == -1) {
+              candidate = dir == DIR_FORWARDS ? lcount : -1;
+            }
+          }
+          if (lnum != candidate) {
+            if (loop != 0 && lnum == start_pos.lnum) {
+              break;          /* if second loop, stop where started */
+            }
+            continue;
+          }
+
           /*
           * Look for a match somewhere in the line.
           */
           first_lnum = lnum;
-          nmatched = sp.vim_regexec_multi(regmatch, editor, lcount, lnum, 0);
+          nmatched = sp.vim_regexec_multi(regmatch, editor, lcount, lnum, 0, tm);
           if (nmatched > 0) {
             /* match may actually be in another line when using \zs */
             lnum += regmatch.startpos[0].lnum;
@@ -642,7 +1870,7 @@ public class SearchGroup {
                   ++matchcol;
                 }
                 if (ptr.charAt(matchcol) == '\u0000' ||
-                    (nmatched = sp.vim_regexec_multi(regmatch, editor, lcount, lnum, matchcol)) == 0) {
+                    (nmatched = sp.vim_regexec_multi(regmatch, editor, lcount, lnum, matchcol, tm)) == 0) {
                   match_ok = false;
                   break;
                 }
@@ -694,7 +1922,7 @@ public class SearchGroup {
                   ++matchcol;
                 }
                 if (ptr.charAt(matchcol) == '\u0000' ||
-                    (nmatched = sp.vim_regexec_multi(regmatch, editor, lcount, lnum, matchcol)) == 0) {
+                    (nmatched = sp.vim_regexec_multi(regmatch, editor, lcount, lnum, matchcol, tm)) == 0) {
                   break;
                 }
 
@@ -733,10 +1961,10 @@ public class SearchGroup {
         at_first_line = false;
 
         /*
-        * stop the search if wrapscan isn't set, after an interrupt and
-        * after a match
+        * stop the search if wrapscan isn't set, after an interrupt, after
+        * a match and after the time limit
         */
-        if (!wrap || found != 0) {
+        if (!wrap || found != 0 || sp.vim_regexec_timed_out()) {
           break;
         }
 
@@ -762,6 +1990,7 @@ public class SearchGroup {
       //    break;
     }
     while (--count > 0 && found != 0);   /* stop after count matches or no match */
+    sp.release();
 
     if (found == 0)             /* did not find it */ {
       //if ((options & SEARCH_MSG) == SEARCH_MSG)
@@ -789,20 +2018,87 @@ public class SearchGroup {
 
   private static void highlightSearchResults(@NotNull Editor editor, @NotNull String pattern, List<TextRange> results,
                                              int currentMatchOffset) {
-    Collection<RangeHighlighter> highlighters = UserDataManager.getVimLastHighlighters(editor);
+    List<RangeHighlighter> highlighters = UserDataManager.getVimLastHighlighters(editor);
     if (highlighters == null) {
       highlighters = new ArrayList<>();
       UserDataManager.setVimLastHighlighters(editor, highlighters);
     }
+    if (results.isEmpty()) {
+      return;
+    }
+
+    final LazySearchHighlights lazy = editor.getUserData(LAZY_SEARCH_HIGHLIGHTS);
+    if (lazy != null) {
+      lazy.add(results, currentMatchOffset);
+      return;
+    }
+    if (highlighters.size() + results.size() > OptionsManager.INSTANCE.getIdeamaxhighlights().value()) {
+      new LazySearchHighlights(editor, pattern, highlighters, results, currentMatchOffset);
+      return;
+    }
 
+    final List<RangeHighlighter> added = new ArrayList<>(results.size());
     for (TextRange range : results) {
       final boolean current = range.getStartOffset() == currentMatchOffset;
-      final RangeHighlighter highlighter = highlightMatch(editor, range.getStartOffset(), range.getEndOffset(), current, pattern);
-      highlighters.add(highlighter);
+      added.add(highlightMatch(editor, range.getStartOffset(), range.getEndOffset(), current, pattern));
+    }
+
+    /* The results are sorted and usually fit between two highlighters, else sort all of them again */
+    final int index = indexOfHighlighter(highlighters, results.get(0).getStartOffset());
+    highlighters.addAll(index, added);
+    final int next = index + added.size();
+    if ((index > 0 && highlighters.get(index - 1).getStartOffset() > added.get(0).getStartOffset()) ||
+        (next < highlighters.size() &&
+         highlighters.get(next).getStartOffset() < added.get(added.size() - 1).getStartOffset())) {
+      highlighters.sort(Comparator.comparingInt(RangeHighlighter::getStartOffset));
+    }
+  }
+
+  /**
+   * Gets the index of the first of the sorted highlighters that starts at or after the offset.
+   */
+  private static int indexOfHighlighter(@NotNull List<RangeHighlighter> highlighters, int offset) {
+    int low = 0;
+    int high = highlighters.size();
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (highlighters.get(mid).getStartOffset() < offset) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Removes the highlighters of the matches in the lines between the offsets, and the ones that are no longer valid
+   * because their text was deleted.
+   */
+  private static void removeSearchHighlights(@NotNull Editor editor, @NotNull List<RangeHighlighter> highlighters,
+                                             int startLineOffset, int endLineOffset) {
+    int index = indexOfHighlighter(highlighters, startLineOffset);
+    /* Highlighters of deleted text keep the offsets they had, which may be just before the lines */
+    while (index > 0 && !highlighters.get(index - 1).isValid()) {
+      index--;
+    }
+
+    final List<RangeHighlighter> lineHighlighters = highlighters.subList(index, highlighters.size());
+    final Iterator<RangeHighlighter> iter = lineHighlighters.iterator();
+    while (iter.hasNext()) {
+      final RangeHighlighter highlighter = iter.next();
+      if (highlighter.isValid() && highlighter.getStartOffset() > endLineOffset) {
+        break;
+      }
+      if (!highlighter.isValid() || (highlighter.getStartOffset() >= startLineOffset && highlighter.getEndOffset() <= endLineOffset)) {
+        iter.remove();
+        editor.getMarkupModel().removeHighlighter(highlighter);
+      }
     }
   }
 
-  private int findItOffset(@NotNull Editor editor, int startOffset, int count, int dir) {
+  private int findItOffset(@NotNull Editor editor, int startOffset, int count, int dir, boolean showCount) {
     boolean wrap = OptionsManager.INSTANCE.getWrapscan().isSet();
     logger.info("Perform search. Direction: " + dir + " wrap: " + wrap);
     TextRange range = findIt(editor, lastSearch, startOffset, count, dir, lastIgnoreSmartCase, wrap, true, true);
@@ -811,6 +2107,14 @@ public class SearchGroup {
       return -1;
     }
 
+    if (showCount && !OptionsManager.INSTANCE.getShortmess().contains("S")) {
+      final String searchCount = getSearchCount(editor, range.getStartOffset());
+      if (searchCount != null) {
+        VimPlugin.showMessage(MessageHelper.message(Msg.search_count, dir == DIR_FORWARDS ? "/" : "?", lastSearch,
+                                                    searchCount));
+      }
+    }
+
     ParsePosition pp = new ParsePosition(0);
     int res = range.getStartOffset();
 
@@ -886,7 +2190,7 @@ public class SearchGroup {
         ppos++;
       }
 
-      res = search(editor, lastOffset.substring(ppos + 1), res, 1, flags);
+      res = search(editor, lastOffset.substring(ppos + 1), res, 1, flags, showCount);
 
       return res;
     }
@@ -989,6 +2293,7 @@ public class SearchGroup {
     else {
       do_all = OptionsManager.INSTANCE.getGdefault().isSet();
       do_ask = false;
+      do_count = false;
       do_error = true;
       //do_print = false;
       do_ic = 0;
@@ -1016,6 +2321,9 @@ public class SearchGroup {
       else if (cmd.charAt() == 'I')       /* don't ignore case */ {
         do_ic = 'I';
       }
+      else if (cmd.charAt() == 'n')       /* only count the matches */ {
+        do_count = true;
+      }
       else if (cmd.charAt() != 'p') {
         break;
       }
@@ -1084,7 +2392,7 @@ public class SearchGroup {
     RegExp sp;
     RegExp.regmmatch_T regmatch = new RegExp.regmmatch_T();
     sp = new RegExp();
-    regmatch.regprog = sp.vim_regcomp(pattern, 1);
+    regmatch.regprog = RegExpCache.vim_regcomp(pattern, 1);
     if (regmatch.regprog == null) {
       if (do_error) {
         VimPlugin.showMessage(MessageHelper.message(Msg.e_invcmd));
@@ -1128,6 +2436,13 @@ public class SearchGroup {
       logger.debug("search range=[" + start + "," + end + "]");
       logger.debug("pattern=" + pattern + ", replace=" + sub);
     }
+    if (do_count) {
+      return countSubstitutes(editor, regmatch, line1, line2, pattern);
+    }
+    if (!do_ask && RegExp.re_linelocal(regmatch.regprog)) {
+      return substituteAll(editor, caret, sp, regmatch, sub, line1, line2, pattern);
+    }
+
     int lastMatch = -1;
     int lastLine = -1;
     int searchcol = 0;
@@ -1231,6 +2546,366 @@ public class SearchGroup {
     return true;
   }
 
+  /**
+   * Reports the number of matches a substitute would replace and the lines they are in, without changing the text.
+   */
+  private boolean countSubstitutes(@NotNull Editor editor, @NotNull RegExp.regmmatch_T regmatch, int line1, int line2,
+                                   @NotNull String pattern) {
+    final RegExp.regprog_T prog = regmatch.regprog;
+    final int lcount = EditorHelper.getLineCount(editor);
+    final Matches matches;
+    if (do_all || RegExp.re_linelocal(prog)) {
+      /* Without "g" only the first match in each line is counted, which is the first match of a line-local pattern */
+      if (canSearchInParallel(line2 - line1)) {
+        matches = findAllParallel(editor, prog, regmatch.rmm_ic, lcount, line1, line2 + 1, 0);
+      }
+      else {
+        matches = new Matches();
+        findMatches(editor, prog, regmatch.rmm_ic, lcount, line1, 0, line2 + 1, 0, matches, false);
+      }
+    }
+    else {
+      /* After a match the search continues on the line after its end */
+      matches = new Matches();
+      int line = line1;
+      while (line <= line2) {
+        final int count = matches.ranges.size();
+        findMatches(editor, prog, regmatch.rmm_ic, lcount, line, 0, line2 + 1, 0, matches, true);
+        if (matches.ranges.size() == count) {
+          break;
+        }
+        line = editor.getDocument().getLineNumber(matches.ranges.get(count).getEndOffset()) + 1;
+      }
+    }
+
+    int nsubs = 0;
+    int nlines = 0;
+    int lastLine = -1;
+    for (TextRange range : matches.ranges) {
+      final int line = editor.getDocument().getLineNumber(range.getStartOffset());
+      if (line != lastLine) {
+        nlines++;
+        lastLine = line;
+      }
+      else if (!do_all) {
+        continue;
+      }
+      nsubs++;
+    }
+
+    if (nsubs == 0) {
+      VimPlugin.showMessage(MessageHelper.message(Msg.e_patnotf2, pattern));
+    }
+    else {
+      VimPlugin.showMessage(MessageHelper.message(Msg.substitute_count, nsubs, nlines));
+    }
+    return true;
+  }
+
+  /**
+   * Substitutes all matches without asking for confirmation. The matches of the pattern must only depend on their own
+   * line, then they can all be found in the text before it is changed, and the replacements are made at once.
+   */
+  private boolean substituteAll(@NotNull Editor editor, @NotNull Caret caret, @NotNull RegExp sp,
+                                @NotNull RegExp.regmmatch_T regmatch, @NotNull CharPointer sub, int line1, int line2,
+                                @NotNull String pattern) {
+    final Document document = editor.getDocument();
+    final int lcount = EditorHelper.getLineCount(editor);
+    final List<TextRange> ranges = new ArrayList<>();
+    final List<String> replacements = new ArrayList<>();
+    int lnum = line1;
+    int searchcol = 0;
+    while (lnum <= line2) {
+      final int candidateLine =
+        sp.vim_regexec_nextline(regmatch, editor, Math.min(lcount, line2 + 1), lnum, searchcol, DIR_FORWARDS);
+      if (candidateLine == -1) {
+        break;
+      }
+      if (candidateLine != lnum) {
+        lnum = candidateLine;
+        searchcol = 0;
+      }
+
+      if (sp.vim_regexec_multi(regmatch, editor, lcount, lnum, searchcol) > 0) {
+        final String match = sp.vim_regsub_multi(regmatch, lnum, sub, 1, false);
+        if (match == null) {
+          return false;
+        }
+
+        final int startoff =
+          new CharacterPosition(lnum + regmatch.startpos[0].lnum, regmatch.startpos[0].col).toOffset(editor);
+        final int endoff =
+          new CharacterPosition(lnum + regmatch.endpos[0].lnum, regmatch.endpos[0].col).toOffset(editor);
+        ranges.add(new TextRange(startoff, endoff));
+        replacements.add(match);
+
+        if (do_all && startoff != endoff) {
+          searchcol = regmatch.endpos[0].col;
+          continue;
+        }
+      }
+      lnum++;
+      searchcol = 0;
+    }
+
+    if (ranges.isEmpty()) {
+      VimPlugin.showMessage(MessageHelper.message(Msg.e_patnotf2, pattern));
+      return true;
+    }
+
+    VimPlugin.getMark().saveJumpLocation(editor);
+
+    /* Replace from the end, so the offsets of the earlier matches stay the same */
+    final boolean bulk = ranges.size() >= BULK_UPDATE_COUNT && document instanceof DocumentEx;
+    if (bulk) {
+      startBulkUpdate((DocumentEx)document);
+    }
+    try {
+      for (int i = ranges.size() - 1; i >= 0; i--) {
+        final TextRange range = ranges.get(i);
+        document.replaceString(range.getStartOffset(), range.getEndOffset(), replacements.get(i));
+      }
+    }
+    finally {
+      if (bulk) {
+        finishBulkUpdate((DocumentEx)document);
+      }
+    }
+    if (bulk) {
+      /* The search highlights aren't updated during a bulk update */
+      forceUpdateSearchHighlights();
+    }
+
+    int lastMatch = ranges.get(ranges.size() - 1).getStartOffset();
+    for (int i = 0; i < ranges.size() - 1; i++) {
+      lastMatch += replacements.get(i).length() - ranges.get(i).getEndOffset() + ranges.get(i).getStartOffset();
+    }
+    final int lastLine = document.getLineNumber(lastMatch);
+    MotionGroup.moveCaret(editor, caret, VimPlugin.getMotion().moveCaretToLineStartSkipLeading(editor, lastLine));
+    return true;
+  }
+
+  /**
+   * Executes an Ex command for each line in the range with a match of the pattern, or without a match for :vglobal.
+   * <p>
+   * Like in Vim the matching lines are marked first, then the command is executed for the lines that are still there.
+   *
+   * @param editor  The editor to run the command in
+   * @param context The data context
+   * @param range   The lines to look at
+   * @param exarg   The pattern between delimiters followed by the command, by default the lines are printed
+   * @param invert  Whether the command is executed for the lines without a match
+   * @return True if the command succeeded for all lines, false if not
+   */
+  public boolean processGlobalCommand(@NotNull Editor editor, @NotNull DataContext context, @NotNull LineRange range,
+                                      @NotNull String exarg, boolean invert) {
+    if (globalBusy) {
+      VimPlugin.showMessage(MessageHelper.message(Msg.E147));
+      return false;
+    }
+
+    CharPointer cmd = new CharPointer(new StringBuffer(exarg));
+    String pattern;
+    if (cmd.isNul()) {
+      VimPlugin.showMessage(MessageHelper.message(Msg.E148));
+      return false;
+    }
+    else if (cmd.charAt() == '\\') {
+      /* "\/" and "\?" use the last search pattern, "\&" the last substitute pattern */
+      cmd.inc();
+      if ("/?&".indexOf(cmd.charAt()) == -1) {
+        VimPlugin.showMessage(MessageHelper.message(Msg.e_backslash));
+        return false;
+      }
+      pattern = cmd.charAt() == '&' ? lastSubstitute : lastSearch;
+      cmd.inc();
+    }
+    else if (CharacterClasses.isAlpha(cmd.charAt())) {
+      VimPlugin.showMessage(MessageHelper.message(Msg.E146));
+      return false;
+    }
+    else {
+      final char delimiter = cmd.charAt();
+      cmd.inc();
+      final CharPointer pat = cmd.ref(0);
+      cmd = RegExp.skip_regexp(cmd, delimiter, true);
+      if (cmd.charAt() == delimiter) {
+        cmd.set('\u0000').inc();
+      }
+      pattern = pat.toString();
+    }
+    if (pattern == null || pattern.isEmpty()) {
+      pattern = lastSearch;
+    }
+    if (pattern == null) {
+      VimPlugin.showMessage(MessageHelper.message(Msg.E35));
+      return false;
+    }
+
+    final RegExp.regmmatch_T regmatch = new RegExp.regmmatch_T();
+    regmatch.regprog = RegExpCache.vim_regcomp(pattern, 1);
+    if (regmatch.regprog == null) {
+      VimPlugin.showMessage(MessageHelper.message(Msg.e_invcmd));
+      return false;
+    }
+    regmatch.rmm_ic = shouldIgnoreCase(pattern, false);
+
+    lastSearch = pattern;
+    setLastPattern(editor, pattern);
+    resetShowSearchHighlight();
+    forceUpdateSearchHighlights();
+
+    final BitSet marked = markGlobalLines(editor, regmatch, range.getStartLine(), range.getEndLine(), invert);
+    if (marked.isEmpty()) {
+      VimPlugin.showMessage(MessageHelper.message(invert ? Msg.global_all_match : Msg.e_patnotf2, pattern));
+      return true;
+    }
+
+    final Caret caret = editor.getCaretModel().getPrimaryCaret();
+    final String command = cmd.toString().trim();
+    if (command.isEmpty() || isCommandName(command, "p", "print")) {
+      printLines(editor, caret, marked);
+      return true;
+    }
+    if (isCommandName(command, "d", "delete")) {
+      deleteLines(editor, caret, marked);
+      return true;
+    }
+
+    globalBusy = true;
+    final GlobalLines lines = new GlobalLines(editor.getDocument(), marked);
+    editor.getDocument().addDocumentListener(lines);
+    try {
+      for (int line = lines.next(); line != -1; line = lines.next()) {
+        MotionGroup.moveCaret(editor, caret, EditorHelper.getLineStartOffset(editor, line));
+        if (!CommandParser.getInstance().processGlobalCommand(editor, context, command)) {
+          return false;
+        }
+      }
+    }
+    catch (ExException e) {
+      VimPlugin.showMessage(e.getMessage());
+      return false;
+    }
+    finally {
+      editor.getDocument().removeDocumentListener(lines);
+      lines.dispose();
+      globalBusy = false;
+    }
+    return true;
+  }
+
+  /**
+   * Marks the lines with a match of the pattern, or the lines without a match. Lines without the literal text every
+   * match must contain are skipped without running the regexp.
+   */
+  @NotNull
+  private static BitSet markGlobalLines(@NotNull Editor editor, @NotNull RegExp.regmmatch_T regmatch, int line1,
+                                        int line2, boolean invert) {
+    final BitSet marked = new BitSet();
+    final RegExp sp = new RegExp();
+    final int lcount = EditorHelper.getLineCount(editor);
+    int lnum = line1;
+    while (lnum <= line2) {
+      final int candidateLine =
+        sp.vim_regexec_nextline(regmatch, editor, Math.min(lcount, line2 + 1), lnum, 0, DIR_FORWARDS);
+      final int next = candidateLine == -1 ? line2 + 1 : candidateLine;
+      if (invert) {
+        marked.set(lnum, next);
+      }
+      if (next > line2) {
+        break;
+      }
+      if ((sp.vim_regexec_multi(regmatch, editor, lcount, next, 0) > 0) != invert) {
+        marked.set(next);
+      }
+      lnum = next + 1;
+    }
+    return marked;
+  }
+
+  /**
+   * Whether the text is the name of an Ex command, which may be abbreviated to the shortest name
+   */
+  private static boolean isCommandName(@NotNull String text, @NotNull String shortest, @NotNull String name) {
+    return text.length() >= shortest.length() && name.startsWith(text);
+  }
+
+  private static void printLines(@NotNull Editor editor, @NotNull Caret caret, @NotNull BitSet lines) {
+    final StringBuilder res = new StringBuilder();
+    int lastLine = -1;
+    for (int line = lines.nextSetBit(0); line != -1; line = lines.nextSetBit(line + 1)) {
+      if (res.length() > 0) {
+        res.append('\n');
+      }
+      res.append(EditorHelper.getLineText(editor, line));
+      lastLine = line;
+    }
+    ExOutputModel.getInstance(editor).output(res.toString());
+    MotionGroup.moveCaret(editor, caret, VimPlugin.getMotion().moveCaretToLineStartSkipLeading(editor, lastLine));
+  }
+
+  /**
+   * Deletes the lines like ":delete" for each of them, with the adjacent lines deleted at once
+   */
+  private void deleteLines(@NotNull Editor editor, @NotNull Caret caret, @NotNull BitSet lines) {
+    if (!editor.getDocument().isWritable()) {
+      VimPlugin.indicateError();
+      return;
+    }
+
+    final int fileSize = EditorHelper.getFileSize(editor);
+    final List<TextRange> ranges = new ArrayList<>();
+    int first = lines.nextSetBit(0);
+    while (first != -1) {
+      final int last = lines.nextClearBit(first) - 1;
+      final int start = EditorHelper.getLineStartOffset(editor, first);
+      final int end = Math.min(EditorHelper.getLineEndOffset(editor, last, true) + 1, fileSize);
+      ranges.add(new TextRange(start, end));
+      first = lines.nextSetBit(last + 1);
+    }
+
+    /* Each line is deleted on its own into the registers, so they get the last lines */
+    final RegisterGroup registerGroup = VimPlugin.getRegister();
+    final int storedLines = Math.min(lines.cardinality(), 9);
+    int line = lines.length();
+    for (int i = 0; i < storedLines; i++) {
+      line = lines.previousSetBit(line - 1);
+    }
+    for (; line != -1; line = lines.nextSetBit(line + 1)) {
+      final int start = EditorHelper.getLineStartOffset(editor, line);
+      final int end = Math.min(EditorHelper.getLineEndOffset(editor, line, true) + 1, fileSize);
+      registerGroup.storeText(editor, new TextRange(start, end), SelectionType.LINE_WISE, true);
+    }
+
+    final Document document = editor.getDocument();
+    final boolean bulk = ranges.size() >= BULK_UPDATE_COUNT && document instanceof DocumentEx;
+    if (bulk) {
+      startBulkUpdate((DocumentEx)document);
+    }
+    try {
+      for (int i = ranges.size() - 1; i >= 0; i--) {
+        document.deleteString(ranges.get(i).getStartOffset(), ranges.get(i).getEndOffset());
+      }
+    }
+    finally {
+      if (bulk) {
+        finishBulkUpdate((DocumentEx)document);
+      }
+    }
+    if (bulk) {
+      forceUpdateSearchHighlights();
+    }
+
+    int start = ranges.get(ranges.size() - 1).getStartOffset();
+    for (int i = 0; i < ranges.size() - 1; i++) {
+      start -= ranges.get(i).getEndOffset() - ranges.get(i).getStartOffset();
+    }
+    VimPlugin.getMark().setMark(editor, MarkGroup.MARK_CHANGE_POS, start);
+    VimPlugin.getMark().setChangeMarks(editor, new TextRange(start, start));
+    MotionGroup.moveCaret(editor, caret, EditorHelper.normalizeOffset(editor, start, false));
+  }
+
   @NotNull
   private RangeHighlighter highlightConfirm(@NotNull Editor editor, int start, int end) {
     TextAttributes color = new TextAttributes(
@@ -1259,7 +2934,13 @@ public class SearchGroup {
   }
 
   private static void removeSearchHighlight(@NotNull Editor editor) {
-    Collection<RangeHighlighter> ehl = UserDataManager.getVimLastHighlighters(editor);
+    cancelSearchHighlightJob(editor);
+    final LazySearchHighlights lazy = editor.getUserData(LAZY_SEARCH_HIGHLIGHTS);
+    if (lazy != null) {
+      lazy.dispose();
+    }
+
+    List<RangeHighlighter> ehl = UserDataManager.getVimLastHighlighters(editor);
     if (ehl == null) {
       return;
     }
@@ -1348,6 +3029,20 @@ public class SearchGroup {
     VimPlugin.getSearch().updateSearchHighlights();
   }
 
+  /**
+   * Starts a bulk update of the document for many changes. The search listener skips the events of the changes until
+   * {@link #finishBulkUpdate} is called, so the search highlights have to be updated after that.
+   */
+  private static void startBulkUpdate(@NotNull DocumentEx document) {
+    document.putUserData(VIM_BULK_UPDATE, Boolean.TRUE);
+    document.setInBulkUpdate(true);
+  }
+
+  private static void finishBulkUpdate(@NotNull DocumentEx document) {
+    document.setInBulkUpdate(false);
+    document.putUserData(VIM_BULK_UPDATE, null);
+  }
+
   public static class DocumentSearchListener implements DocumentListener {
 
     public static DocumentSearchListener INSTANCE = new DocumentSearchListener();
@@ -1357,11 +3052,31 @@ public class SearchGroup {
 
     @Override
     public void documentChanged(@NotNull DocumentEvent event) {
+      final Document changed = event.getDocument();
+      if (changed.getUserData(VIM_BULK_UPDATE) != null) {
+        /* The search highlights are updated once the bulk update IdeaVim has started is finished */
+        changed.putUserData(SEARCH_INDEX, null);
+        return;
+      }
+
+      final SearchIndex index = event.getDocument().getUserData(SEARCH_INDEX);
+      if (index != null) {
+        final Editor[] editors = EditorFactory.getInstance().getEditors(event.getDocument());
+        if (editors.length > 0 && index.complete && index.stamp == event.getOldTimeStamp()) {
+          index.update(editors[0], event);
+        }
+        else {
+          event.getDocument().putUserData(SEARCH_INDEX, null);
+        }
+      }
+
+      /* The lines are searched once for all editors of the document */
+      List<TextRange> lineResults = null;
       for (Project project : ProjectManager.getInstance().getOpenProjects()) {
         final Document document = event.getDocument();
 
         for (Editor editor : EditorFactory.getInstance().getEditors(document, project)) {
-          Collection hls = UserDataManager.getVimLastHighlighters(editor);
+          List<RangeHighlighter> hls = UserDataManager.getVimLastHighlighters(editor);
           if (hls == null) {
             continue;
           }
@@ -1377,16 +3092,28 @@ public class SearchGroup {
           final int startLineOffset = document.getLineStartOffset(startPosition.line);
           final int endLineOffset = document.getLineEndOffset(endPosition.line);
 
-          final Iterator iter = hls.iterator();
-          while (iter.hasNext()) {
-            final RangeHighlighter highlighter = (RangeHighlighter) iter.next();
-            if (!highlighter.isValid() || (highlighter.getStartOffset() >= startLineOffset && highlighter.getEndOffset() <= endLineOffset)) {
-              iter.remove();
-              editor.getMarkupModel().removeHighlighter(highlighter);
+          final SearchHighlightJob job = cancelSearchHighlightJob(editor);
+          if (job != null) {
+            /* The job searches the text as it was, highlight all matches again after the changes */
+            if (ApplicationManager.getApplication().isUnitTestMode()) {
+              restartSearchHighlightJob(editor, job);
+            }
+            else {
+              ApplicationManager.getApplication().invokeLater(() -> restartSearchHighlightJob(editor, job));
             }
+            continue;
+          }
+
+          final LazySearchHighlights lazy = editor.getUserData(LAZY_SEARCH_HIGHLIGHTS);
+          if (lazy != null) {
+            lazy.update(event, startLineOffset, endLineOffset);
+          }
+          else {
+            removeSearchHighlights(editor, hls, startLineOffset, endLineOffset);
           }
 
-          VimPlugin.getSearch().highlightSearchLines(editor, startPosition.line, endPosition.line);
+          lineResults = VimPlugin.getSearch().highlightSearchLines(editor, startPosition.line, endPosition.line,
+                                                                   lineResults);
 
           if (logger.isDebugEnabled()) {
             hls = UserDataManager.getVimLastHighlighters(editor);
@@ -1398,6 +3125,143 @@ public class SearchGroup {
     }
   }
 
+  /**
+   * The lines with matches of the last pattern of an incremental search, whose matches in a line only depend on that
+   * line. The matches of the pattern followed by more literal characters can only be in these lines.
+   */
+  private static class IncsearchLines {
+    @NotNull final Document document;
+    final long stamp;
+    @NotNull final String pattern;
+    final boolean ignoreCase;
+    final int startLine;
+    final int endLine;
+    @NotNull final int[] lines;
+
+    IncsearchLines(@NotNull Document document, @NotNull String pattern, boolean ignoreCase, int startLine, int endLine,
+                   @NotNull List<TextRange> ranges) {
+      this.document = document;
+      this.stamp = document.getModificationStamp();
+      this.pattern = pattern;
+      this.ignoreCase = ignoreCase;
+      this.startLine = startLine;
+      this.endLine = endLine;
+
+      final int[] matchLines = new int[ranges.size()];
+      int count = 0;
+      for (TextRange range : ranges) {
+        final int line = document.getLineNumber(range.getStartOffset());
+        if (count == 0 || matchLines[count - 1] != line) {
+          matchLines[count++] = line;
+        }
+      }
+      lines = Arrays.copyOf(matchLines, count);
+    }
+  }
+
+  /**
+   * The lines marked by :global that the command is still to be executed for.
+   * <p>
+   * The lines are kept in a bitset, moved by the number of lines inserted or deleted before them. A change after the
+   * start of a marked line can't be tracked like that, then the lines get range markers. A line is no longer marked
+   * when it's deleted, or joined with the line before it.
+   */
+  private static class GlobalLines implements DocumentListener {
+    @NotNull private final Document document;
+    @NotNull private final BitSet lines;
+    /* The index of the first line in "lines" that is still to be done */
+    private int next;
+    /* Added to the indices in "lines" to get the lines in the document */
+    private int delta;
+    @Nullable private List<RangeMarker> markers;
+
+    GlobalLines(@NotNull Document document, @NotNull BitSet lines) {
+      this.document = document;
+      this.lines = lines;
+    }
+
+    /**
+     * Returns the next marked line and moves past it, -1 if all lines are done
+     */
+    int next() {
+      if (markers != null) {
+        while (next < markers.size()) {
+          final RangeMarker marker = markers.get(next++);
+          /* A line that is joined with the line before it no longer starts a line */
+          if (marker.isValid()) {
+            final int line = document.getLineNumber(marker.getStartOffset());
+            if (document.getLineStartOffset(line) == marker.getStartOffset()) {
+              return line;
+            }
+          }
+        }
+        return -1;
+      }
+
+      final int index = lines.nextSetBit(next);
+      if (index == -1 || index + delta >= document.getLineCount()) {
+        return -1;
+      }
+      next = index + 1;
+      return index + delta;
+    }
+
+    void dispose() {
+      if (markers != null) {
+        for (RangeMarker marker : markers) {
+          marker.dispose();
+        }
+        markers = null;
+      }
+    }
+
+    @Override
+    public void beforeDocumentChange(@NotNull DocumentEvent event) {
+      final int index = markers == null ? lines.nextSetBit(next) : -1;
+      if (index == -1 || index + delta >= document.getLineCount()) {
+        return;
+      }
+
+      final int start = document.getLineStartOffset(index + delta);
+      final int changeStart = event.getOffset();
+      final int changeEnd = changeStart + event.getOldLength();
+      final int lineDelta = StringUtil.countNewLines(event.getNewFragment()) -
+                            StringUtil.countNewLines(event.getOldFragment());
+      if (changeEnd < start || (event.getOldLength() == 0 && changeStart == start)) {
+        delta += lineDelta;
+      }
+      else if (changeEnd == start) {
+        /* The new line before the first marked line is replaced, it's still a line if the new text ends a line */
+        final CharSequence newText = event.getNewFragment();
+        final boolean lineStart = newText.length() > 0
+                                  ? newText.charAt(newText.length() - 1) == '\n'
+                                  : changeStart == 0 || document.getCharsSequence().charAt(changeStart - 1) == '\n';
+        if (!lineStart) {
+          lines.clear(index);
+        }
+        delta += lineDelta;
+      }
+      else {
+        markers = new ArrayList<>();
+        for (int i = index; i != -1 && i + delta < document.getLineCount(); i = lines.nextSetBit(i + 1)) {
+          final int line = i + delta;
+          final int lineStart = document.getLineStartOffset(line);
+          if (lineStart > changeStart && lineStart < changeEnd) {
+            /* The new line before it is deleted */
+            continue;
+          }
+          final int end = Math.min(document.getLineEndOffset(line) + 1, document.getTextLength());
+          markers.add(document.createRangeMarker(lineStart, end));
+        }
+        next = 0;
+      }
+    }
+
+    @Override
+    public void documentChanged(@NotNull DocumentEvent event) {
+    }
+  }
+
   private enum ReplaceConfirmationChoice {
     SUBSTITUTE_THIS,
     SUBSTITUTE_LAST,
@@ -1414,9 +3278,12 @@ public class SearchGroup {
   private boolean lastIgnoreSmartCase;
   private int lastDir;
   private boolean showSearchHighlight = OptionsManager.INSTANCE.getHlsearch().isSet();
+  @Nullable private IncsearchLines incsearchLines;
 
   private boolean do_all = false; /* do multiple substitutions per line */
   private boolean do_ask = false; /* ask for confirmation */
+  private boolean do_count = false; /* only count the matches */
+  private boolean globalBusy = false; /* executing the command of :global */
   private boolean do_error = true; /* if false, ignore errors */
   //private boolean do_print = false; /* print last line with subs. */
   private char do_ic = 0; /* ignore case flag */
@@ -1428,5 +3295,31 @@ public class SearchGroup {
   private static final int DIR_FORWARDS = 1;
   private static final int DIR_BACKWARDS = -1;
 
+  /* Time limit for finding the match 'incsearch' shows, in msec, the same as Vim's */
+  private static final int INCSEARCH_TIMEOUT = 500;
+
+  /* Time limit for building the index of the matches each time a search is repeated, in msec */
+  private static final int SEARCH_INDEX_TIMEOUT = 50;
+
+  /* Fewest lines in a chunk of a parallel search */
+  private static final int MIN_PARALLEL_CHUNK_LINES = 1000;
+
+  /* Fewest changes of a substitute or a delete of :global that are made in a bulk update of the document */
+  private static final int BULK_UPDATE_COUNT = 100;
+
+  /* Lines above and below the visible area that are highlighted before the rest of the file */
+  private static final int VISIBLE_AREA_MARGIN_LINES = 100;
+
+  /* The job that highlights the matches in an editor, and the last job started for a document */
+  private static final Key<SearchHighlightJob> SEARCH_HIGHLIGHT_JOB = Key.create("IdeaVim search highlight job");
+  private static final Key<SearchIndex> SEARCH_INDEX = Key.create("IdeaVim search index");
+  private static final Key<LazySearchHighlights> LAZY_SEARCH_HIGHLIGHTS = Key.create("IdeaVim lazy search highlights");
+  private static final Key<Boolean> VIM_BULK_UPDATE = Key.create("IdeaVim bulk update");
+
+  private static final Executor PARALLEL_EXECUTOR =
+    AppExecutorUtil.createBoundedApplicationPoolExecutor("IdeaVim search highlights", ForkJoinPool.getCommonPoolParallelism());
+  private static final Executor SEQUENTIAL_EXECUTOR =
+    AppExecutorUtil.createBoundedApplicationPoolExecutor("IdeaVim search highlights", 1);
+
   private static final Logger logger = Logger.getInstance(SearchGroup.class.getName());
 }
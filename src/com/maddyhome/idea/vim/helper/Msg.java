@@ -32,6 +32,16 @@ public interface Msg {
   String E191 = "E191";
   String e_backrange = "e_backrange";
   String E146 = "E146";
+  String E147 = "E147";
+  String E148 = "E148";
+  String E35 = "E35";
+  String E682 = "E682";
+  String E683 = "E683";
+  String E480 = "E480";
+  String E42 = "E42";
+  String E553 = "E553";
+  String quickfix_entry = "quickfix_entry";
+  String quickfix_searching = "quickfix_searching";
   String e_zerocount = "e_zerocount";
   String e_trailing = "e_trailing";
   String e_invcmd = "e_invcmd";
@@ -68,7 +78,12 @@ public interface Msg {
   String E369 = "E369";
   String E384 = "E384";
   String E385 = "E385";
+  String E864 = "E864";
   String e_patnotf2 = "e_patnotf2";
+  String e_redrawtime = "e_redrawtime";
+  String search_count = "search_count";
+  String global_all_match = "global_all_match";
+  String substitute_count = "substitute_count";
   String unkopt = "unkopt";
   String e_invarg = "e_invarg";
 }
@@ -79,7 +79,10 @@ fun unInitializeEditor(editor: Editor) {
 }
 
 var Editor.vimLastSearch: String? by userData()
-var Editor.vimLastHighlighters: Collection<RangeHighlighter>? by userData()
+/**
+ * The search highlighters, sorted by their start offsets
+ */
+var Editor.vimLastHighlighters: MutableList<RangeHighlighter>? by userData()
 /***
  * @see :help visualmode()
  */
@@ -60,14 +60,14 @@ public class BranchNode extends ParentNode {
   public Node getChildOrArgument(@NotNull Object key) {
     Node res = super.getChild(key);
     if (res == null) {
-      res = children.get(ARGUMENT);
+      res = super.getChild(ARGUMENT);
     }
 
     return res;
   }
 
   public Node getArgumentNode() {
-    return children.get(ARGUMENT);
+    return getChild(ARGUMENT);
   }
 
   /**
@@ -18,7 +18,6 @@
 
 package com.maddyhome.idea.vim.key;
 
-import com.google.common.collect.ImmutableList;
 import com.maddyhome.idea.vim.command.MappingMode;
 import com.maddyhome.idea.vim.extension.VimExtensionHandler;
 import org.jetbrains.annotations.NotNull;
@@ -28,66 +27,125 @@ import javax.swing.*;
 import java.util.*;
 
 /**
+ * Key mappings of a single mapping mode stored as a trie of keystrokes.
+ *
+ * The key handler keeps a {@link Prefix} of the keys typed so far and advances it one key at a time, so resolving a
+ * mapping doesn't depend on the number or the length of the mappings.
+ *
  * @author vlan
  */
 public class KeyMapping implements Iterable<List<KeyStroke>> {
-  @NotNull private final Map<ImmutableList<KeyStroke>, MappingInfo> myKeys = new HashMap<>();
-  @NotNull private final Map<ImmutableList<KeyStroke>, Integer> myPrefixes = new HashMap<>();
+  @NotNull private final Prefix myRoot = new Prefix();
 
   @NotNull
   @Override
   public Iterator<List<KeyStroke>> iterator() {
-    return new ArrayList<List<KeyStroke>>(myKeys.keySet()).iterator();
+    final List<List<KeyStroke>> result = new ArrayList<>();
+    collectKeys(myRoot, result);
+    return result.iterator();
+  }
+
+  /**
+   * Returns the trie node for the empty key sequence
+   */
+  @NotNull
+  public Prefix getRoot() {
+    return myRoot;
+  }
+
+  /**
+   * Returns the trie node for the key sequence, or null if no mapping starts with these keys
+   */
+  @Nullable
+  public Prefix getPrefix(@NotNull List<KeyStroke> keys) {
+    Prefix node = myRoot;
+    for (int i = 0; i < keys.size() && node != null; i++) {
+      node = node.get(keys.get(i));
+    }
+    return node;
   }
 
   @Nullable
   public MappingInfo get(@NotNull List<KeyStroke> keys) {
-    return myKeys.get(ImmutableList.copyOf(keys));
+    final Prefix node = getPrefix(keys);
+    return node != null ? node.getMappingInfo() : null;
   }
 
   public void put(@NotNull Set<MappingMode> mappingModes, @NotNull List<KeyStroke> fromKeys,
                   @Nullable List<KeyStroke> toKeys, @Nullable VimExtensionHandler extensionHandler, boolean recursive) {
-    myKeys.put(ImmutableList.copyOf(fromKeys),
-               new MappingInfo(mappingModes, fromKeys, toKeys, extensionHandler, recursive));
-    List<KeyStroke> prefix = new ArrayList<>();
-    final int prefixLength = fromKeys.size() - 1;
-    for (int i = 0; i < prefixLength; i++) {
-      prefix.add(fromKeys.get(i));
-      increment(ImmutableList.copyOf(prefix));
+    Prefix node = myRoot;
+    for (KeyStroke key : fromKeys) {
+      if (node.myChildren == null) {
+        node.myChildren = new HashMap<>();
+      }
+      node = node.myChildren.computeIfAbsent(key, k -> new Prefix());
     }
+    node.myMappingInfo = new MappingInfo(mappingModes, fromKeys, toKeys, extensionHandler, recursive);
   }
 
   public void delete(@NotNull List<KeyStroke> keys) {
-    myKeys.remove(ImmutableList.copyOf(keys));
-    List<KeyStroke> prefix = new ArrayList<>();
-    final int prefixLength = keys.size() - 1;
-    for (int i = 0; i < prefixLength; i++) {
-      prefix.add(keys.get(i));
-      decrement(ImmutableList.copyOf(prefix));
+    final Prefix[] path = new Prefix[keys.size() + 1];
+    path[0] = myRoot;
+    for (int i = 0; i < keys.size(); i++) {
+      path[i + 1] = path[i].get(keys.get(i));
+      if (path[i + 1] == null) {
+        return;
+      }
+    }
+    path[keys.size()].myMappingInfo = null;
+    // Drop the nodes that neither hold a mapping nor lead to one
+    for (int i = keys.size(); i > 0 && path[i].myMappingInfo == null && !path[i].isPrefix(); i--) {
+      path[i - 1].myChildren.remove(keys.get(i - 1));
     }
   }
 
   public boolean isPrefix(@NotNull List<KeyStroke> keys) {
-    return myPrefixes.get(ImmutableList.copyOf(keys)) != null;
+    final Prefix node = getPrefix(keys);
+    return node != null && node.isPrefix();
   }
 
-  private void increment(@NotNull ImmutableList<KeyStroke> prefix) {
-    Integer count = myPrefixes.get(prefix);
-    if (count == null) {
-      count = 0;
+  private static void collectKeys(@NotNull Prefix node, @NotNull List<List<KeyStroke>> result) {
+    if (node.myMappingInfo != null) {
+      result.add(node.myMappingInfo.getFromKeys());
+    }
+    if (node.myChildren != null) {
+      for (Prefix child : node.myChildren.values()) {
+        collectKeys(child, result);
+      }
     }
-    myPrefixes.put(prefix, count + 1);
   }
 
-  private void decrement(@NotNull ImmutableList<KeyStroke> prefix) {
-    final Integer count = myPrefixes.get(prefix);
-    if (count != null) {
-      if (count <= 1) {
-        myPrefixes.remove(prefix);
-      }
-      else {
-        myPrefixes.put(prefix, count - 1);
-      }
+  /**
+   * A node of the mapping trie that corresponds to a sequence of keys typed so far
+   */
+  public static final class Prefix {
+    @Nullable private Map<KeyStroke, Prefix> myChildren;
+    @Nullable private MappingInfo myMappingInfo;
+
+    private Prefix() {
+    }
+
+    /**
+     * Returns the node for these keys followed by the key, or null if no mapping starts with them
+     */
+    @Nullable
+    public Prefix get(@NotNull KeyStroke key) {
+      return myChildren != null ? myChildren.get(key) : null;
+    }
+
+    /**
+     * Returns the mapping for exactly these keys
+     */
+    @Nullable
+    public MappingInfo getMappingInfo() {
+      return myMappingInfo;
+    }
+
+    /**
+     * Returns true if these keys are a proper prefix of some mapping
+     */
+    public boolean isPrefix() {
+      return myChildren != null && !myChildren.isEmpty();
     }
   }
 }
@@ -21,12 +21,18 @@ package com.maddyhome.idea.vim.key;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import javax.swing.*;
+import java.awt.event.KeyEvent;
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * This abstract node is used as a base for any node that can contain child nodes
  */
 public abstract class ParentNode implements Node {
+  private static final char FIRST_ASCII_CHAR = ' ';
+  private static final char LAST_ASCII_CHAR = '~';
+
   /**
    * This adds a child node keyed by the supplied key
    *
@@ -35,6 +41,9 @@ public abstract class ParentNode implements Node {
    */
   public void addChild(@NotNull Node child, @NotNull Object key) {
     children.put(key, child);
+    asciiChildren = null;
+    otherKeys = null;
+    otherChildren = null;
   }
 
   /**
@@ -45,7 +54,22 @@ public abstract class ParentNode implements Node {
    */
   @Nullable
   public Node getChild(@NotNull Object key) {
-    return children.get(key);
+    final Node[] ascii = asciiChildren;
+    final Object[] keys = otherKeys;
+    final Node[] values = otherChildren;
+    if (ascii == null || keys == null || values == null) {
+      return children.get(key);
+    }
+    if (key instanceof KeyStroke && isAsciiKey((KeyStroke)key)) {
+      return ascii[((KeyStroke)key).getKeyChar() - FIRST_ASCII_CHAR];
+    }
+    final int mask = keys.length - 1;
+    for (int i = hash(key) & mask; keys[i] != null; i = (i + 1) & mask) {
+      if (keys[i] == key || keys[i].equals(key)) {
+        return values[i];
+      }
+    }
+    return null;
   }
 
   /**
@@ -57,9 +81,76 @@ public abstract class ParentNode implements Node {
    */
   @Nullable
   public Node getChildOrArgument(@NotNull Object key) {
-    return children.get(key);
+    return getChild(key);
+  }
+
+  /**
+   * Builds the lookup tables of this node and all its descendants. The children of typed printable ASCII characters
+   * are kept in an array indexed by the character and the rest of them in a small open addressing hash table, so
+   * looking up a child for a keystroke doesn't allocate or go through the hash map.
+   *
+   * Adding a child drops the tables of the node until they are built again.
+   */
+  public void buildLookupTables() {
+    final Node[] ascii = new Node[LAST_ASCII_CHAR - FIRST_ASCII_CHAR + 1];
+    int otherCount = 0;
+    for (Map.Entry<Object, Node> entry : children.entrySet()) {
+      final Object key = entry.getKey();
+      if (key instanceof KeyStroke && isAsciiKey((KeyStroke)key)) {
+        ascii[((KeyStroke)key).getKeyChar() - FIRST_ASCII_CHAR] = entry.getValue();
+      }
+      else {
+        otherCount++;
+      }
+    }
+
+    // Keep the table at most half full so that the probe sequences are short and always end with an empty slot
+    int capacity = 2;
+    while (capacity < otherCount * 2) {
+      capacity *= 2;
+    }
+    final Object[] keys = new Object[capacity];
+    final Node[] values = new Node[capacity];
+    for (Map.Entry<Object, Node> entry : children.entrySet()) {
+      final Object key = entry.getKey();
+      if (!(key instanceof KeyStroke && isAsciiKey((KeyStroke)key))) {
+        int i = hash(key) & (capacity - 1);
+        while (keys[i] != null) {
+          i = (i + 1) & (capacity - 1);
+        }
+        keys[i] = key;
+        values[i] = entry.getValue();
+      }
+    }
+
+    otherKeys = keys;
+    otherChildren = values;
+    asciiChildren = ascii;
+
+    for (Node child : children.values()) {
+      if (child instanceof ParentNode) {
+        ((ParentNode)child).buildLookupTables();
+      }
+    }
   }
 
+  /**
+   * Checks if the keystroke is a printable ASCII character typed without modifiers, i.e. it is equal to the keystroke
+   * returned by {@link KeyStroke#getKeyStroke(char)} for its character
+   */
+  private static boolean isAsciiKey(@NotNull KeyStroke key) {
+    final char c = key.getKeyChar();
+    return c >= FIRST_ASCII_CHAR && c <= LAST_ASCII_CHAR && key.getKeyCode() == KeyEvent.VK_UNDEFINED &&
+           key.getModifiers() == 0 && !key.isOnKeyRelease();
+  }
+
+  private static int hash(@NotNull Object key) {
+    final int h = key.hashCode();
+    return h ^ (h >>> 16);
+  }
 
   @NotNull protected final HashMap<Object, Node> children = new HashMap<>();
+  @Nullable private Node[] asciiChildren = null;
+  @Nullable private Object[] otherKeys = null;
+  @Nullable private Node[] otherChildren = null;
 }
@@ -19,6 +19,10 @@
 package com.maddyhome.idea.vim.option;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This represents a set of one character flags
@@ -54,4 +58,48 @@ public class FlagsOption extends BoundListOption {
 
     return res.toString();
   }
+
+  /**
+   * Overrides parent so each character is a flag, commas are ignored like in Vim
+   *
+   * @param val The flags
+   * @return The list of flags
+   */
+  @Override
+  @Nullable
+  protected List<String> parseVals(String val) {
+    List<String> res = new ArrayList<>();
+    for (int i = 0; i < val.length(); i++) {
+      char c = val.charAt(i);
+      if (c != ',') {
+        res.add(String.valueOf(c));
+      }
+    }
+
+    return res;
+  }
+
+  /**
+   * Overrides parent so flags that are already set aren't added twice
+   */
+  @Override
+  protected boolean append(@Nullable List<String> vals) {
+    if (vals != null && value != null) {
+      vals.removeAll(value);
+    }
+
+    return super.append(vals);
+  }
+
+  /**
+   * Overrides parent so flags that are already set aren't added twice
+   */
+  @Override
+  protected boolean prepend(@Nullable List<String> vals) {
+    if (vals != null && value != null) {
+      vals.removeAll(value);
+    }
+
+    return super.prepend(vals);
+  }
 }
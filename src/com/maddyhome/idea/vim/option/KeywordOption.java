@@ -18,6 +18,7 @@
 
 package com.maddyhome.idea.vim.option;
 
+import com.intellij.openapi.util.ModificationTracker;
 import org.apache.commons.lang.math.NumberUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -27,12 +28,18 @@ import java.util.Collections;
 import java.util.List;
 import java.util.regex.Pattern;
 
-public final class KeywordOption extends ListOption {
+public final class KeywordOption extends ListOption implements ModificationTracker {
   @NotNull private final Pattern validationPattern;
 
   // KeywordSpecs are the option values in reverse order
   @NotNull private List<KeywordSpec> keywordSpecs = new ArrayList<>();
 
+  // Whether each of the characters below \u0100 is a keyword, the characters above it always are
+  @NotNull private volatile boolean[] keywordTable = new boolean[0x100];
+
+  // Incremented when the keyword table changes
+  private volatile long modificationCount;
+
   public KeywordOption(@NotNull String name, @NotNull String abbrev, @NotNull String[] defaultValue) {
     super(name, abbrev, defaultValue,
           "(\\^?(([^0-9^]|[0-9]{1,3})-([^0-9]|[0-9]{1,3})|([^0-9^]|[0-9]{1,3})),)*\\^?(([^0-9^]|[0-9]{1,3})-([^0-9]|[0-9]{1,3})|([^0-9]|[0-9]{1,3})),?$");
@@ -49,6 +56,7 @@ public final class KeywordOption extends ListOption {
     }
     value.addAll(vals);
     keywordSpecs.addAll(0, specs);
+    updateKeywordTable();
     fireOptionChangeEvent();
     return true;
   }
@@ -62,6 +70,7 @@ public final class KeywordOption extends ListOption {
     }
     value.addAll(0, vals);
     keywordSpecs.addAll(specs);
+    updateKeywordTable();
     fireOptionChangeEvent();
     return true;
   }
@@ -76,6 +85,7 @@ public final class KeywordOption extends ListOption {
     }
     value.removeAll(vals);
     keywordSpecs.removeAll(specs);
+    updateKeywordTable();
     fireOptionChangeEvent();
     return true;
   }
@@ -89,6 +99,7 @@ public final class KeywordOption extends ListOption {
     }
     value = vals;
     keywordSpecs = specs;
+    updateKeywordTable();
     fireOptionChangeEvent();
     return true;
   }
@@ -173,16 +184,26 @@ public final class KeywordOption extends ListOption {
   }
 
   public boolean isKeyword(char c) {
-    final int code = (int)c;
-    if (code >= '\u0100') {
-      return true;
-    }
-    for (KeywordSpec spec : keywordSpecs) {
-      if (spec.contains(code)) {
-        return !spec.negate();
+    return c >= '\u0100' || keywordTable[c];
+  }
+
+  @Override
+  public long getModificationCount() {
+    return modificationCount;
+  }
+
+  private void updateKeywordTable() {
+    final boolean[] table = new boolean[0x100];
+    for (int code = 0; code < table.length; code++) {
+      for (KeywordSpec spec : keywordSpecs) {
+        if (spec.contains(code)) {
+          table[code] = !spec.negate();
+          break;
+        }
       }
     }
-    return false;
+    keywordTable = table;
+    modificationCount++;
   }
 
   private static final class KeywordSpec {
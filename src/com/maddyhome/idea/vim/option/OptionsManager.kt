@@ -44,21 +44,29 @@ object OptionsManager {
   val history = addOption(NumberOption("history", "hi", 20, 1, Int.MAX_VALUE))
   val hlsearch = addOption(ToggleOption("hlsearch", "hls", false))
   val ideamarks = addOption(IdeaMarkskOptionsData.option)
+  val ideamaxhighlights = addOption(NumberOption("ideamaxhighlights", "ideamaxhighlights", 10000, 1, Int.MAX_VALUE))
+  val ideaparallelsearch = addOption(NumberOption("ideaparallelsearch", "ideaparallelsearch", 100000, 0, Int.MAX_VALUE))
   val ignorecase = addOption(ToggleOption(IgnoreCaseOptionsData.name, IgnoreCaseOptionsData.abbr, false))
   val incsearch = addOption(ToggleOption("incsearch", "is", false))
   val iskeyword = addOption(KeywordOption("iskeyword", "isk", arrayOf("@", "48-57", "_")))
   val keymodel = addOption(KeyModelOptionData.option)
   val lookupActions = addOption(ListOption("lookupactions", "lookupactions", arrayOf("VimLookupUp", "VimLookupDown"), null))
   val matchpairs = addOption(ListOption("matchpairs", "mps", arrayOf("(:)", "{:}", "[:]"), ".:."))
+  val maxmempattern = addOption(NumberOption("maxmempattern", "mmp", 1000, 1, 2000000))
+  val maxsearchcount = addOption(NumberOption("maxsearchcount", "msc", 999, 1, 9999))
   val more = addOption(ToggleOption("more", "more", true))
   val nrformats = addOption(BoundListOption("nrformats", "nf", arrayOf("octal", "hex"), arrayOf("octal", "hex", "alpha")))
   val number = addOption(ToggleOption("number", "nu", false))
+  val redrawtime = addOption(NumberOption("redrawtime", "rdt", 2000, 1, Int.MAX_VALUE))
+  val regexpengine = addOption(NumberOption("regexpengine", "re", 0, 0, 2))
   val relativenumber = addOption(ToggleOption("relativenumber", "rnu", false))
   val scroll = addOption(NumberOption("scroll", "scr", 0))
   val scrolljump = addOption(NumberOption("scrolljump", "sj", 1))
   val scrolloff = addOption(NumberOption("scrolloff", "so", 0))
   val selection = addOption(BoundStringOption("selection", "sel", "inclusive", arrayOf("old", "inclusive", "exclusive")))
   val selectmode = addOption(SelectModeOptionData.option)
+  val shortmess = addOption(FlagsOption("shortmess", "shm", arrayOf("f", "i", "l", "n", "x", "t", "T", "o", "O", "S"),
+    arrayOf("r", "m", "f", "i", "x", "l", "n", "w", "a", "W", "t", "T", "o", "O", "s", "A", "I", "c", "q", "F", "S", "C")))
   val showmode = addOption(ToggleOption("showmode", "smd", false))
   val sidescroll = addOption(NumberOption("sidescroll", "ss", 0))
   val sidescrolloff = addOption(NumberOption("sidescrolloff", "siso", 0))
@@ -0,0 +1,139 @@
+/*
+ * IdeaVim - Vim emulator for IDEs based on the IntelliJ platform
+ * Copyright (C) 2003-2019 The IdeaVim authors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.maddyhome.idea.vim.regexp;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.BitSet;
+
+/**
+ * The characters of a bracket expression, compiled to a bitmap for ASCII and a sorted table of ranges for the other
+ * characters.
+ * <p>
+ * When ignoring case a character is in the class if its lower or upper case form is in the bracket expression, the
+ * rule the regexp matcher used when it searched the expression for every character. Case is folded once, when the
+ * class is compiled.
+ */
+final class CharClass {
+  private final long ascii0;
+  private final long ascii1;
+  /* First and last character of each range, sorted, for characters from 128 up */
+  @NotNull private final char[] ranges;
+
+  /**
+   * Compiles the NUL terminated characters of a bracket expression.
+   *
+   * @param chars      The characters, ranges in the expression are already expanded
+   * @param start      The index of the first character
+   * @param ignoreCase Whether case is ignored
+   */
+  CharClass(@NotNull char[] chars, int start, boolean ignoreCase) {
+    final BitSet set = new BitSet();
+    for (int i = start; chars[i] != '\u0000'; i++) {
+      set.set(chars[i]);
+    }
+    if (ignoreCase) {
+      final BitSet folded = (BitSet)set.clone();
+      for (char c : Cased.CHARS) {
+        folded.set(c, set.get(Character.toLowerCase(c)) || set.get(Character.toUpperCase(c)));
+      }
+      set.clear();
+      set.or(folded);
+    }
+
+    long bits0 = 0;
+    long bits1 = 0;
+    for (int c = set.nextSetBit(0); c != -1 && c < 128; c = set.nextSetBit(c + 1)) {
+      if (c < 64) {
+        bits0 |= 1L << c;
+      }
+      else {
+        bits1 |= 1L << c;
+      }
+    }
+    ascii0 = bits0;
+    ascii1 = bits1;
+
+    int count = 0;
+    for (int c = set.nextSetBit(128); c != -1; c = set.nextSetBit(set.nextClearBit(c))) {
+      count++;
+    }
+    ranges = new char[count * 2];
+    int i = 0;
+    for (int c = set.nextSetBit(128); c != -1; c = set.nextSetBit(c)) {
+      final int end = set.nextClearBit(c);
+      ranges[i++] = (char)c;
+      ranges[i++] = (char)(end - 1);
+      c = end;
+    }
+  }
+
+  boolean contains(char c) {
+    if (c < 128) {
+      return ((c < 64 ? ascii0 : ascii1) & (1L << c)) != 0;
+    }
+
+    int low = 0;
+    int high = ranges.length / 2 - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      if (c < ranges[mid * 2]) {
+        high = mid - 1;
+      }
+      else if (c > ranges[mid * 2 + 1]) {
+        low = mid + 1;
+      }
+      else {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Sets the characters of the class in the set.
+   */
+  void addTo(@NotNull BitSet set) {
+    for (int c = 0; c < 128; c++) {
+      if (((c < 64 ? ascii0 : ascii1) & (1L << c)) != 0) {
+        set.set(c);
+      }
+    }
+    for (int i = 0; i < ranges.length; i += 2) {
+      set.set(ranges[i], ranges[i + 1] + 1);
+    }
+  }
+
+  /**
+   * The characters that have a lower or upper case form other than themselves, only these are changed by folding.
+   */
+  static class Cased {
+    @NotNull static final char[] CHARS;
+
+    static {
+      final StringBuilder res = new StringBuilder();
+      for (int c = 0; c <= Character.MAX_VALUE; c++) {
+        if (Character.toLowerCase((char)c) != c || Character.toUpperCase((char)c) != c) {
+          res.append((char)c);
+        }
+      }
+      CHARS = res.toString().toCharArray();
+    }
+  }
+}
@@ -29,6 +29,7 @@ public class CharPointer {
   @NotNull private CharSequence seq;
   private int pointer;
   private boolean readonly;
+  private int limit = -1;   /* index after the last character, -1 for the end of "seq" */
 
   public CharPointer(@NotNull String text) {
     seq = text;
@@ -45,9 +46,18 @@ public class CharPointer {
     readonly = false;
   }
 
+  /**
+   * Points to the characters from "start" to "end" of "text" without copying them, reading at "end" or after it gives
+   * NUL. {@link #pointer()} is an index in "text", so it is "start" for the first character.
+   */
+  public CharPointer(@NotNull CharSequence text, int start, int end) {
+    assign(text, start, end);
+  }
+
   private CharPointer(@NotNull CharPointer ptr, int offset) {
     seq = ptr.seq;
     readonly = ptr.readonly;
+    limit = ptr.limit;
     pointer = ptr.pointer + offset;
   }
 
@@ -123,6 +133,20 @@ public class CharPointer {
     seq = ptr.seq;
     pointer = ptr.pointer;
     readonly = ptr.readonly;
+    limit = ptr.limit;
+
+    return this;
+  }
+
+  /**
+   * Makes this point to the characters from "start" to "end" of "text", like the constructor with these arguments.
+   */
+  @NotNull
+  public CharPointer assign(@NotNull CharSequence text, int start, int end) {
+    seq = text;
+    pointer = start;
+    readonly = true;
+    limit = end;
 
     return this;
   }
@@ -144,13 +168,14 @@ public class CharPointer {
   public int strlen() {
     if (end()) return 0;
 
-    for (int i = pointer; i < seq.length(); i++) {
+    final int len = length();
+    for (int i = pointer; i < len; i++) {
       if (seq.charAt(i) == '\u0000') {
         return i - pointer;
       }
     }
 
-    return seq.length() - pointer;
+    return len - pointer;
   }
 
   public int strncmp(@NotNull String str, int len) {
@@ -168,67 +193,81 @@ public class CharPointer {
   public int strncmp(@NotNull CharPointer str, int len, boolean ignoreCase) {
     if (end()) return -1;
 
-    CharSequence cs1 = CharBuffer.wrap(seq, pointer, normalize(pointer + len));
-    CharSequence cs2 = CharBuffer.wrap(str.seq, str.pointer, str.normalize(str.pointer + len));
-
-    int l = cs1.length();
-    if (l != cs2.length()) {
+    int l = normalize(pointer + len) - pointer;
+    if (l != str.normalize(str.pointer + len) - str.pointer) {
       return 1;
     }
 
     for (int i = 0; i < l; i++) {
-      char c1 = cs1.charAt(i);
-      char c2 = cs2.charAt(i);
-
-      final boolean notEqual = ignoreCase ? Character.toLowerCase(c1) != Character.toLowerCase(c2) &&
-                                            Character.toUpperCase(c1) != Character.toUpperCase(c2) : c1 != c2;
-      if (notEqual) return 1;
+      if (!charsEqual(seq.charAt(pointer + i), str.seq.charAt(str.pointer + i), ignoreCase)) return 1;
     }
 
     return 0;
   }
 
-  @Nullable
-  public CharPointer strchr(char c) {
-    if (end()) {
-      return null;
+  /**
+   * Compares this string with "len" characters of the array "chars" starting at "offset".
+   *
+   * @return 0 if the strings match, non-zero otherwise
+   */
+  public int strncmp(@NotNull char[] chars, int offset, int len, boolean ignoreCase) {
+    if (end()) return -1;
+
+    if (normalize(pointer + len) - pointer != len) {
+      return 1;
     }
 
-    final int len = seq.length();
-    for (int i = pointer; i < len; i++) {
-      final char ch = seq.charAt(i);
-      if (ch == '\u0000') {
-        return null;
-      }
-      if (ch == c) {
-        return ref(i - pointer);
-      }
+    for (int i = 0; i < len; i++) {
+      if (!charsEqual(seq.charAt(pointer + i), chars[offset + i], ignoreCase)) return 1;
     }
 
-    return null;
+    return 0;
+  }
+
+  private static boolean charsEqual(char c1, char c2, boolean ignoreCase) {
+    return c1 == c2 || ignoreCase && (Character.toLowerCase(c1) == Character.toLowerCase(c2) ||
+                                      Character.toUpperCase(c1) == Character.toUpperCase(c2));
+  }
+
+  @Nullable
+  public CharPointer strchr(char c) {
+    final int i = indexOf(c, 0, false);
+    return i == -1 ? null : ref(i);
   }
 
   @Nullable
   public CharPointer istrchr(char c) {
-    if (end()) {
-      return null;
+    final int i = indexOf(c, 0, true);
+    return i == -1 ? null : ref(i);
+  }
+
+  /**
+   * Finds "c" at "offset" or after it, before the first NUL.
+   *
+   * @return the offset of the character from this pointer, -1 if it isn't found
+   */
+  public int indexOf(char c, int offset, boolean ignoreCase) {
+    if (end(offset)) {
+      return -1;
     }
 
-    final int len = seq.length();
-    final char cc = Character.toUpperCase(c);
-    c = Character.toLowerCase(c);
+    final int len = length();
+    final char cc = ignoreCase ? Character.toUpperCase(c) : c;
+    if (ignoreCase) {
+      c = Character.toLowerCase(c);
+    }
 
-    for (int i = pointer; i < len; i++) {
+    for (int i = pointer + offset; i < len; i++) {
       final char ch = seq.charAt(i);
       if (ch == '\u0000') {
-        return null;
+        return -1;
       }
       if (ch == c || ch == cc) {
-        return ref(i - pointer);
+        return i - pointer;
       }
     }
 
-    return null;
+    return -1;
   }
 
   public boolean isNul() {
@@ -240,7 +279,7 @@ public class CharPointer {
   }
 
   public boolean end(int offset) {
-    return pointer + offset >= seq.length();
+    return pointer + offset >= length();
   }
 
   public int OP() {
@@ -289,7 +328,11 @@ public class CharPointer {
   }
 
   private int normalize(int pos) {
-    return Math.min(seq.length(), pos);
+    return Math.min(length(), pos);
+  }
+
+  private int length() {
+    return limit == -1 ? seq.length() : limit;
   }
 
   @NotNull
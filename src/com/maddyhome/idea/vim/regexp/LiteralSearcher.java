@@ -0,0 +1,124 @@
+/*
+ * IdeaVim - Vim emulator for IDEs based on the IntelliJ platform
+ * Copyright (C) 2003-2019 The IdeaVim authors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.maddyhome.idea.vim.regexp;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Boyer-Moore-Horspool search for a literal string in a character sequence, in either direction.
+ * <p>
+ * When ignoring case two characters are equal if either their lower case or their upper case forms are equal, the
+ * same rule the regexp matcher uses. Shift tables are indexed by the low byte of a character, which only makes the
+ * shifts more conservative for characters outside of Latin-1.
+ */
+class LiteralSearcher {
+  private static final int TABLE_SIZE = 256;
+
+  @NotNull private final char[] literal;
+  private final boolean ignoreCase;
+  @NotNull private final int[] forwardShift = new int[TABLE_SIZE];
+  @NotNull private final int[] backwardShift = new int[TABLE_SIZE];
+
+  LiteralSearcher(@NotNull String literal, boolean ignoreCase) {
+    this.literal = literal.toCharArray();
+    this.ignoreCase = ignoreCase;
+
+    final int m = this.literal.length;
+    Arrays.fill(forwardShift, m);
+    Arrays.fill(backwardShift, m);
+    for (int i = 0; i < m; i++) {
+      final char c = this.literal[i];
+      if (i < m - 1) {
+        setShift(forwardShift, c, m - 1 - i);
+      }
+      if (i > 0) {
+        setShift(backwardShift, c, i);
+      }
+    }
+  }
+
+  /**
+   * Finds the first occurrence that starts at or after "from" and ends at or before "to".
+   *
+   * @return The offset of the occurrence or -1 if there is none
+   */
+  int indexOf(@NotNull CharSequence text, int from, int to) {
+    final int m = literal.length;
+    int pos = from;
+    while (pos <= to - m) {
+      final char last = text.charAt(pos + m - 1);
+      if (charsEqual(last, literal[m - 1]) && matchesAt(text, pos, m - 1)) {
+        return pos;
+      }
+      pos += shift(forwardShift, last);
+    }
+    return -1;
+  }
+
+  /**
+   * Finds the last occurrence that starts at or after "from" and ends at or before "to".
+   *
+   * @return The offset of the occurrence or -1 if there is none
+   */
+  int lastIndexOf(@NotNull CharSequence text, int from, int to) {
+    final int m = literal.length;
+    int pos = to - m;
+    while (pos >= from) {
+      final char first = text.charAt(pos);
+      if (charsEqual(first, literal[0]) && matchesAt(text, pos, m)) {
+        return pos;
+      }
+      pos -= shift(backwardShift, first);
+    }
+    return -1;
+  }
+
+  private boolean matchesAt(@NotNull CharSequence text, int pos, int len) {
+    for (int i = 0; i < len; i++) {
+      if (!charsEqual(text.charAt(pos + i), literal[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean charsEqual(char c1, char c2) {
+    return c1 == c2 || ignoreCase && (Character.toLowerCase(c1) == Character.toLowerCase(c2) ||
+                                      Character.toUpperCase(c1) == Character.toUpperCase(c2));
+  }
+
+  private void setShift(@NotNull int[] table, char c, int shift) {
+    if (ignoreCase) {
+      table[Character.toLowerCase(c) & 0xff] = Math.min(table[Character.toLowerCase(c) & 0xff], shift);
+      table[Character.toUpperCase(c) & 0xff] = Math.min(table[Character.toUpperCase(c) & 0xff], shift);
+    }
+    else {
+      table[c & 0xff] = Math.min(table[c & 0xff], shift);
+    }
+  }
+
+  private int shift(@NotNull int[] table, char c) {
+    if (ignoreCase) {
+      return Math.min(table[Character.toLowerCase(c) & 0xff], table[Character.toUpperCase(c) & 0xff]);
+    }
+    return table[c & 0xff];
+  }
+}
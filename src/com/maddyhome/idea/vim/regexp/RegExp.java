@@ -18,15 +18,30 @@
 
 package com.maddyhome.idea.vim.regexp;
 
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.editor.LogicalPosition;
+import com.intellij.openapi.progress.ProgressManager;
 import com.maddyhome.idea.vim.VimPlugin;
-import com.maddyhome.idea.vim.helper.EditorHelper;
 import com.maddyhome.idea.vim.helper.MessageHelper;
 import com.maddyhome.idea.vim.helper.Msg;
+import com.maddyhome.idea.vim.option.KeywordOption;
+import com.maddyhome.idea.vim.option.OptionsManager;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+
+import java.nio.CharBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class RegExp {
   @Nullable public static reg_extmatch_T re_extmatch_out = null;
@@ -198,6 +213,108 @@ public class RegExp {
   private static final int REG_ZPAREN = 2;       /* \z(\) */
   private static final int REG_NPAREN = 3;       /* \%(\) */
 
+  /* States of the items on the regstack, used by regmatch() */
+  private static final int RS_MOPEN = 0;         /* MOPEN + [0-9] */
+  private static final int RS_MCLOSE = 1;        /* MCLOSE + [0-9] */
+  private static final int RS_ZOPEN = 2;         /* ZOPEN + [0-9] */
+  private static final int RS_ZCLOSE = 3;        /* ZCLOSE + [0-9] */
+  private static final int RS_BRANCH = 4;        /* BRANCH */
+  private static final int RS_BRCPLX_MORE = 5;   /* BRACE_COMPLEX and trying one more match */
+  private static final int RS_BRCPLX_LONG = 6;   /* BRACE_COMPLEX and trying longest match */
+  private static final int RS_BRCPLX_SHORT = 7;  /* BRACE_COMPLEX and trying shortest match */
+  private static final int RS_NOMATCH = 8;       /* NOMATCH */
+  private static final int RS_BEHIND1 = 9;       /* BEHIND / NOBEHIND matching rest */
+  private static final int RS_BEHIND2 = 10;      /* BEHIND / NOBEHIND matching behind part */
+  private static final int RS_STAR_LONG = 11;    /* STAR/PLUS/BRACE_SIMPLE longest match */
+  private static final int RS_STAR_SHORT = 12;   /* STAR/PLUS/BRACE_SIMPLE shortest match */
+
+  /* Values for the status of regmatch() */
+  private static final int RA_FAIL = 1;          /* something failed, abort */
+  private static final int RA_CONT = 2;          /* continue in inner loop */
+  private static final int RA_BREAK = 3;         /* break inner loop */
+  private static final int RA_MATCH = 4;         /* successful match */
+  private static final int RA_NOMATCH = 5;       /* didn't match */
+
+  /* Number of calls of fast_breakcheck() between checks of the time limit */
+  private static final int BREAKCHECK_SKIP = 1000;
+
+  /* Approximate size of a regstack item in bytes, used to apply 'maxmempattern' */
+  private static final int REGITEM_SIZE = 64;
+
+  /* Values of 'regexpengine' and "\%#=" */
+  private static final int AUTOMATIC_ENGINE = 0;
+  private static final int BACKTRACKING_ENGINE = 1;
+  private static final int NFA_ENGINE = 2;
+
+  /* NFA states that are not nodes of the program, the other states use the opcode of the node */
+  private static final int NFA_SPLIT = 300;      /* continue with "out" and "out1" */
+  private static final int NFA_CHAR = 301;       /* first char of EXACTLY */
+  private static final int NFA_CHAR_STR = 302;   /* other chars of EXACTLY */
+  private static final int NFA_CHAR_REP = 303;   /* EXACTLY char repeated by STAR, PLUS or BRACE_SIMPLE */
+
+  private static final int NFA_NONE = -1;        /* no next state */
+  private static final int NFA_PENDING = -2;     /* node that still has to be built by nfa_regcomp() */
+  private static final int NFA_LINK = -3;        /* "NFA_LINK - node" links to a node while building */
+  private static final int NFA_MAX_REPEAT = 200; /* largest count of \{} the NFA is built for */
+
+  /* Submatches of an NFA thread before any were set */
+  private static final int[] NFA_NOSUB = new int[4 * NSUBEXP];
+
+  static {
+    Arrays.fill(NFA_NOSUB, -1);
+  }
+
+  /* What java.util.regex reads instead of a surrogate */
+  private static final char JRE_SURROGATE = '\uffff';
+  /* The characters each class without an argument matches, see jre_class_matches() */
+  private static final BitSet[] JRE_CLASS_MATCHES = new BitSet[NUPPER + 1];
+
+  /* Character of \w and \k, like CharacterClasses.isWord() */
+  private static final String JRE_WORD = "[\\p{javaLetterOrDigit}_]";
+  /* Character of a word for \< and \>, like vim_iswordc(), for the 'iskeyword' table of the modification count */
+  @Nullable private static String jre_keyword;
+  private static long jre_keyword_count;
+
+  /* java.util.regex classes for the character classes, null when the characters have to be listed */
+  private static final String[] JRE_CLASSES = new String[NUPPER + 1];
+
+  static {
+    final String fname = "_\\x{2f}\\x{2e}\\x{2d}\\x{2b}\\x{2c}\\x{23}\\x{24}\\x{25}\\x{7e}\\x{3d}";
+    final String print = "[\\x{20}-\\x{7e}\\x{100}-\\x{ffff}]";
+    final String hex = "\\p{javaDigit}a-fA-F\\x{ff21}-\\x{ff26}\\x{ff41}-\\x{ff46}";
+    JRE_CLASSES[ANY] = "[^\\n\\x{0}]";
+    JRE_CLASSES[IDENT] = "[\\p{javaJavaIdentifierPart}&&[^\\x{0}]]";
+    JRE_CLASSES[SIDENT] = "[\\p{javaJavaIdentifierPart}&&[^\\p{javaDigit}\\x{0}]]";
+    JRE_CLASSES[KWORD] = JRE_WORD;
+    JRE_CLASSES[SKWORD] = "[\\p{javaLetter}_]";
+    JRE_CLASSES[FNAME] = "[\\p{javaLetterOrDigit}" + fname + "]";
+    JRE_CLASSES[SFNAME] = "[\\p{javaLetter}" + fname + "]";
+    JRE_CLASSES[PRINT] = print;
+    JRE_CLASSES[SPRINT] = "[" + print + "&&[^\\p{javaDigit}]]";
+    JRE_CLASSES[WHITE] = "[\\p{javaWhitespace}&&[^\\n]]";
+    JRE_CLASSES[NWHITE] = "[^\\p{javaWhitespace}\\x{0}]";
+    JRE_CLASSES[DIGIT] = "\\p{javaDigit}";
+    JRE_CLASSES[NDIGIT] = "[^\\p{javaDigit}\\n\\x{0}]";
+    JRE_CLASSES[HEX] = "[" + hex + "]";
+    JRE_CLASSES[NHEX] = "[^" + hex + "\\n\\x{0}]";
+    JRE_CLASSES[WORD] = JRE_WORD;
+    JRE_CLASSES[NWORD] = "[^\\p{javaLetterOrDigit}_\\n\\x{0}]";
+    JRE_CLASSES[HEAD] = "[\\p{javaLetter}_]";
+    JRE_CLASSES[NHEAD] = "[^\\p{javaLetter}_\\n\\x{0}]";
+    JRE_CLASSES[ALPHA] = "\\p{javaLetter}";
+    JRE_CLASSES[NALPHA] = "[^\\p{javaLetter}\\n\\x{0}]";
+    JRE_CLASSES[LOWER] = "\\p{javaLowerCase}";
+    JRE_CLASSES[NLOWER] = "[^\\p{javaLowerCase}\\n\\x{0}]";
+    JRE_CLASSES[UPPER] = "\\p{javaUpperCase}";
+    JRE_CLASSES[NUPPER] = "[^\\p{javaUpperCase}\\n\\x{0}]";
+  }
+
+  private static final jre_interrupt_T JRE_INTERRUPT = new jre_interrupt_T();
+
+  /* Released matchers of each thread, see obtain() */
+  private static final int MAX_RELEASED = 4;
+  private static final ThreadLocal<ArrayDeque<RegExp>> RELEASED_MATCHERS = ThreadLocal.withInitial(ArrayDeque::new);
+
   private static boolean WITH_NL(int op) {
     return op >= FIRST_NL && op <= LAST_NL;
   }
@@ -395,6 +512,60 @@ public class RegExp {
     return (prog.regflags & RF_HASNL);
   }
 
+  /*
+   * Return true if the matches of compiled regular expression "prog" in a line only depend on the text of the line.
+   * It must not match a line break, look behind, or match the cursor, a line number or the start or end of the file.
+   */
+  public static boolean re_linelocal(@NotNull regprog_T prog) {
+    return !re_hasop(prog, op -> op == NEWL || WITH_NL(op) || op == BEHIND || op == NOBEHIND || op == RE_BOF ||
+                                 op == RE_EOF || op == CURSOR || op == RE_LNUM);
+  }
+
+  /*
+   * Return true if compiled regular expression "prog" matches the cursor position, so its matches depend on the
+   * editor and not only on the text.
+   */
+  public static boolean re_cursor(@NotNull regprog_T prog) {
+    return re_hasop(prog, op -> op == CURSOR);
+  }
+
+  /*
+   * Return true if compiled regular expression "prog" has a node whose opcode is accepted by "ops".
+   */
+  private static boolean re_hasop(@NotNull regprog_T prog, @NotNull IntPredicate ops) {
+    final char[] program = prog.program;
+    int p = 1;
+    while (p + 3 <= program.length) {
+      final int op = program[p];
+      if (ops.test(op)) {
+        return true;
+      }
+      p = regskip(program, p);
+    }
+    return false;
+  }
+
+  /*
+   * Return the index of the node that follows the node at "p" in "program", after the operand of the node.
+   */
+  private static int regskip(@NotNull char[] program, int p) {
+    final int op = program[p];
+    p = OPERAND(p);
+    if (op == BRACE_LIMITS) {
+      p += 8;
+    }
+    else if (op == RE_LNUM || op == RE_COL || op == RE_VCOL) {
+      p += 5;
+    }
+    else if (op == EXACTLY || op == ANYOF || op == ANYOF + ADD_NL || op == ANYBUT || op == ANYBUT + ADD_NL) {
+      while (program[p] != '\u0000') {
+        p++;
+      }
+      p++;
+    }
+    return p;
+  }
+
   /*
      * Skip past regular expression.
      * Stop at end of 'p' of where 'dirc' is found ('/', '?', etc).
@@ -457,7 +628,6 @@ public class RegExp {
      */
   @Nullable
   public regprog_T vim_regcomp(@Nullable String expr, int magic) {
-    regprog_T r;
     CharPointer scan;
     CharPointer longest;
     int len;
@@ -468,41 +638,55 @@ public class RegExp {
       return null;
     }
 
-    r = new regprog_T();
+    StringBuffer program = new StringBuffer();
+
+    /* "\%#=" selects the engine, it must be at the start of the pattern */
+    int regengine = -1;
+    if (expr.startsWith("\\%#=")) {
+      final char engine = expr.length() > 4 ? expr.charAt(4) : '\u0000';
+      if (engine >= '0' && engine <= '2') {
+        regengine = engine - '0';
+        expr = expr.substring(5);
+      }
+      else {
+        VimPlugin.showMessage(MessageHelper.message(Msg.E864));
+        regengine = AUTOMATIC_ENGINE;
+      }
+    }
 
     /*
          * Second pass: emit code.
          */
     regcomp_start(expr, magic);
-    regcode = new CharPointer(r.program);
+    regcode = new CharPointer(program);
     regc(REGMAGIC);
     if (reg(REG_NOPAREN, flags) == null) {
       return null;
     }
 
     /* Dig out information for optimizations. */
-    r.regstart = 0;          /* Worst-case defaults. */
-    r.reganch = 0;
-    r.regmust = null;
-    r.regmlen = 0;
-    r.regflags = regflags;
+    char regstart = 0;          /* Worst-case defaults. */
+    char reganch = 0;
+    String regprefix = null;
+    int regmust = -1;
+    int regmlen = 0;
+    int progflags = regflags;
     if (flags.isSet(HASNL)) {
-      r.regflags |= RF_HASNL;
+      progflags |= RF_HASNL;
     }
-    /* Remember whether this pattern has any \z specials in it. */
-    r.reghasz = re_has_z;
-    scan = (new CharPointer(r.program)).ref(1);      /* First BRANCH. */
+    scan = (new CharPointer(program)).ref(1);      /* First BRANCH. */
     if (regnext(scan).OP() == END)   /* Only one top-level choice. */ {
       scan = scan.OPERAND();
 
       /* Starting-point info. */
       if (scan.OP() == BOL || scan.OP() == RE_BOF) {
-        r.reganch++;
+        reganch++;
         scan = regnext(scan);
       }
 
       if (scan.OP() == EXACTLY) {
-        r.regstart = scan.OPERAND().charAt();
+        regstart = scan.OPERAND().charAt();
+        regprefix = scan.OPERAND().toString();
       }
       else if ((scan.OP() == BOW
                 || scan.OP() == EOW
@@ -510,7 +694,8 @@ public class RegExp {
                 || scan.OP() == MOPEN || scan.OP() == NOPEN
                 || scan.OP() == MCLOSE || scan.OP() == NCLOSE)
                && regnext(scan).OP() == EXACTLY) {
-        r.regstart = regnext(scan).OPERAND().charAt();
+        regstart = regnext(scan).OPERAND().charAt();
+        regprefix = regnext(scan).OPERAND().toString();
       }
 
       /*
@@ -537,9 +722,38 @@ public class RegExp {
           }
         }
         if (longest != null) {
-          r.regmust = longest.ref(0);
+          regmust = longest.pointer();
+          regmlen = len;
+        }
+      }
+    }
+
+    /* The program is not modified after this, store it in a plain array for the matcher. */
+    final char[] code = new char[program.length()];
+    program.getChars(0, program.length(), code, 0);
+    final regprog_T r = new regprog_T(code, regengine, regstart, reganch, regprefix, regmust, regmlen, progflags,
+                                      re_has_z);
+
+    /* A program that is only a literal, maybe between "\<" and "\>", is matched by searching for the literal */
+    scan = (new CharPointer(program)).ref(1);
+    if (regnext(scan).OP() == END) {
+      scan = scan.OPERAND();
+      final boolean bow = scan.OP() == BOW;
+      if (bow) {
+        scan = regnext(scan);
+      }
+      if (scan.OP() == EXACTLY) {
+        final String literal = scan.OPERAND().toString();
+        scan = regnext(scan);
+        final boolean eow = scan.OP() == EOW;
+        if (eow) {
+          scan = regnext(scan);
+        }
+        if (scan.OP() == END && !literal.isEmpty()) {
+          r.regliteral = literal;
+          r.regliteralbow = bow;
+          r.regliteraleow = eow;
         }
-        r.regmlen = len;
       }
     }
 
@@ -548,6 +762,24 @@ public class RegExp {
     return r;
   }
 
+  /*
+     * Compile the operand of every ANYOF and ANYBUT node in "program" to a CharClass, stored at the index of the
+     * operand.
+     */
+  @NotNull
+  private static CharClass[] regcomp_classes(@NotNull char[] program, boolean ic) {
+    final CharClass[] classes = new CharClass[program.length];
+    int p = 1;
+    while (p + 3 <= program.length) {
+      final int op = program[p];
+      if (op == ANYOF || op == ANYOF + ADD_NL || op == ANYBUT || op == ANYBUT + ADD_NL) {
+        classes[OPERAND(p)] = new CharClass(program, OPERAND(p), ic);
+      }
+      p = regskip(program, p);
+    }
+    return classes;
+  }
+
   /*
      * Setup to parse the regexp.  Used once to get the length and once to do it.
      */
@@ -2024,6 +2256,15 @@ public class RegExp {
      */
   @Nullable
   private CharPointer reg_getline(int lnum) {
+    return reg_getline(lnum, null);
+  }
+
+  /*
+     * Like reg_getline(), but when "reuse" isn't null it's made to point to the line instead of allocating a new pointer.
+     * The pointer is a view on the document text, so its pointer() isn't 0 at the start of the line.
+     */
+  @Nullable
+  private CharPointer reg_getline(int lnum, @Nullable CharPointer reuse) {
     /* when looking behind for a match/no-match lnum is negative.  But we
          * can't go before line 1 */
     if (reg_firstlnum + lnum < 0) {
@@ -2031,7 +2272,60 @@ public class RegExp {
     }
 
     //return ml_get_buf(reg_buf, reg_firstlnum + lnum, false);
-    return new CharPointer(EditorHelper.getLineBuffer(reg_buf, reg_firstlnum + lnum));
+    final int line = reg_firstlnum + lnum;
+    final CharSequence text = reg_buf.getCharsSequence();
+    final int start = reg_linestart(reg_buf, line);
+    final int end = reg_lineend(reg_buf, line);
+    return reuse != null ? reuse.assign(text, start, end) : new CharPointer(text, start, end);
+  }
+
+  /*
+     * Length of the first line in multi-line mode, NULs included.
+     */
+  private int reg_linelen() {
+    return reg_lineend(reg_buf, reg_firstlnum) - regline.pointer();
+  }
+
+  /*
+     * Number of lines in the buffer, a new line at the end of the text doesn't start another line.
+     */
+  private static int reg_linecount(@NotNull Document buf) {
+    final int textLength = buf.getTextLength();
+    final int lineCount = buf.getLineCount();
+    return textLength > 0 && buf.getCharsSequence().charAt(textLength - 1) == '\n' ? lineCount - 1 : lineCount;
+  }
+
+  /*
+     * Offset of the start of line "lnum" in the buffer, like EditorHelper.getLineStartOffset().
+     */
+  private static int reg_linestart(@NotNull Document buf, int lnum) {
+    if (lnum < 0) {
+      return 0;
+    }
+    return lnum < reg_linecount(buf) ? buf.getLineStartOffset(lnum) : buf.getTextLength();
+  }
+
+  /*
+     * Offset of the end of line "lnum" in the buffer, like EditorHelper.getLineEndOffset() allowing the end.
+     */
+  private static int reg_lineend(@NotNull Document buf, int lnum) {
+    if (lnum < 0) {
+      return 0;
+    }
+    return lnum < reg_linecount(buf) ? buf.getLineEndOffset(lnum) : buf.getTextLength();
+  }
+
+  /*
+     * Set reginput to column "col" of regline.  In multi-line mode reginput is never shared, so it is moved instead of
+     * allocating a new pointer.
+     */
+  private void reg_setinput(int col) {
+    if (reg_match == null && reginput != null && reginput != regline) {
+      reginput.assign(regline).inc(col);
+    }
+    else {
+      reginput = regline.ref(col);
+    }
   }
 
   /*
@@ -2042,6 +2336,7 @@ public class RegExp {
      * Return true if there is a match, false if not.
      */
   public boolean vim_regexec(@NotNull regmatch_T rmp, CharPointer line, int col) {
+    reg_tm = 0;
     reg_match = rmp;
     reg_mmatch = null;
     reg_maxline = 0;
@@ -2065,13 +2360,31 @@ public class RegExp {
   /* buffer in which to search */
   /* nr of line to start looking for match */
   /* column to start looking for match */ {
+    return vim_regexec_multi(rmp, buf, lcount, lnum, col, 0);
+  }
+
+  /*
+     * Like vim_regexec_multi() above, but stop when the System.nanoTime() value "tm" has passed, 0 for no limit.
+     * vim_regexec_timed_out() tells whether there was no match because of the time limit.
+     */
+  public int vim_regexec_multi(@NotNull regmmatch_T rmp, Editor buf, int lcount, int lnum, int col, long tm) {
+    return vim_regexec_multi(rmp, buf, buf.getDocument(), lcount, lnum, col, tm);
+  }
+
+  /*
+     * Like vim_regexec_multi() above, but for a buffer that may not be shown in an editor. "win" is the editor for
+     * the cursor position of "\%#", when it is null that never matches.
+     */
+  public int vim_regexec_multi(@NotNull regmmatch_T rmp, @Nullable Editor win, @NotNull Document buf, int lcount,
+                               int lnum, int col, long tm) {
     int r;
     //Editor save_curbuf = curbuf;
 
+    reg_tm = tm;
     reg_match = null;
     reg_mmatch = rmp;
     reg_buf = buf;
-    //reg_win = win;
+    reg_win = win;
     reg_firstlnum = lnum;
     reg_maxline = lcount - lnum;
     ireg_ic = rmp.rmm_ic;
@@ -2095,10 +2408,13 @@ public class RegExp {
     int retval;
     reg_tofree = null;
     retval = 0;
+    got_int = false;
+    reg_timed_out = false;
+    reg_check_canceled = !ApplicationManager.getApplication().isDispatchThread();
 
     if (reg_match == null) {
       prog = reg_mmatch.regprog;
-      line = reg_getline(0);
+      line = reg_getline(0, regline);
       reg_startpos = reg_mmatch.startpos;
       reg_endpos = reg_mmatch.endpos;
     }
@@ -2120,37 +2436,48 @@ public class RegExp {
     }
 
     /* If pattern contains "\c" or "\C": overrule value of ireg_ic */
-    if ((prog.regflags & RF_ICASE) != 0) {
-      ireg_ic = true;
-    }
-    else if ((prog.regflags & RF_NOICASE) != 0) {
-      ireg_ic = false;
+    ireg_ic = prog_ignore_case(prog, ireg_ic);
+
+    /* A literal is found by searching the line for it, like for "*" and "#" */
+    if (prog.regliteral != null && reg_match == null) {
+      return literal_regexec(prog, line, col);
     }
 
     /* If there is a "must appear" string, look for it. */
-    if (prog.regmust != null) {
+    if (prog.regmust != -1) {
       char c;
 
-      c = prog.regmust.charAt();
+      c = prog.program[prog.regmust];
       s = line.ref(col);
-      while ((s = cstrchr(s, c)) != null) {
-        if (cstrncmp(s, prog.regmust, prog.regmlen) == 0) {
+      int i;
+      while ((i = s.indexOf(c, 0, ireg_ic)) != -1) {
+        if (s.inc(i).strncmp(prog.program, prog.regmust, prog.regmlen, ireg_ic) == 0) {
           break;          /* Found it. */
         }
         s.inc();
       }
-      if (s == null)          /* Not present. */ {
+      if (i == -1)          /* Not present. */ {
         // goto theend;
         return retval;
       }
     }
 
-    regline = line.ref(0);
+    regline = reg_match == null ? line : line.ref(0);
     reglnum = 0;
     out_of_stack = false;
+    regstack_maxlen = (int)Math.min(Integer.MAX_VALUE,
+                                    (long)OptionsManager.INSTANCE.getMaxmempattern().value() * 1024 / REGITEM_SIZE);
 
+    final Pattern jre = reg_match == null && col <= reg_linelen() ? jre_getprog(prog) : null;
+    final nfa_regprog_T nfa = reg_match == null && jre == null ? nfa_getprog(prog) : null;
+    if (jre != null) {
+      retval = jre_regexec(prog, jre, col);
+    }
+    else if (nfa != null) {
+      retval = nfa_regexec_both(prog, nfa, col);
+    }
     /* Simplest case: Anchored match need be tried only once. */
-    if (prog.reganch != 0) {
+    else if (prog.reganch != 0) {
       char c;
 
       c = regline.charAt(col);
@@ -2167,12 +2494,11 @@ public class RegExp {
       while (!got_int && !out_of_stack) {
         if (prog.regstart != '\u0000') {
           /* Skip until the char we know it must start with. */
-          s = cstrchr(regline.ref(col), prog.regstart);
-          if (s == null) {
+          col = regline.indexOf(prog.regstart, col, ireg_ic);
+          if (col == -1) {
             retval = 0;
             break;
           }
-          col = s.pointer() - regline.pointer();
         }
 
         retval = regtry(prog, col);
@@ -2182,7 +2508,7 @@ public class RegExp {
 
         /* if not currently on the first line, get it again */
         if (reglnum != 0) {
-          regline = reg_getline(0);
+          regline = reg_getline(0, regline);
           reglnum = 0;
         }
         if (regline.charAt(col) == '\u0000') {
@@ -2201,6 +2527,145 @@ public class RegExp {
     return retval;
   }
 
+  /*
+     * Whether the last match was stopped because the time limit of vim_regexec_multi() passed.
+     */
+  public boolean vim_regexec_timed_out() {
+    return reg_timed_out;
+  }
+
+  /*
+     * Whether a character is part of a word for \< and \>.  Like in Vim it is decided by 'iskeyword', the same as
+     * for the word "*" and "#" search for.
+     */
+  private static boolean vim_iswordc(char c) {
+    return OptionsManager.INSTANCE.getIskeyword().isKeyword(c);
+  }
+
+  /**
+   * Gets a matcher that nothing else is using, a released one of this thread when there is one.
+   * <p>
+   * A matcher keeps the state of one search at a time, the compiled program can be shared. The buffers a matcher has
+   * grown, like the backtracking stack and the NFA state lists, are reused by the next search that gets it.
+   *
+   * @return The matcher, give it back with {@link #release()} when the search is done
+   */
+  @NotNull
+  public static RegExp obtain() {
+    final RegExp matcher = RELEASED_MATCHERS.get().pollFirst();
+    return matcher != null ? matcher : new RegExp();
+  }
+
+  /**
+   * Gives a matcher from {@link #obtain()} back, it must not be used after this. A matcher that isn't released is
+   * just not reused.
+   */
+  public void release() {
+    /* Don't keep the text of the last search alive */
+    reg_buf = null;
+    reg_win = null;
+    reg_match = null;
+    reg_mmatch = null;
+    regline = null;
+    reginput = null;
+    reg_tofree = null;
+    behind_pos = null;
+    Arrays.fill(reg_startp, null);
+    Arrays.fill(reg_endp, null);
+    Arrays.fill(reg_startzp, null);
+    Arrays.fill(reg_endzp, null);
+    jre_text.text = "";
+
+    final ArrayDeque<RegExp> released = RELEASED_MATCHERS.get();
+    if (released.size() < MAX_RELEASED) {
+      released.addFirst(this);
+    }
+  }
+
+  /*
+     * Get the NFA to execute "prog" with, null when the backtracking engine has to be used.
+     * With the automatic engine the NFA is used for every program it supports.
+     */
+  @Nullable
+  private nfa_regprog_T nfa_getprog(@NotNull regprog_T prog) {
+    final int engine = prog.regengine >= 0 ? prog.regengine : OptionsManager.INSTANCE.getRegexpengine().value();
+    if (engine == BACKTRACKING_ENGINE) {
+      return null;
+    }
+    synchronized (prog) {
+      if (!prog.nfa_compiled) {
+        prog.nfa = nfa_regcomp(prog);
+        prog.nfa_compiled = true;
+      }
+      return prog.nfa;
+    }
+  }
+
+  /*
+     * Whether the program ignores case: "\c" or "\C" in the pattern overrule "ic".
+     */
+  private static boolean prog_ignore_case(@NotNull regprog_T prog, boolean ic) {
+    if ((prog.regflags & RF_ICASE) != 0) {
+      return true;
+    }
+    else if ((prog.regflags & RF_NOICASE) != 0) {
+      return false;
+    }
+    return ic;
+  }
+
+  /**
+   * Finds the nearest line that may contain the start of a match, searching the text of the whole buffer at once.
+   * <p>
+   * When the program has a literal that every match must contain on its first line, either the literal the
+   * pattern starts with or its "must appear" string, the buffer text is scanned for it and lines without it are
+   * skipped. Lines that are returned still have to be checked with {@link #vim_regexec_multi}.
+   *
+   * @param rmp   The compiled program and case sensitivity
+   * @param buf   The buffer to search
+   * @param lcount The number of lines in the buffer, or fewer to not look at the lines after them
+   * @param lnum  The line to start at
+   * @param col   The column in "lnum" to start at, only used when searching forwards
+   * @param dir   1 to search forwards, -1 to search backwards
+   * @return "lnum" or the nearest line in direction "dir" that may contain a match, -1 if there is none
+   */
+  public int vim_regexec_nextline(@NotNull regmmatch_T rmp, @NotNull Editor buf, int lcount, int lnum, int col,
+                                  int dir) {
+    return vim_regexec_nextline(rmp, buf.getDocument(), lcount, lnum, col, dir);
+  }
+
+  /*
+     * Like vim_regexec_nextline() above, for a buffer that may not be shown in an editor.
+     */
+  public int vim_regexec_nextline(@NotNull regmmatch_T rmp, @NotNull Document document, int lcount, int lnum,
+                                  int col, int dir) {
+    final regprog_T prog = rmp.regprog;
+    if (prog == null || lnum < 0 || lnum >= lcount) {
+      return lnum;
+    }
+
+    final LiteralSearcher searcher = prog.prefilter(prog_ignore_case(prog, rmp.rmm_ic));
+    if (searcher == null) {
+      return lnum;
+    }
+
+    final CharSequence text = document.getCharsSequence();
+    final int offset;
+    if (dir > 0) {
+      final int end = lcount < document.getLineCount() ? document.getLineEndOffset(lcount - 1) : text.length();
+      offset = searcher.indexOf(text, reg_linestart(document, lnum) + col, end);
+    }
+    else {
+      offset = searcher.lastIndexOf(text, 0, reg_lineend(document, lnum));
+    }
+    if (offset == -1) {
+      return -1;
+    }
+
+    final int line = document.getLineNumber(offset);
+    return line < lcount ? line : -1;
+  }
+
   private static class reg_extmatch_T {
     @NotNull String[] matches = new String[NSUBEXP];
   }
@@ -2238,14 +2703,16 @@ public class RegExp {
      * Returns 0 for failure, number of lines contained in the match otherwise.
      */
   private int regtry(@NotNull regprog_T prog, int col) {
-    reginput = regline.ref(col);
+    reg_setinput(col);
     need_clear_subexpr = true;
     /* Clear the external match subpointers if necessary. */
     if (prog.reghasz == REX_SET) {
       need_clear_zsubexpr = true;
     }
 
-    if (regmatch((new CharPointer(prog.program)).ref(1))) {
+    regprogram = prog.program;
+    regclass = prog.regclass[ireg_ic ? 1 : 0];
+    if (regmatch(1)) {
       cleanup_subexpr();
       if (reg_match == null) {
         if (reg_startpos[0].lnum < 0) {
@@ -2300,960 +2767,1277 @@ public class RegExp {
      * regmatch - main matching routine
      *
      * Conceptually the strategy is simple: Check to see whether the current
-     * node matches, call self recursively to see whether the rest matches,
-     * and then act accordingly.  In practice we make some effort to avoid
-     * recursion, in particular by going through "ordinary" nodes (that don't
-     * need to know whether the rest of the match failed) by a loop instead of
-     * by recursion.
+     * node matches, push an item onto the regstack and loop to see whether the
+     * rest matches, and then act accordingly.  In practice we make some effort
+     * to avoid using the regstack, in particular by going through "ordinary"
+     * nodes (that don't need to know whether the rest of the match failed) by
+     * a loop instead of by recursion.
+     *
+     * The regstack lives on the heap and is reused between calls, so long lines
+     * don't exhaust the Java stack.  It is limited by 'maxmempattern', when it
+     * would grow larger out_of_stack is set and the match fails.
      *
      * Returns true when there is a match.  Leaves reginput and reglnum just after
      * the last matched character.
      * Returns false when there is no match.  Leaves reginput and reglnum in an
      * undefined state!
      */
-  private boolean regmatch(@Nullable CharPointer scan) {
-    CharPointer next;          /* Next node. */
+  private boolean regmatch(int scan) {
+    int next;          /* Next node. */
     int op;
     char c;
+    int status;        /* one of the RA_ values: */
+    regitem_T rp;
 
-    /* Some patterns my cause a long time to match, even though they are not
-         * illegal.  E.g., "\([a-z]\+\)\+Q".  Allow breaking them with CTRL-C. */
-    //fast_breakcheck(); - TODO
+    /* Make "regstack" empty, it may have been left over by a previous
+     * failed match. */
+    regstack_len = 0;
 
-    while (scan != null) {
-      if (got_int || out_of_stack) {
-        return false;
-      }
-      next = regnext(scan);
+    /*
+     * Repeat until "regstack" is empty.
+     */
+    for (; ; ) {
+      /* Some patterns my cause a long time to match, even though they are not
+           * illegal.  E.g., "\([a-z]\+\)\+Q".  Stop them at the time limit. */
+      fast_breakcheck();
 
-      op = scan.OP();
-      /* Check for character class with NL added. */
-      if (WITH_NL(op) && reginput.isNul() && reglnum < reg_maxline) {
-        reg_nextline();
-      }
-      else {
-        if (WITH_NL(op)) {
-          op -= ADD_NL;
+      /*
+       * Repeat for items that can be matched sequentially, without using the
+       * regstack.
+       */
+      for (; ; ) {
+        if (got_int || out_of_stack) {
+          status = RA_FAIL;
+          break;
         }
-        c = reginput.charAt();
-        switch (op) {
-          case BOL:
-            if (!reginput.equals(regline)) {
-              return false;
-            }
-            break;
-
-          case EOL:
-            if (c != '\u0000') {
-              return false;
-            }
-            break;
-
-          case RE_BOF:
-            /* Passing -1 to the getline() function provided for the search
-                         * should always return null if the current line is the first
-                         * line of the file. */
-            if (reglnum != 0 || !reginput.equals(regline) || (reg_match == null && reg_getline(-1) != null)) {
-              return false;
-            }
-            break;
+        if (scan == -1) {
+          /*
+           * We get here only if there's trouble -- normally "case END" is the
+           * terminating point.
+           */
+          VimPlugin.showMessage(MessageHelper.message(Msg.e_re_corr));
+          status = RA_FAIL;
+          break;
+        }
+        status = RA_CONT;
+        next = regnext(scan);
 
-          case RE_EOF:
-            if (reglnum != reg_maxline || c != '\u0000') {
-              return false;
-            }
-            break;
+        op = OP(scan);
+        /* Check for character class with NL added. */
+        if (WITH_NL(op) && reginput.isNul() && reglnum < reg_maxline) {
+          reg_nextline();
+        }
+        else {
+          if (WITH_NL(op)) {
+            op -= ADD_NL;
+          }
+          c = reginput.charAt();
+          switch (op) {
+            case BOL:
+              if (!reginput.equals(regline)) {
+                status = RA_NOMATCH;
+              }
+              break;
 
-          case CURSOR:
-            /* Check if the buffer is in a window and compare the
-                         * reg_win->w_cursor position to the match position. */
-            LogicalPosition curpos = reg_buf.getCaretModel().getLogicalPosition();
-            if (reglnum + reg_firstlnum != curpos.line ||
-                reginput.pointer() - regline.pointer() != curpos.column) {
-              return false;
-            }
-            break;
+            case EOL:
+              if (c != '\u0000') {
+                status = RA_NOMATCH;
+              }
+              break;
 
-          case RE_LNUM:
-            if (reg_match != null || !re_num_cmp((reglnum + reg_firstlnum), scan)) {
-              return false;
-            }
-            break;
+            case RE_BOF:
+              /* Passing -1 to the getline() function provided for the search
+                           * should always return null if the current line is the first
+                           * line of the file. */
+              if (reglnum != 0 || !reginput.equals(regline) || (reg_match == null && reg_getline(-1) != null)) {
+                status = RA_NOMATCH;
+              }
+              break;
 
-          case RE_COL:
-            if (!re_num_cmp((reginput.pointer() - regline.pointer()) + 1, scan)) {
-              return false;
-            }
-            break;
+            case RE_EOF:
+              if (reglnum != reg_maxline || c != '\u0000') {
+                status = RA_NOMATCH;
+              }
+              break;
 
-          case RE_VCOL:
-            /* TODO
-                        if (!re_num_cmp(win_linetabsize(reg_win == null ? curwin : reg_win,
-                            regline, (int)(reginput - regline)) + 1, scan))
-                        {
-                            return false;
-                        }
-                        */
-            break;
+            case CURSOR:
+              /* Check if the buffer is in a window and compare the
+                           * reg_win->w_cursor position to the match position. */
+              if (reg_win == null) {
+                status = RA_NOMATCH;
+                break;
+              }
+              LogicalPosition curpos = reg_win.getCaretModel().getLogicalPosition();
+              if (reglnum + reg_firstlnum != curpos.line ||
+                  reginput.pointer() - regline.pointer() != curpos.column) {
+                status = RA_NOMATCH;
+              }
+              break;
 
-          case BOW:     /* \<word; reginput points to w */
-            if (c == '\u0000')       /* Can't match at end of line */ {
-              return false;
-            }
-            else {
-              if (!CharacterClasses.isWord(c) || (reginput.pointer() > regline.pointer() &&
-                                                  CharacterClasses.isWord(reginput.charAt(-1)))) {
-                return false;
+            case RE_LNUM:
+              if (reg_match != null || !re_num_cmp((reglnum + reg_firstlnum), scan)) {
+                status = RA_NOMATCH;
               }
-            }
-            break;
+              break;
 
-          case EOW:     /* word\>; reginput points after d */
-            if (reginput.equals(regline))    /* Can't match at start of line */ {
-              return false;
-            }
-            if (!CharacterClasses.isWord(reginput.charAt(-1))) {
-              return false;
-            }
-            if (!reginput.isNul() && CharacterClasses.isWord(c)) {
-              return false;
-            }
-            break; /* Matched with EOW */
+            case RE_COL:
+              if (!re_num_cmp((reginput.pointer() - regline.pointer()) + 1, scan)) {
+                status = RA_NOMATCH;
+              }
+              break;
 
-          case ANY:
-            if (c == '\u0000') {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case RE_VCOL:
+              /* TODO
+                          if (!re_num_cmp(win_linetabsize(reg_win == null ? curwin : reg_win,
+                              regline, (int)(reginput - regline)) + 1, scan))
+                          {
+                              status = RA_NOMATCH;
+                          }
+                          */
+              break;
 
-          case IDENT:
-            if (!Character.isJavaIdentifierPart(c)) {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case BOW:     /* \<word; reginput points to w */
+              if (c == '\u0000')       /* Can't match at end of line */ {
+                status = RA_NOMATCH;
+              }
+              else {
+                if (!vim_iswordc(c) || (reginput.pointer() > regline.pointer() &&
+                                        vim_iswordc(reginput.charAt(-1)))) {
+                  status = RA_NOMATCH;
+                }
+              }
+              break;
 
-          case SIDENT:
-            if (CharacterClasses.isDigit(reginput.charAt()) || !Character.isJavaIdentifierPart(c)) {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case EOW:     /* word\>; reginput points after d */
+              if (reginput.equals(regline))    /* Can't match at start of line */ {
+                status = RA_NOMATCH;
+              }
+              else if (!vim_iswordc(reginput.charAt(-1))) {
+                status = RA_NOMATCH;
+              }
+              else if (!reginput.isNul() && vim_iswordc(c)) {
+                status = RA_NOMATCH;
+              }
+              break; /* Matched with EOW */
 
-          case KWORD:
-            if (!CharacterClasses.isWord(reginput.charAt())) {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case ANY:
+              if (c == '\u0000') {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
 
-          case SKWORD:
-            if (CharacterClasses.isDigit(reginput.charAt()) || !CharacterClasses.isWord(reginput.charAt())) {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case IDENT:
+              if (c == '\u0000' || !Character.isJavaIdentifierPart(c)) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
 
-          case FNAME:
-            if (!CharacterClasses.isFile(c)) {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case SIDENT:
+              if (c == '\u0000' || CharacterClasses.isDigit(c) || !Character.isJavaIdentifierPart(c)) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
 
-          case SFNAME:
-            if (CharacterClasses.isDigit(reginput.charAt()) || !CharacterClasses.isFile(c)) {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case KWORD:
+              if (!CharacterClasses.isWord(reginput.charAt())) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
 
-          case PRINT:
-            if (!CharacterClasses.isPrint(reginput.charAt())) {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case SKWORD:
+              if (CharacterClasses.isDigit(reginput.charAt()) || !CharacterClasses.isWord(reginput.charAt())) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
 
-          case SPRINT:
-            if (CharacterClasses.isDigit(reginput.charAt()) || !CharacterClasses.isPrint(reginput.charAt())) {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case FNAME:
+              if (!CharacterClasses.isFile(c)) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
 
-          case WHITE:
-            if (!CharacterClasses.isWhite(c)) {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case SFNAME:
+              if (CharacterClasses.isDigit(reginput.charAt()) || !CharacterClasses.isFile(c)) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
 
-          case NWHITE:
-            if (c == '\u0000' || CharacterClasses.isWhite(c)) {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case PRINT:
+              if (!CharacterClasses.isPrint(reginput.charAt())) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
 
-          case DIGIT:
-            if (!CharacterClasses.isDigit(c)) {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case SPRINT:
+              if (CharacterClasses.isDigit(reginput.charAt()) || !CharacterClasses.isPrint(reginput.charAt())) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
 
-          case NDIGIT:
-            if (c == '\u0000' || CharacterClasses.isDigit(c)) {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case WHITE:
+              if (!CharacterClasses.isWhite(c)) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
 
-          case HEX:
-            if (!CharacterClasses.isHex(c)) {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case NWHITE:
+              if (c == '\u0000' || CharacterClasses.isWhite(c)) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
 
-          case NHEX:
-            if (c == '\u0000' || CharacterClasses.isHex(c)) {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case DIGIT:
+              if (!CharacterClasses.isDigit(c)) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
 
-          case OCTAL:
-            if (!CharacterClasses.isOctal(c)) {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case NDIGIT:
+              if (c == '\u0000' || CharacterClasses.isDigit(c)) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
 
-          case NOCTAL:
-            if (c == '\u0000' || CharacterClasses.isOctal(c)) {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case HEX:
+              if (!CharacterClasses.isHex(c)) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
 
-          case WORD:
-            if (!CharacterClasses.isWord(c)) {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case NHEX:
+              if (c == '\u0000' || CharacterClasses.isHex(c)) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
 
-          case NWORD:
-            if (c == '\u0000' || CharacterClasses.isWord(c)) {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case OCTAL:
+              if (!CharacterClasses.isOctal(c)) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
 
-          case HEAD:
-            if (!CharacterClasses.isHead(c)) {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case NOCTAL:
+              if (c == '\u0000' || CharacterClasses.isOctal(c)) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
 
-          case NHEAD:
-            if (c == '\u0000' || CharacterClasses.isHead(c)) {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case WORD:
+              if (!CharacterClasses.isWord(c)) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
 
-          case ALPHA:
-            if (!CharacterClasses.isAlpha(c)) {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case NWORD:
+              if (c == '\u0000' || CharacterClasses.isWord(c)) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
 
-          case NALPHA:
-            if (c == '\u0000' || CharacterClasses.isAlpha(c)) {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case HEAD:
+              if (!CharacterClasses.isHead(c)) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
 
-          case LOWER:
-            if (!CharacterClasses.isLower(c)) {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case NHEAD:
+              if (c == '\u0000' || CharacterClasses.isHead(c)) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
 
-          case NLOWER:
-            if (c == '\u0000' || CharacterClasses.isLower(c)) {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case ALPHA:
+              if (!CharacterClasses.isAlpha(c)) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
 
-          case UPPER:
-            if (!CharacterClasses.isUpper(c)) {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case NALPHA:
+              if (c == '\u0000' || CharacterClasses.isAlpha(c)) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
 
-          case NUPPER:
-            if (c == '\u0000' || CharacterClasses.isUpper(c)) {
-              return false;
-            }
-            reginput.inc();
-            break;
+            case LOWER:
+              if (!CharacterClasses.isLower(c)) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
 
-          case EXACTLY: {
-            int len;
-            CharPointer opnd;
+            case NLOWER:
+              if (c == '\u0000' || CharacterClasses.isLower(c)) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
 
-            opnd = scan.OPERAND();
-            /* Inline the first byte, for speed. */
-            if (opnd.charAt() != reginput.charAt() && (!ireg_ic ||
-                                                       Character.toLowerCase(opnd.charAt()) != Character.toLowerCase(reginput.charAt()))) {
-              return false;
-            }
-            if (opnd.charAt(1) == '\u0000') {
-              reginput.inc();         /* matched a single char */
-            }
-            else {
-              len = opnd.strlen();
-              /* Need to match first byte again for multi-byte. */
-              if (cstrncmp(opnd, reginput, len) != 0) {
-                return false;
+            case UPPER:
+              if (!CharacterClasses.isUpper(c)) {
+                status = RA_NOMATCH;
               }
-              reginput.inc(len);
-            }
-          }
-          break;
+              else {
+                reginput.inc();
+              }
+              break;
 
-          case ANYOF:
-          case ANYBUT:
-            if (c == '\u0000') {
-              return false;
-            }
-            if ((cstrchr(scan.OPERAND(), c) == null) == (op == ANYOF)) {
-              return false;
+            case NUPPER:
+              if (c == '\u0000' || CharacterClasses.isUpper(c)) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
+
+            case EXACTLY: {
+              int len;
+              int opnd;
+
+              opnd = OPERAND(scan);
+              /* Inline the first byte, for speed. */
+              if (regprogram[opnd] != reginput.charAt() && (!ireg_ic ||
+                                                            Character.toLowerCase(regprogram[opnd]) != Character.toLowerCase(reginput.charAt()))) {
+                status = RA_NOMATCH;
+              }
+              else if (regprogram[opnd + 1] == '\u0000') {
+                reginput.inc();         /* matched a single char */
+              }
+              else {
+                len = regstrlen(opnd);
+                /* Need to match first byte again for multi-byte. */
+                if (cstrncmp(opnd, reginput, len) != 0) {
+                  status = RA_NOMATCH;
+                }
+                else {
+                  reginput.inc(len);
+                }
+              }
             }
-            reginput.inc();
             break;
 
+            case ANYOF:
+            case ANYBUT:
+              if (c == '\u0000' || regstrchr(OPERAND(scan), c) != (op == ANYOF)) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reginput.inc();
+              }
+              break;
 
-          case NOTHING:
-            break;
 
-          case BACK:
-            break;
+            case NOTHING:
+              break;
 
-          case MOPEN:   /* Match start: \zs */
-          case MOPEN + 1:   /* \( */
-          case MOPEN + 2:
-          case MOPEN + 3:
-          case MOPEN + 4:
-          case MOPEN + 5:
-          case MOPEN + 6:
-          case MOPEN + 7:
-          case MOPEN + 8:
-          case MOPEN + 9: {
-            int no;
-            save_se_T save = new save_se_T();
-
-            no = op - MOPEN;
-            cleanup_subexpr();
-            save_se(save, reg_startpos[no], reg_startp[no]);
-
-            if (regmatch(next)) {
-              return true;
-            }
+            case BACK:
+              break;
 
-            restore_se(save, reg_startpos[no], reg_startp[no]);
-            return false;
-          }
-          /* break; Not Reached */
-
-          case NOPEN:       /* \%( */
-          case NCLOSE:      /* \) after \%( */
-            return regmatch(next);
-          /* break; Not Reached */
-
-          case ZOPEN + 1:
-          case ZOPEN + 2:
-          case ZOPEN + 3:
-          case ZOPEN + 4:
-          case ZOPEN + 5:
-          case ZOPEN + 6:
-          case ZOPEN + 7:
-          case ZOPEN + 8:
-          case ZOPEN + 9: {
-            int no;
-            save_se_T save = new save_se_T();
-
-            no = op - ZOPEN;
-            cleanup_zsubexpr();
-            save_se(save, reg_startzpos[no], reg_startzp[no]);
-
-            if (regmatch(next)) {
-              return true;
+            case MOPEN:   /* Match start: \zs */
+            case MOPEN + 1:   /* \( */
+            case MOPEN + 2:
+            case MOPEN + 3:
+            case MOPEN + 4:
+            case MOPEN + 5:
+            case MOPEN + 6:
+            case MOPEN + 7:
+            case MOPEN + 8:
+            case MOPEN + 9: {
+              int no;
+
+              no = op - MOPEN;
+              cleanup_subexpr();
+              rp = regstack_push(RS_MOPEN, scan);
+              if (rp == null) {
+                status = RA_FAIL;
+              }
+              else {
+                rp.rs_no = no;
+                save_se(rp.rs_sesave, reg_startpos[no], reg_startp[no]);
+                /* We simply continue and handle the result when done. */
+              }
             }
+            break;
 
-            restore_se(save, reg_startzpos[no], reg_startzp[no]);
-            return false;
-          }
-          /* break; Not Reached */
-
-          case MCLOSE:  /* Match end: \ze */
-          case MCLOSE + 1:  /* \) */
-          case MCLOSE + 2:
-          case MCLOSE + 3:
-          case MCLOSE + 4:
-          case MCLOSE + 5:
-          case MCLOSE + 6:
-          case MCLOSE + 7:
-          case MCLOSE + 8:
-          case MCLOSE + 9: {
-            int no;
-            save_se_T save = new save_se_T();
-
-            no = op - MCLOSE;
-            cleanup_subexpr();
-            save_se(save, reg_endpos[no], reg_endp[no]);
-
-            if (regmatch(next)) {
-              return true;
-            }
+            case NOPEN:       /* \%( */
+            case NCLOSE:      /* \) after \%( */
+              /* Nothing to save or restore, simply continue. */
+              break;
 
-            restore_se(save, reg_endpos[no], reg_endp[no]);
-            return false;
-          }
-          /* break; Not Reached */
-
-          case ZCLOSE + 1:  /* \) after \z( */
-          case ZCLOSE + 2:
-          case ZCLOSE + 3:
-          case ZCLOSE + 4:
-          case ZCLOSE + 5:
-          case ZCLOSE + 6:
-          case ZCLOSE + 7:
-          case ZCLOSE + 8:
-          case ZCLOSE + 9: {
-            int no;
-            save_se_T save = new save_se_T();
-
-            no = op - ZCLOSE;
-            cleanup_zsubexpr();
-            save_se(save, reg_endzpos[no], reg_endzp[no]);
-
-            if (regmatch(next)) {
-              return true;
+            case ZOPEN + 1:
+            case ZOPEN + 2:
+            case ZOPEN + 3:
+            case ZOPEN + 4:
+            case ZOPEN + 5:
+            case ZOPEN + 6:
+            case ZOPEN + 7:
+            case ZOPEN + 8:
+            case ZOPEN + 9: {
+              int no;
+
+              no = op - ZOPEN;
+              cleanup_zsubexpr();
+              rp = regstack_push(RS_ZOPEN, scan);
+              if (rp == null) {
+                status = RA_FAIL;
+              }
+              else {
+                rp.rs_no = no;
+                save_se(rp.rs_sesave, reg_startzpos[no], reg_startzp[no]);
+                /* We simply continue and handle the result when done. */
+              }
             }
+            break;
 
-            restore_se(save, reg_endzpos[no], reg_endzp[no]);
-            return false;
-          }
-          /* break; Not Reached */
-
-          case BACKREF + 1:
-          case BACKREF + 2:
-          case BACKREF + 3:
-          case BACKREF + 4:
-          case BACKREF + 5:
-          case BACKREF + 6:
-          case BACKREF + 7:
-          case BACKREF + 8:
-          case BACKREF + 9: {
-            int no;
-            int len;
-            int clnum;
-            int ccol;
-            CharPointer p;
-
-            no = op - BACKREF;
-            cleanup_subexpr();
-            if (reg_match != null)         /* Single-line regexp */ {
-              if (reg_endp[no] == null) {
-                /* Backref was not set: Match an empty string. */
-                len = 0;
+            case MCLOSE:  /* Match end: \ze */
+            case MCLOSE + 1:  /* \) */
+            case MCLOSE + 2:
+            case MCLOSE + 3:
+            case MCLOSE + 4:
+            case MCLOSE + 5:
+            case MCLOSE + 6:
+            case MCLOSE + 7:
+            case MCLOSE + 8:
+            case MCLOSE + 9: {
+              int no;
+
+              no = op - MCLOSE;
+              cleanup_subexpr();
+              rp = regstack_push(RS_MCLOSE, scan);
+              if (rp == null) {
+                status = RA_FAIL;
               }
               else {
-                /* Compare current input with back-ref in the same
-                                     * line. */
-                len = reg_endp[no].pointer() - reg_startp[no].pointer();
-                if (cstrncmp(reg_startp[no], reginput, len) != 0) {
-                  return false;
-                }
+                rp.rs_no = no;
+                save_se(rp.rs_sesave, reg_endpos[no], reg_endp[no]);
+                /* We simply continue and handle the result when done. */
               }
             }
-            else                            /* Multi-line regexp */ {
-              if (reg_endpos[no].lnum < 0) {
-                /* Backref was not set: Match an empty string. */
-                len = 0;
+            break;
+
+            case ZCLOSE + 1:  /* \) after \z( */
+            case ZCLOSE + 2:
+            case ZCLOSE + 3:
+            case ZCLOSE + 4:
+            case ZCLOSE + 5:
+            case ZCLOSE + 6:
+            case ZCLOSE + 7:
+            case ZCLOSE + 8:
+            case ZCLOSE + 9: {
+              int no;
+
+              no = op - ZCLOSE;
+              cleanup_zsubexpr();
+              rp = regstack_push(RS_ZCLOSE, scan);
+              if (rp == null) {
+                status = RA_FAIL;
               }
               else {
-                if (reg_startpos[no].lnum == reglnum
-                    && reg_endpos[no].lnum == reglnum) {
-                  /* Compare back-ref within the current line. */
-                  len = reg_endpos[no].col - reg_startpos[no].col;
-                  if (cstrncmp(regline.ref(reg_startpos[no].col), reginput, len) != 0) {
-                    return false;
+                rp.rs_no = no;
+                save_se(rp.rs_sesave, reg_endzpos[no], reg_endzp[no]);
+                /* We simply continue and handle the result when done. */
+              }
+            }
+            break;
+
+            case BACKREF + 1:
+            case BACKREF + 2:
+            case BACKREF + 3:
+            case BACKREF + 4:
+            case BACKREF + 5:
+            case BACKREF + 6:
+            case BACKREF + 7:
+            case BACKREF + 8:
+            case BACKREF + 9: {
+              int no;
+              int len = 0;
+              int clnum;
+              int ccol;
+              CharPointer p;
+
+              no = op - BACKREF;
+              cleanup_subexpr();
+              if (reg_match != null)         /* Single-line regexp */ {
+                if (reg_endp[no] != null) {
+                  /* Compare current input with back-ref in the same
+                                       * line. */
+                  len = reg_endp[no].pointer() - reg_startp[no].pointer();
+                  if (cstrncmp(reg_startp[no], reginput, len) != 0) {
+                    status = RA_NOMATCH;
                   }
                 }
-                else {
-                  /* Messy situation: Need to compare between two
-                                         * lines. */
-                  ccol = reg_startpos[no].col;
-                  clnum = reg_startpos[no].lnum;
-                  for (; ; ) {
-                    /* Since getting one line may invalidate
-                                             * the other, need to make copy.  Slow! */
-                    if (!regline.equals(reg_tofree)) {
-                      reg_tofree = regline.ref(0);
-                      reginput = reg_tofree.ref(reginput.pointer() - regline.pointer());
-                      regline = reg_tofree.ref(0);
-                    }
-
-                    /* Get the line to compare with. */
-                    p = reg_getline(clnum);
-                    if (clnum == reg_endpos[no].lnum) {
-                      len = reg_endpos[no].col - ccol;
-                    }
-                    else {
-                      len = p.ref(ccol).strlen();
-                    }
-
-                    if (cstrncmp(p.ref(ccol), reginput, len) != 0) {
-                      return false;       /* doesn't match */
-                    }
-                    if (clnum == reg_endpos[no].lnum) {
-                      break;              /* match and at end! */
+                /* else: Backref was not set: Match an empty string. */
+              }
+              else                            /* Multi-line regexp */ {
+                if (reg_endpos[no].lnum >= 0) {
+                  if (reg_startpos[no].lnum == reglnum
+                      && reg_endpos[no].lnum == reglnum) {
+                    /* Compare back-ref within the current line. */
+                    len = reg_endpos[no].col - reg_startpos[no].col;
+                    if (cstrncmp(regline.ref(reg_startpos[no].col), reginput, len) != 0) {
+                      status = RA_NOMATCH;
                     }
-                    if (reglnum == reg_maxline) {
-                      return false;       /* text too short */
+                  }
+                  else {
+                    /* Messy situation: Need to compare between two
+                                           * lines. */
+                    ccol = reg_startpos[no].col;
+                    clnum = reg_startpos[no].lnum;
+                    for (; ; ) {
+                      /* Since getting one line may invalidate
+                                               * the other, need to make copy.  Slow! */
+                      if (!regline.equals(reg_tofree)) {
+                        reg_tofree = regline.ref(0);
+                        reginput = reg_tofree.ref(reginput.pointer() - regline.pointer());
+                        regline = reg_tofree.ref(0);
+                      }
+
+                      /* Get the line to compare with. */
+                      p = reg_getline(clnum);
+                      if (clnum == reg_endpos[no].lnum) {
+                        len = reg_endpos[no].col - ccol;
+                      }
+                      else {
+                        len = p.ref(ccol).strlen();
+                      }
+
+                      if (cstrncmp(p.ref(ccol), reginput, len) != 0) {
+                        status = RA_NOMATCH;    /* doesn't match */
+                        break;
+                      }
+                      if (clnum == reg_endpos[no].lnum) {
+                        break;              /* match and at end! */
+                      }
+                      if (reglnum == reg_maxline) {
+                        status = RA_NOMATCH;    /* text too short */
+                        break;
+                      }
+
+                      /* Advance to next line. */
+                      reg_nextline();
+                      ++clnum;
+                      ccol = 0;
+                      if (got_int || out_of_stack) {
+                        status = RA_FAIL;
+                        break;
+                      }
                     }
 
-                    /* Advance to next line. */
-                    reg_nextline();
-                    ++clnum;
-                    ccol = 0;
-                    if (got_int || out_of_stack) {
-                      return false;
-                    }
+                    /* found a match!  Note that regline may now point
+                                           * to a copy of the line, that should not matter. */
                   }
-
-                  /* found a match!  Note that regline may now point
-                                         * to a copy of the line, that should not matter. */
                 }
+                /* else: Backref was not set: Match an empty string. */
               }
-            }
-
-            /* Matched the backref, skip over it. */
-            reginput.inc(len);
-          }
-          break;
-
-          case ZREF + 1:
-          case ZREF + 2:
-          case ZREF + 3:
-          case ZREF + 4:
-          case ZREF + 5:
-          case ZREF + 6:
-          case ZREF + 7:
-          case ZREF + 8:
-          case ZREF + 9: {
-            int no;
-            int len;
-
-            cleanup_zsubexpr();
-            no = op - ZREF;
-            final String match = re_extmatch_in.matches[no];
-            if (re_extmatch_in != null && match != null) {
-              len = match.length();
-              if (cstrncmp(new CharPointer(match), reginput, len) != 0) {
-                return false;
-              }
-              reginput.inc(len);
-            }
-            else {
-              /* Backref was not set: Match an empty string. */
-            }
-          }
-          break;
 
-          case BRANCH: {
-            if (next.OP() != BRANCH) /* No choice. */ {
-              next = scan.OPERAND();       /* Avoid recursion. */
+              /* Matched the backref, skip over it. */
+              if (status == RA_CONT) {
+                reginput.inc(len);
+              }
             }
-            else {
-              regsave_T save = new regsave_T();
+            break;
 
-              do {
-                reg_save(save);
-                if (regmatch(scan.OPERAND())) {
-                  return true;
+            case ZREF + 1:
+            case ZREF + 2:
+            case ZREF + 3:
+            case ZREF + 4:
+            case ZREF + 5:
+            case ZREF + 6:
+            case ZREF + 7:
+            case ZREF + 8:
+            case ZREF + 9: {
+              int no;
+              int len;
+
+              cleanup_zsubexpr();
+              no = op - ZREF;
+              final String match = re_extmatch_in.matches[no];
+              if (re_extmatch_in != null && match != null) {
+                len = match.length();
+                if (cstrncmp(new CharPointer(match), reginput, len) != 0) {
+                  status = RA_NOMATCH;
+                }
+                else {
+                  reginput.inc(len);
                 }
-                reg_restore(save);
-                scan = regnext(scan);
               }
-              while (scan != null && scan.OP() == BRANCH);
-
-              return false;
-              /* NOTREACHED */
+              else {
+                /* Backref was not set: Match an empty string. */
+              }
             }
-          }
-          break;
-
-          case BRACE_LIMITS: {
-            int no;
+            break;
 
-            if (next.OP() == BRACE_SIMPLE) {
-              bl_minval = scan.OPERAND_MIN();
-              bl_maxval = scan.OPERAND_MAX();
-            }
-            else if (next.OP() >= BRACE_COMPLEX
-                     && next.OP() < BRACE_COMPLEX + 10) {
-              no = next.OP() - BRACE_COMPLEX;
-              brace_min[no] = scan.OPERAND_MIN();
-              brace_max[no] = scan.OPERAND_MAX();
-              brace_count[no] = 0;
-            }
-            else {
-              VimPlugin.showMessage(MessageHelper.message(Msg.e_internal));
-              return false;
+            case BRANCH: {
+              if (OP(next) != BRANCH) /* No choice. */ {
+                next = OPERAND(scan);       /* Avoid recursion. */
+              }
+              else {
+                rp = regstack_push(RS_BRANCH, scan);
+                if (rp == null) {
+                  status = RA_FAIL;
+                }
+                else {
+                  status = RA_BREAK;      /* rest is below */
+                }
+              }
             }
-          }
-          break;
+            break;
 
-          case BRACE_COMPLEX:
-          case BRACE_COMPLEX + 1:
-          case BRACE_COMPLEX + 2:
-          case BRACE_COMPLEX + 3:
-          case BRACE_COMPLEX + 4:
-          case BRACE_COMPLEX + 5:
-          case BRACE_COMPLEX + 6:
-          case BRACE_COMPLEX + 7:
-          case BRACE_COMPLEX + 8:
-          case BRACE_COMPLEX + 9: {
-            int no;
-            regsave_T save = new regsave_T();
-
-            no = op - BRACE_COMPLEX;
-            ++brace_count[no];
-
-            /* If not matched enough times yet, try one more */
-            if (brace_count[no] <= (brace_min[no] <= brace_max[no]
-                                    ? brace_min[no] : brace_max[no])) {
-              reg_save(save);
-              if (regmatch(scan.OPERAND())) {
-                return true;
-              }
-              reg_restore(save);
-              --brace_count[no];  /* failed, decrement match count */
-              return false;
+            case BRACE_LIMITS: {
+              int no;
+
+              if (OP(next) == BRACE_SIMPLE) {
+                bl_minval = OPERAND_MIN(scan);
+                bl_maxval = OPERAND_MAX(scan);
+              }
+              else if (OP(next) >= BRACE_COMPLEX
+                       && OP(next) < BRACE_COMPLEX + 10) {
+                no = OP(next) - BRACE_COMPLEX;
+                brace_min[no] = OPERAND_MIN(scan);
+                brace_max[no] = OPERAND_MAX(scan);
+                brace_count[no] = 0;
+              }
+              else {
+                VimPlugin.showMessage(MessageHelper.message(Msg.e_internal));
+                status = RA_FAIL;
+              }
             }
+            break;
 
-            /* If matched enough times, may try matching some more */
-            if (brace_min[no] <= brace_max[no]) {
-              /* Range is the normal way around, use longest match */
-              if (brace_count[no] <= brace_max[no]) {
-                reg_save(save);
-                if (regmatch(scan.OPERAND())) {
-                  return true;        /* matched some more times */
+            case BRACE_COMPLEX:
+            case BRACE_COMPLEX + 1:
+            case BRACE_COMPLEX + 2:
+            case BRACE_COMPLEX + 3:
+            case BRACE_COMPLEX + 4:
+            case BRACE_COMPLEX + 5:
+            case BRACE_COMPLEX + 6:
+            case BRACE_COMPLEX + 7:
+            case BRACE_COMPLEX + 8:
+            case BRACE_COMPLEX + 9: {
+              int no;
+
+              no = op - BRACE_COMPLEX;
+              ++brace_count[no];
+
+              /* If not matched enough times yet, try one more */
+              if (brace_count[no] <= (brace_min[no] <= brace_max[no]
+                                      ? brace_min[no] : brace_max[no])) {
+                rp = regstack_push(RS_BRCPLX_MORE, scan);
+                if (rp == null) {
+                  status = RA_FAIL;
                 }
-                reg_restore(save);
-                --brace_count[no];  /* matched just enough times */
-                /* continue with the items after \{} */
+                else {
+                  rp.rs_no = no;
+                  reg_save(rp.rs_regsave);
+                  next = OPERAND(scan);
+                  /* We continue and handle the result when done. */
+                }
+                break;
               }
-            }
-            else {
-              /* Range is backwards, use shortest match first */
-              if (brace_count[no] <= brace_min[no]) {
-                reg_save(save);
-                if (regmatch(next)) {
-                  return true;
+
+              /* If matched enough times, may try matching some more */
+              if (brace_min[no] <= brace_max[no]) {
+                /* Range is the normal way around, use longest match */
+                if (brace_count[no] <= brace_max[no]) {
+                  rp = regstack_push(RS_BRCPLX_LONG, scan);
+                  if (rp == null) {
+                    status = RA_FAIL;
+                  }
+                  else {
+                    rp.rs_no = no;
+                    reg_save(rp.rs_regsave);
+                    next = OPERAND(scan);
+                    /* We continue and handle the result when done. */
+                  }
+                }
+              }
+              else {
+                /* Range is backwards, use shortest match first */
+                if (brace_count[no] <= brace_min[no]) {
+                  rp = regstack_push(RS_BRCPLX_SHORT, scan);
+                  if (rp == null) {
+                    status = RA_FAIL;
+                  }
+                  else {
+                    reg_save(rp.rs_regsave);
+                    /* We continue with "next" and handle the result when done. */
+                  }
                 }
-                reg_restore(save);
-                next = scan.OPERAND();
-                /* must try to match one more item */
               }
             }
-          }
-          break;
+            break;
 
-          case BRACE_SIMPLE:
-          case STAR:
-          case PLUS: {
-            char nextb;          /* next byte */
-            char nextb_ic;       /* next byte reverse case */
-            int count;
-            regsave_T save = new regsave_T();
-            int minval;
-            int maxval;
+            case BRACE_SIMPLE:
+            case STAR:
+            case PLUS: {
+              char nextb;          /* next byte */
+              char nextb_ic;       /* next byte reverse case */
+              int count;
+              int minval;
+              int maxval;
+
+              /*
+                               * Lookahead to avoid useless match attempts when we know
+                               * what character comes next.
+                               */
+              if (OP(next) == EXACTLY) {
+                nextb = regprogram[OPERAND(next)];
+                if (ireg_ic) {
+                  if (Character.isUpperCase(nextb)) {
+                    nextb_ic = Character.toLowerCase(nextb);
+                  }
+                  else {
+                    nextb_ic = Character.toUpperCase(nextb);
+                  }
+                }
+                else {
+                  nextb_ic = nextb;
+                }
+              }
+              else {
+                nextb = '\u0000';
+                nextb_ic = '\u0000';
+              }
+              if (op != BRACE_SIMPLE) {
+                minval = (op == STAR) ? 0 : 1;
+                maxval = MAX_LIMIT;
+              }
+              else {
+                minval = bl_minval;
+                maxval = bl_maxval;
+              }
 
-            /*
-                             * Lookahead to avoid useless match attempts when we know
-                             * what character comes next.
-                             */
-            if (next.OP() == EXACTLY) {
-              nextb = next.OPERAND().charAt();
-              if (ireg_ic) {
-                if (Character.isUpperCase(nextb)) {
-                  nextb_ic = Character.toLowerCase(nextb);
+              /*
+                               * When maxval > minval, try matching as much as possible, up
+                               * to maxval.  When maxval < minval, try matching at least the
+                               * minimal number (since the range is backwards, that's also
+                               * maxval!).
+                               */
+              count = regrepeat(OPERAND(scan), maxval);
+              if (got_int) {
+                status = RA_FAIL;
+              }
+              else if (minval <= maxval ? count >= minval : count >= maxval) {
+                /* It could match.  Prepare for trying to match what
+                 * follows.  The code is below.  Parameters are stored in
+                 * the regstack item. */
+                rp = regstack_push(minval <= maxval ? RS_STAR_LONG : RS_STAR_SHORT, scan);
+                if (rp == null) {
+                  status = RA_FAIL;
                 }
                 else {
-                  nextb_ic = Character.toUpperCase(nextb);
+                  rp.rs_nextb = nextb;
+                  rp.rs_nextb_ic = nextb_ic;
+                  rp.rs_count = count;
+                  rp.rs_minval = minval;
+                  rp.rs_maxval = maxval;
+                  status = RA_BREAK;      /* skip the restore bits */
+                }
+              }
+              else {
+                status = RA_NOMATCH;
+              }
+            }
+            break;
+
+            case NOMATCH:
+            case MATCH:
+            case SUBPAT:
+              rp = regstack_push(RS_NOMATCH, scan);
+              if (rp == null) {
+                status = RA_FAIL;
+              }
+              else {
+                rp.rs_no = op;
+                reg_save(rp.rs_regsave);
+                next = OPERAND(scan);
+                /* We continue and handle the result when done. */
+              }
+              break;
+
+            case BEHIND:
+            case NOBEHIND:
+              rp = regstack_push(RS_BEHIND1, scan);
+              if (rp == null) {
+                status = RA_FAIL;
+              }
+              else {
+                rp.rs_no = op;
+                reg_save(rp.rs_regsave);
+                /* First try if what follows matches.  If it does then we
+                 * check the behind match by looping. */
+              }
+              break;
+
+            case BHPOS:
+              if (reg_match == null) {
+                if (behind_pos.pos.col != reginput.pointer() - regline.pointer() ||
+                    behind_pos.pos.lnum != reglnum) {
+                  status = RA_NOMATCH;
                 }
               }
+              else if (behind_pos.ptr != reginput) {
+                status = RA_NOMATCH;
+              }
+              break;
+
+            case NEWL:
+              if (c != '\u0000' || reglnum == reg_maxline) {
+                status = RA_NOMATCH;
+              }
+              else {
+                reg_nextline();
+              }
+              break;
+
+            case END:
+              status = RA_MATCH;  /* Success! */
+              break;
+
+            default:
+              VimPlugin.showMessage(MessageHelper.message(Msg.e_re_corr));
+              status = RA_FAIL;
+              break;
+          }
+        }
+
+        /* If we can't continue sequentially, break the inner loop. */
+        if (status != RA_CONT) {
+          break;
+        }
+
+        /* Continue in inner loop, advance to next item. */
+        scan = next;
+      } /* end of inner loop */
+
+      /*
+       * If there is something on the regstack execute the code for the state.
+       * If the state is popped then loop and use the older state.
+       */
+      while (regstack_len > 0 && status != RA_FAIL) {
+        final int top = regstack_len;
+
+        rp = regstack.get(top - 1);
+        switch (rp.rs_state) {
+          case RS_MOPEN:
+            /* Pop the state.  Restore pointers when there is no match. */
+            if (status == RA_NOMATCH) {
+              restore_se(rp.rs_sesave, reg_startpos[rp.rs_no], reg_startp[rp.rs_no]);
+            }
+            scan = regstack_pop();
+            break;
+
+          case RS_ZOPEN:
+            /* Pop the state.  Restore pointers when there is no match. */
+            if (status == RA_NOMATCH) {
+              restore_se(rp.rs_sesave, reg_startzpos[rp.rs_no], reg_startzp[rp.rs_no]);
+            }
+            scan = regstack_pop();
+            break;
+
+          case RS_MCLOSE:
+            /* Pop the state.  Restore pointers when there is no match. */
+            if (status == RA_NOMATCH) {
+              restore_se(rp.rs_sesave, reg_endpos[rp.rs_no], reg_endp[rp.rs_no]);
+            }
+            scan = regstack_pop();
+            break;
+
+          case RS_ZCLOSE:
+            /* Pop the state.  Restore pointers when there is no match. */
+            if (status == RA_NOMATCH) {
+              restore_se(rp.rs_sesave, reg_endzpos[rp.rs_no], reg_endzp[rp.rs_no]);
+            }
+            scan = regstack_pop();
+            break;
+
+          case RS_BRANCH:
+            if (status == RA_MATCH) {
+              /* this branch matched, use it */
+              scan = regstack_pop();
+            }
+            else {
+              if (status != RA_BREAK) {
+                /* After a non-matching branch: try next one. */
+                reg_restore(rp.rs_regsave);
+                scan = rp.rs_scan;
+              }
+              if (scan == -1 || OP(scan) != BRANCH) {
+                /* no more branches, didn't find a match */
+                status = RA_NOMATCH;
+                scan = regstack_pop();
+              }
               else {
-                nextb_ic = nextb;
+                /* Prepare to try a branch. */
+                rp.rs_scan = regnext(scan);
+                reg_save(rp.rs_regsave);
+                scan = OPERAND(scan);
               }
             }
+            break;
+
+          case RS_BRCPLX_MORE:
+            /* Pop the state.  Restore pointers when there is no match. */
+            if (status == RA_NOMATCH) {
+              reg_restore(rp.rs_regsave);
+              --brace_count[rp.rs_no];        /* decrement match count */
+            }
+            scan = regstack_pop();
+            break;
+
+          case RS_BRCPLX_LONG:
+            /* Pop the state.  Restore pointers when there is no match. */
+            if (status == RA_NOMATCH) {
+              /* There was no match, but we did find enough matches. */
+              reg_restore(rp.rs_regsave);
+              --brace_count[rp.rs_no];
+              /* continue with the items after "\{}" */
+              status = RA_CONT;
+            }
+            scan = regstack_pop();
+            if (status == RA_CONT) {
+              scan = regnext(scan);
+            }
+            break;
+
+          case RS_BRCPLX_SHORT:
+            /* Pop the state.  Restore pointers when there is no match. */
+            if (status == RA_NOMATCH) {
+              /* There was no match, try to match one more item. */
+              reg_restore(rp.rs_regsave);
+              status = RA_CONT;
+            }
+            scan = regstack_pop();
+            if (status == RA_CONT) {
+              scan = OPERAND(scan);
+            }
+            break;
+
+          case RS_NOMATCH:
+            /* Pop the state.  If the operand matches for NOMATCH or
+             * doesn't match for MATCH/SUBPAT, we fail.  Otherwise backup,
+             * except for SUBPAT, and continue with the next item. */
+            if (status == (rp.rs_no == NOMATCH ? RA_MATCH : RA_NOMATCH)) {
+              status = RA_NOMATCH;
+            }
             else {
-              nextb = '\u0000';
-              nextb_ic = '\u0000';
+              status = RA_CONT;
+              if (rp.rs_no != SUBPAT)     /* zero-width */ {
+                reg_restore(rp.rs_regsave);
+              }
             }
-            if (op != BRACE_SIMPLE) {
-              minval = (op == STAR) ? 0 : 1;
-              maxval = MAX_LIMIT;
+            scan = regstack_pop();
+            if (status == RA_CONT) {
+              scan = regnext(scan);
+            }
+            break;
+
+          case RS_BEHIND1:
+            if (status == RA_NOMATCH) {
+              scan = regstack_pop();
             }
             else {
-              minval = bl_minval;
-              maxval = bl_maxval;
+              /* The stuff after BEHIND/NOBEHIND matches.  Now try if
+               * the behind part does (not) match before the current
+               * position in the input.  This must be done at every
+               * position in the input and checking if the match ends at
+               * the current position. */
+
+              /* save the position after the found match for next */
+              reg_save(rp.rs_save_after);
+
+              /* start looking for a match with operand at the current
+               * postion.  Go back one character until we find the
+               * result, hitting the start of the line or the previous
+               * line (for multi-line matching).
+               * Set behind_pos to where the match should end, BHPOS
+               * will match it.  Save the current value. */
+              rp.rs_save_behind = behind_pos;
+              behind_pos = new regsave_T(rp.rs_regsave);
+
+              rp.rs_state = RS_BEHIND2;
+
+              reg_restore(rp.rs_regsave);
+              scan = OPERAND(rp.rs_scan);
             }
+            break;
 
+          case RS_BEHIND2:
             /*
-                             * When maxval > minval, try matching as much as possible, up
-                             * to maxval.  When maxval < minval, try matching at least the
-                             * minimal number (since the range is backwards, that's also
-                             * maxval!).
-                             */
-            count = regrepeat(scan.OPERAND(), maxval);
-            if (got_int) {
-              return false;
+             * Looping for BEHIND / NOBEHIND match.
+             */
+            if (status == RA_MATCH && reg_save_equal(behind_pos)) {
+              /* found a match that ends where "next" started */
+              behind_pos = rp.rs_save_behind;
+              if (rp.rs_no == BEHIND) {
+                reg_restore(rp.rs_save_after);
+              }
+              else {
+                status = RA_NOMATCH;
+              }
+              scan = regstack_pop();
             }
-            if (minval <= maxval) {
-              /* Range is the normal way around, use longest match */
-              while (count >= minval) {
-                /* If it could match, try it. */
-                if (nextb == '\u0000' || reginput.charAt() == nextb ||
-                    reginput.charAt() == nextb_ic) {
-                  reg_save(save);
-                  if (regmatch(next)) {
-                    return true;
-                  }
-                  reg_restore(save);
-                }
-                /* Couldn't or didn't match -- back up one char. */
-                if (--count < minval) {
-                  break;
-                }
-                if (reginput.equals(regline)) {
-                  /* backup to last char of previous line */
-                  --reglnum;
-                  regline = reg_getline(reglnum);
-                  /* Just in case regrepeat() didn't count right. */
-                  if (regline == null) {
-                    return false;
+            else {
+              boolean advanced = true;
+
+              /*
+               * No match or a match that doesn't end where we want it: Go
+               * back one character.  May go to previous line once.
+               */
+              if (reg_match == null) {
+                if (rp.rs_regsave.pos.col == 0) {
+                  if (rp.rs_regsave.pos.lnum < behind_pos.pos.lnum ||
+                      reg_getline(--rp.rs_regsave.pos.lnum) == null) {
+                    advanced = false;
                   }
-                  reginput = regline.ref(regline.strlen());
-                  // fast_breakcheck(); - TOOD
-                  if (got_int || out_of_stack) {
-                    return false;
+                  else {
+                    reg_restore(rp.rs_regsave);
+                    rp.rs_regsave.pos.col = regline.strlen();
                   }
                 }
                 else {
-                  reginput.dec();
+                  --rp.rs_regsave.pos.col;
                 }
               }
-            }
-            else {
-              /* Range is backwards, use shortest match first.
-                                 * Careful: maxval and minval are exchanged! */
-              if (count < maxval) {
-                return false;
-              }
-              for (; ; ) {
-                /* If it could work, try it. */
-                if (nextb == '\u0000' || reginput.charAt() == nextb ||
-                    reginput.charAt() == nextb_ic) {
-                  reg_save(save);
-                  if (regmatch(next)) {
-                    return true;
-                  }
-                  reg_restore(save);
+              else {
+                if (rp.rs_regsave.ptr == regline) {
+                  advanced = false;
                 }
-                /* Couldn't or didn't match: try advancing one char. */
-                if (count == minval || regrepeat(scan.OPERAND(), 1) == 0) {
-                  break;
+                else {
+                  rp.rs_regsave.ptr.dec();
                 }
-                ++count;
-                if (got_int || out_of_stack) {
-                  return false;
+              }
+
+              if (advanced) {
+                /* Advanced, prepare for finding match again. */
+                reg_restore(rp.rs_regsave);
+                scan = OPERAND(rp.rs_scan);
+              }
+              else {
+                /* Can't advance.  For NOBEHIND that's a match. */
+                behind_pos = rp.rs_save_behind;
+                if (rp.rs_no == NOBEHIND) {
+                  reg_restore(rp.rs_save_after);
+                  status = RA_MATCH;
                 }
+                else {
+                  status = RA_NOMATCH;
+                }
+                scan = regstack_pop();
               }
             }
-            return false;
-          }
-          /* break; Not Reached */
-
-          case NOMATCH: {
-            regsave_T save = new regsave_T();
+            break;
 
-            /* If the operand matches, we fail.  Otherwise backup and
-                             * continue with the next item. */
-            reg_save(save);
-            if (regmatch(scan.OPERAND())) {
-              return false;
+          case RS_STAR_LONG:
+          case RS_STAR_SHORT:
+            if (status == RA_MATCH) {
+              scan = regstack_pop();
+              break;
             }
-            reg_restore(save);
-          }
-          break;
 
-          case MATCH:
-          case SUBPAT: {
-            regsave_T save = new regsave_T();
-
-            /* If the operand doesn't match, we fail.  Otherwise backup
-                             * and continue with the next item. */
-            reg_save(save);
-            if (!regmatch(scan.OPERAND())) {
-              return false;
+            /* Tried once already, restore input pointers. */
+            if (status != RA_BREAK) {
+              reg_restore(rp.rs_regsave);
             }
-            if (op == MATCH)            /* zero-width */ {
-              reg_restore(save);
-            }
-          }
-          break;
-
-          case BEHIND:
-          case NOBEHIND: {
-            regsave_T save_after = new regsave_T(), save_start = new regsave_T();
-            regsave_T save_behind_pos;
-            boolean needmatch = (op == BEHIND);
 
-            /*
-                             * Look back in the input of the operand matches or not. This
-                             * must be done at every position in the input and checking if
-                             * the match ends at the current position.
-                             * First check if the next item matches, that's probably
-                             * faster.
-                             */
-            reg_save(save_start);
-            if (regmatch(next)) {
-              /* save the position after the found match for next */
-              reg_save(save_after);
-
-              /* start looking for a match with operand at the current
-                                 * postion.  Go back one character until we find the
-                                 * result, hitting the start of the line or the previous
-                                 * line (for multi-line matching).
-                                 * Set behind_pos to where the match should end, BHPOS
-                                 * will match it. */
-              save_behind_pos = behind_pos == null ? null : new regsave_T(behind_pos);
-              behind_pos = new regsave_T(save_start);
-              while (true) {
-                reg_restore(save_start);
-                if (regmatch(scan.OPERAND()) && reg_save_equal(behind_pos)) {
-                  behind_pos = save_behind_pos;
-                  /* found a match that ends where "next" started */
-                  if (needmatch) {
-                    reg_restore(save_after);
-                    return true;
+            /* Repeat until we found a position where it could match. */
+            for (; ; ) {
+              if (status != RA_BREAK) {
+                /* Tried first position already, advance. */
+                if (rp.rs_state == RS_STAR_LONG) {
+                  /* Trying for longest match, but couldn't or didn't
+                   * match -- back up one char. */
+                  if (--rp.rs_count < rp.rs_minval) {
+                    break;
                   }
-                  return false;
-                }
-                /*
-                                     * No match: Go back one character.  May go to
-                                     * previous line once.
-                                     */
-                if (reg_match == null) {
-                  if (save_start.pos.col == 0) {
-                    if (save_start.pos.lnum < behind_pos.pos.lnum ||
-                        reg_getline(--save_start.pos.lnum) == null) {
+                  if (reginput.equals(regline)) {
+                    /* backup to last char of previous line */
+                    --reglnum;
+                    if (reg_getline(reglnum, regline) == null) {
+                      /* Just in case regrepeat() didn't count right. */
                       break;
                     }
-                    reg_restore(save_start);
-                    save_start.pos.col = regline.strlen();
+                    reg_setinput(regline.strlen());
+                    fast_breakcheck();
                   }
                   else {
-                    --save_start.pos.col;
+                    reginput.dec();
                   }
                 }
                 else {
-                  if (save_start.ptr == regline) {
+                  /* Range is backwards, use shortest match first.
+                   * Careful: maxval and minval are exchanged!
+                   * Couldn't or didn't match: try advancing one
+                   * char. */
+                  if (rp.rs_count == rp.rs_minval || regrepeat(OPERAND(rp.rs_scan), 1) == 0) {
                     break;
                   }
-                  save_start.ptr.dec();
+                  ++rp.rs_count;
+                }
+                fast_breakcheck();
+                if (got_int || out_of_stack) {
+                  break;
                 }
               }
-
-              /* NOBEHIND succeeds when no match was found */
-              behind_pos = save_behind_pos;
-              if (!needmatch) {
-                reg_restore(save_after);
-                return true;
+              else {
+                status = RA_NOMATCH;
               }
-            }
-            return false;
-          }
 
-          case BHPOS:
-            if (reg_match == null) {
-              if (behind_pos.pos.col != reginput.pointer() - regline.pointer() ||
-                  behind_pos.pos.lnum != reglnum) {
-                return false;
+              /* If it could match, try it. */
+              if (rp.rs_nextb == '\u0000' || reginput.charAt() == rp.rs_nextb ||
+                  reginput.charAt() == rp.rs_nextb_ic) {
+                reg_save(rp.rs_regsave);
+                scan = regnext(rp.rs_scan);
+                status = RA_CONT;
+                break;
               }
             }
-            else if (behind_pos.ptr != reginput) {
-              return false;
+            if (status != RA_CONT) {
+              /* Failed. */
+              scan = regstack_pop();
+              status = RA_NOMATCH;
             }
             break;
+        }
 
-          case NEWL:
-            if (c != '\u0000' || reglnum == reg_maxline) {
-              return false;
-            }
-            reg_nextline();
-            break;
+        /* If we want to continue the inner loop or didn't pop a state
+         * continue matching loop */
+        if (status == RA_CONT || regstack_len == top) {
+          break;
+        }
+      }
 
-          case END:
-            return true;        /* Success! */
+      /* May need to continue with the inner loop, starting at "scan". */
+      if (status == RA_CONT) {
+        continue;
+      }
 
-          default:
-            VimPlugin.showMessage(MessageHelper.message(Msg.e_re_corr));
-            return false;
-        }
+      /*
+       * If the regstack is empty or something failed we are done.
+       */
+      if (regstack_len == 0 || status == RA_FAIL) {
+        return status == RA_MATCH;
       }
+    } /* End of loop until the regstack is empty. */
+  }
 
-      scan = next;
+  /*
+   * Push an item onto the regstack.  Items are reused, only the fields that
+   * belong to the state are set by the caller.
+   * Returns null and sets out_of_stack when the regstack would use more
+   * memory than 'maxmempattern' allows.
+   */
+  @Nullable
+  private regitem_T regstack_push(int state, int scan) {
+    if (regstack_len >= regstack_maxlen) {
+      out_of_stack = true;
+      return null;
+    }
+    if (regstack_len == regstack.size()) {
+      regstack.add(new regitem_T());
     }
 
-    /*
-         * We get here only if there's trouble -- normally "case END" is the
-         * terminating point.
-         */
-    VimPlugin.showMessage(MessageHelper.message(Msg.e_re_corr));
-    return false;
+    final regitem_T rp = regstack.get(regstack_len++);
+    rp.rs_state = state;
+    rp.rs_scan = scan;
+    return rp;
+  }
+
+  /*
+   * Pop an item from the regstack.
+   * Returns the node that was saved in the item.
+   */
+  private int regstack_pop() {
+    return regstack.get(--regstack_len).rs_scan;
   }
 
   /*
      * regrepeat - repeatedly match something simple, return how many.
      * Advances reginput (and reglnum) to just after the matched chars.
      */
-  private int regrepeat(@NotNull CharPointer p, int maxcount) {
+  private int regrepeat(int p, int maxcount) {
     int count = 0;
     CharPointer scan;
-    CharPointer opnd;
+    int opnd;
     int mask = 0;
     int testval = 0;
 
-    scan = reginput.ref(0);        /* Make local copy of reginput for speed. */
-    opnd = p.OPERAND();
-    switch (p.OP()) {
+    scan = reginput;        /* Make local copy of reginput for speed. */
+    opnd = OPERAND(p);
+    switch (OP(p)) {
       case ANY:
       case ANY + ADD_NL:
         while (count < maxcount) {
@@ -3263,12 +4047,12 @@ public class RegExp {
             ++count;
             scan.inc();
           }
-          if (!WITH_NL(p.OP()) || reglnum == reg_maxline || count == maxcount) {
+          if (!WITH_NL(OP(p)) || reglnum == reg_maxline || count == maxcount) {
             break;
           }
           ++count;            /* count the line-break */
           reg_nextline();
-          scan = reginput.ref(0);
+          scan = reginput;
           if (got_int) {
             break;
           }
@@ -3282,20 +4066,21 @@ public class RegExp {
       case SIDENT:
       case SIDENT + ADD_NL:
         while (count < maxcount) {
-          if (Character.isJavaIdentifierPart(scan.charAt()) &&
-              (testval == 1 || !Character.isDigit(scan.charAt()))) {
-            scan.inc();
-          }
-          else if (scan.isNul()) {
-            if (!WITH_NL(p.OP()) || reglnum == reg_maxline) {
+          /* The NUL at the end of the line is an identifier character for Java, check it first */
+          if (scan.isNul()) {
+            if (!WITH_NL(OP(p)) || reglnum == reg_maxline) {
               break;
             }
             reg_nextline();
-            scan = reginput.ref(0);
+            scan = reginput;
             if (got_int) {
               break;
             }
           }
+          else if (Character.isJavaIdentifierPart(scan.charAt()) &&
+                   (testval == 1 || !Character.isDigit(scan.charAt()))) {
+            scan.inc();
+          }
           else {
             break;
           }
@@ -3314,11 +4099,11 @@ public class RegExp {
             scan.inc();
           }
           else if (scan.isNul()) {
-            if (!WITH_NL(p.OP()) || reglnum == reg_maxline) {
+            if (!WITH_NL(OP(p)) || reglnum == reg_maxline) {
               break;
             }
             reg_nextline();
-            scan = reginput.ref(0);
+            scan = reginput;
             if (got_int) {
               break;
             }
@@ -3341,11 +4126,11 @@ public class RegExp {
             scan.inc();
           }
           else if (scan.isNul()) {
-            if (!WITH_NL(p.OP()) || reglnum == reg_maxline) {
+            if (!WITH_NL(OP(p)) || reglnum == reg_maxline) {
               break;
             }
             reg_nextline();
-            scan = reginput.ref(0);
+            scan = reginput;
             if (got_int) {
               break;
             }
@@ -3365,11 +4150,11 @@ public class RegExp {
       case SPRINT + ADD_NL:
         while (count < maxcount) {
           if (scan.isNul()) {
-            if (!WITH_NL(p.OP()) || reglnum == reg_maxline) {
+            if (!WITH_NL(OP(p)) || reglnum == reg_maxline) {
               break;
             }
             reg_nextline();
-            scan = reginput.ref(0);
+            scan = reginput;
             if (got_int) {
               break;
             }
@@ -3464,92 +4249,1280 @@ public class RegExp {
         /* This doesn't do a multi-byte character, because a MULTIBYTECODE
                      * would have been used for it. */
         if (ireg_ic) {
-          cu = Character.toUpperCase(opnd.charAt());
-          cl = Character.toLowerCase(opnd.charAt());
+          cu = Character.toUpperCase(regprogram[opnd]);
+          cl = Character.toLowerCase(regprogram[opnd]);
           while (count < maxcount && (scan.charAt() == cu || scan.charAt() == cl)) {
             count++;
             scan.inc();
           }
         }
         else {
-          cu = opnd.charAt();
+          cu = regprogram[opnd];
           while (count < maxcount && scan.charAt() == cu) {
             count++;
             scan.inc();
           }
-        }
-        break;
-      }
+        }
+        break;
+      }
+
+      case ANYOF:
+      case ANYOF + ADD_NL:
+        testval = 1;
+        /*FALLTHROUGH*/
+
+      case ANYBUT:
+      case ANYBUT + ADD_NL:
+        while (count < maxcount) {
+          if (scan.isNul()) {
+            if (!WITH_NL(OP(p)) || reglnum == reg_maxline) {
+              break;
+            }
+            reg_nextline();
+            scan = reginput;
+            if (got_int) {
+              break;
+            }
+          }
+          else {
+            if (regstrchr(opnd, scan.charAt()) != (testval == 1)) {
+              break;
+            }
+            scan.inc();
+          }
+          ++count;
+        }
+        break;
+
+      case NEWL:
+        while (count < maxcount && scan.isNul() && reglnum < reg_maxline) {
+          count++;
+          reg_nextline();
+          scan = reginput;
+          if (got_int) {
+            break;
+          }
+        }
+        break;
+
+      default:                  /* Oh dear.  Called inappropriately. */
+        VimPlugin.showMessage(MessageHelper.message(Msg.e_re_corr));
+        break;
+    }
+
+    if (mask != 0) {
+      while (count < maxcount) {
+        if (scan.isNul()) {
+          if (!WITH_NL(OP(p)) || reglnum == reg_maxline) {
+            break;
+          }
+          reg_nextline();
+          scan = reginput;
+          if (got_int) {
+            break;
+          }
+        }
+        else if (CharacterClasses.isMask(scan.charAt(), mask, testval)) {
+          scan.inc();
+        }
+        else {
+          break;
+        }
+        ++count;
+      }
+    }
+
+    reginput = scan;
+
+    return count;
+  }
+
+  /*
+     * NFA engine.
+     *
+     * The NFA is built from the program vim_regcomp() produced, every node becomes one or more states.  It is run like
+     * a Pike VM: all threads advance over the input together, one character at a time, and a thread is dropped when a
+     * thread with a higher priority is already in the same state.  That takes at most O(text length * number of
+     * states) steps and never backtracks.  Threads are kept in the order the backtracking engine would try them, so
+     * the first match found is the same match regmatch() finds.
+     *
+     * Programs with back-references, look-around, \z(\) and \{} on something that isn't a single character can't be
+     * run this way, nfa_regcomp() returns null for them and regmatch() is used.
+     */
+
+  /*
+     * Build the NFA for "prog".
+     * Returns null when the program contains an item the NFA engine doesn't support.
+     */
+  @Nullable
+  private nfa_regprog_T nfa_regcomp(@NotNull regprog_T prog) {
+    final nfa_regprog_T nfa = new nfa_regprog_T();
+    /* State of each node, NFA_PENDING while the node still has to be built */
+    final int[] nodestate = new int[prog.program.length];
+    final int[] todo = new int[prog.program.length];
+    int todolen = 0;
+
+    regprogram = prog.program;
+    Arrays.fill(nodestate, NFA_NONE);
+
+    /* Links to nodes are stored as "NFA_LINK - node" until all the nodes they point to are built. */
+    nodestate[1] = NFA_PENDING;
+    todo[todolen++] = 1;
+    while (todolen > 0) {
+      final int node = todo[--todolen];
+      final int first = nfa.nstate;
+      if (!nfa_node(nfa, node)) {
+        return null;
+      }
+      nodestate[node] = first;
+      for (int i = first; i < nfa.nstate; i++) {
+        for (int j = 0; j < 2; j++) {
+          final int link = j == 0 ? nfa.out[i] : nfa.out1[i];
+          if (link <= NFA_LINK && nodestate[NFA_LINK - link] == NFA_NONE) {
+            nodestate[NFA_LINK - link] = NFA_PENDING;
+            todo[todolen++] = NFA_LINK - link;
+          }
+        }
+      }
+    }
+
+    for (int i = 0; i < nfa.nstate; i++) {
+      if (nfa.out[i] <= NFA_LINK) {
+        nfa.out[i] = nodestate[NFA_LINK - nfa.out[i]];
+      }
+      if (nfa.out1[i] <= NFA_LINK) {
+        nfa.out1[i] = nodestate[NFA_LINK - nfa.out1[i]];
+      }
+    }
+    nfa.start = nodestate[1];
+
+    return nfa;
+  }
+
+  /*
+     * Add the states for one node of the program to "nfa".  The first state added is where the node starts.
+     * Returns false when the node can't be handled by the NFA engine.
+     */
+  private boolean nfa_node(@NotNull nfa_regprog_T nfa, int node) {
+    final int op = OP(node);
+    final int next = regnext(node);
+
+    switch (op) {
+      case END:
+        nfa.add(END, 0, NFA_NONE, NFA_NONE);
+        return true;
+
+      case BOL:
+      case EOL:
+      case RE_BOF:
+      case RE_EOF:
+      case CURSOR:
+      case BOW:
+      case EOW:
+      case NEWL:
+      case MOPEN:
+      case MOPEN + 1:
+      case MOPEN + 2:
+      case MOPEN + 3:
+      case MOPEN + 4:
+      case MOPEN + 5:
+      case MOPEN + 6:
+      case MOPEN + 7:
+      case MOPEN + 8:
+      case MOPEN + 9:
+      case MCLOSE:
+      case MCLOSE + 1:
+      case MCLOSE + 2:
+      case MCLOSE + 3:
+      case MCLOSE + 4:
+      case MCLOSE + 5:
+      case MCLOSE + 6:
+      case MCLOSE + 7:
+      case MCLOSE + 8:
+      case MCLOSE + 9:
+        nfa.add(op, 0, nfa_link(next), NFA_NONE);
+        return true;
+
+      case RE_LNUM:
+      case RE_COL:
+        nfa.add(op, node, nfa_link(next), NFA_NONE);
+        return true;
+
+      case RE_VCOL:             /* not supported by regmatch() either, always matches */
+      case NOTHING:
+      case BACK:
+      case NOPEN:
+      case NCLOSE:
+        nfa.add(NOTHING, 0, nfa_link(next), NFA_NONE);
+        return true;
+
+      case EXACTLY: {
+        final int opnd = OPERAND(node);
+        final int len = regstrlen(opnd);
+
+        /* The first character is compared like regmatch() does it, the others like cstrncmp() */
+        for (int i = 0; i < len; i++) {
+          nfa.add(i == 0 ? NFA_CHAR : NFA_CHAR_STR, regprogram[opnd + i], i < len - 1 ? nfa.nstate + 1 : nfa_link(next),
+                  NFA_NONE);
+        }
+        if (len == 0) {
+          nfa.add(NOTHING, 0, nfa_link(next), NFA_NONE);
+        }
+        return true;
+      }
+
+      case BRANCH:
+        if (OP(next) != BRANCH) /* No choice. */ {
+          nfa.add(NOTHING, 0, nfa_link(OPERAND(node)), NFA_NONE);
+        }
+        else {
+          nfa.add(NFA_SPLIT, 0, nfa_link(OPERAND(node)), nfa_link(next));
+        }
+        return true;
+
+      case STAR:
+      case PLUS:
+        return nfa_repeat(nfa, OPERAND(node), op == STAR ? 0 : 1, MAX_LIMIT, next);
+
+      case BRACE_LIMITS:
+        /* Only BRACE_SIMPLE, BRACE_COMPLEX needs a counter */
+        if (OP(next) != BRACE_SIMPLE) {
+          return false;
+        }
+        return nfa_repeat(nfa, OPERAND(next), OPERAND_MIN(node), OPERAND_MAX(node), regnext(next));
+
+      default:
+        if (nfa_is_class(op)) {
+          nfa.add(op, OPERAND(node), nfa_link(next), NFA_NONE);
+          return true;
+        }
+        /* BACKREF, ZREF, ZOPEN, ZCLOSE, MATCH, NOMATCH, SUBPAT, BEHIND, NOBEHIND, BRACE_COMPLEX */
+        return false;
+    }
+  }
+
+  /*
+     * Add the states for a simple "operand" repeated between "minval" and "maxval" times, followed by "next".
+     * When "minval" is larger than "maxval" the shortest match is tried first, like in regmatch().
+     * Returns false when the operand is not supported or the counts are too large.
+     */
+  private boolean nfa_repeat(@NotNull nfa_regprog_T nfa, int operand, int minval, int maxval, int next) {
+    final boolean longest = minval <= maxval;
+    final int lo = longest ? minval : maxval;
+    final int hi = longest ? maxval : minval;
+    final int op;
+    final int arg;
+
+    if (OP(operand) == EXACTLY) {
+      if (regstrlen(OPERAND(operand)) != 1) {
+        return false;
+      }
+      op = NFA_CHAR_REP;
+      arg = regprogram[OPERAND(operand)];
+    }
+    else if (nfa_is_class(OP(operand)) || OP(operand) == NEWL) {
+      op = OP(operand);
+      arg = OPERAND(operand);
+    }
+    else {
+      return false;
+    }
+    if (lo > NFA_MAX_REPEAT || (hi != MAX_LIMIT && hi - lo > NFA_MAX_REPEAT)) {
+      return false;
+    }
+
+    /* "lo" times the operand, then a loop or "hi - lo" optional operands, then an empty state to continue with "next" */
+    final int end = nfa.nstate + lo + (hi == MAX_LIMIT ? 2 : 2 * (hi - lo));
+    for (int i = 0; i < lo; i++) {
+      nfa.add(op, arg, nfa.nstate + 1, NFA_NONE);
+    }
+    if (hi == MAX_LIMIT) {
+      final int split = nfa.nstate;
+      nfa.add(NFA_SPLIT, 0, longest ? split + 1 : end, longest ? end : split + 1);
+      nfa.add(op, arg, split, NFA_NONE);
+    }
+    else {
+      for (int i = lo; i < hi; i++) {
+        final int split = nfa.nstate;
+        nfa.add(NFA_SPLIT, 0, longest ? split + 1 : end, longest ? end : split + 1);
+        nfa.add(op, arg, split + 2, NFA_NONE);
+      }
+    }
+    nfa.add(NOTHING, 0, nfa_link(next), NFA_NONE);
+
+    return true;
+  }
+
+  private static int nfa_link(int node) {
+    return node == -1 ? NFA_NONE : NFA_LINK - node;
+  }
+
+  /*
+     * Whether "op" matches one character from a class, possibly with a line break added.
+     */
+  private static boolean nfa_is_class(int op) {
+    return (op >= ANY && op <= NUPPER) || WITH_NL(op);
+  }
+
+  /*
+     * Try to find a match with the NFA for "prog", starting in the first line at column "col".
+     * This does what the unanchored loop in vim_regexec_both() and regtry() do for the backtracking engine.
+     * Returns 0 for failure, number of lines contained in the match otherwise.
+     */
+  private int nfa_regexec_both(@NotNull regprog_T prog, @NotNull nfa_regprog_T nfa, int col) {
+    final int nsub = 4 * nfa.nsub;
+    nfa_list_T clist = nfa_list(0, nfa.nstate, nsub);
+    nfa_list_T nlist = nfa_list(1, nfa.nstate, nsub);
+    boolean matched = false;
+    int matchstart = 0;
+    int matchlnum = 0;
+    int matchcol = 0;
+    boolean seeded = false;
+
+    if (nfa_listids == null || nfa_listids.length < nfa.nstate) {
+      nfa_listids = new int[nfa.nstate];
+    }
+    Arrays.fill(nfa_listids, 0, nfa.nstate, 0);
+    nfa_listid = 0;
+
+    if (nfa_matchsub == null || nfa_matchsub.length < nsub) {
+      nfa_matchsub = new int[nsub];
+    }
+
+    regprogram = prog.program;
+    regclass = prog.regclass[ireg_ic ? 1 : 0];
+    regline = reg_getline(0, regline);
+    reglnum = 0;
+    clist.n = 0;
+    clist.id = ++nfa_listid;
+
+    for (; ; ) {
+      fast_breakcheck();
+      if (got_int || out_of_stack) {
+        return 0;
+      }
+
+      /*
+             * Start a new thread at this position, with the lowest priority.  Matches must start in the first line,
+             * an anchored match is only tried at the start column.
+             */
+      if (!matched && reglnum == 0 && (prog.reganch == 0 || !seeded)) {
+        if (clist.n == 0 && prog.reganch == 0 && prog.regstart != '\u0000') {
+          /* Skip until the char we know it must start with. */
+          col = regline.indexOf(prog.regstart, col, ireg_ic);
+          if (col == -1) {
+            return 0;
+          }
+        }
+        nfa_col = col;
+        nfa_addstate(nfa, clist, nfa.start, NFA_NOSUB, 0, col);
+        seeded = true;
+      }
+      final char c = regline.charAt(col);
+      if (clist.n == 0) {
+        /* No thread is left, only a thread started further on in the first line can match. */
+        if (matched || reglnum != 0 || prog.reganch != 0 || c == '\u0000') {
+          break;
+        }
+        col++;
+        clist.id = ++nfa_listid;
+        continue;
+      }
+
+      final boolean newline = c == '\u0000';
+      if (newline && reglnum == reg_maxline) {
+        /* At the end of the last line, only a match is possible. */
+        for (int i = 0; i < clist.n; i++) {
+          if (nfa.op[clist.state[i]] == END) {
+            System.arraycopy(clist.sub, i * nsub, nfa_matchsub, 0, nsub);
+            matched = true;
+            matchstart = clist.start[i];
+            matchlnum = reglnum;
+            matchcol = col;
+            break;
+          }
+        }
+        break;
+      }
+
+      /* Move to the next position, the states after a character are added for that position. */
+      if (newline) {
+        reg_nextline();
+        nfa_col = 0;
+      }
+      else {
+        nfa_col = col + 1;
+      }
+      nlist.n = 0;
+      nlist.id = ++nfa_listid;
+      for (int i = 0; i < clist.n; i++) {
+        final int state = clist.state[i];
+        final int op = nfa.op[state];
+        if (op == END) {
+          /* Found a match.  Threads with a lower priority can't give a better one. */
+          System.arraycopy(clist.sub, i * nsub, nfa_matchsub, 0, nsub);
+          matched = true;
+          matchstart = clist.start[i];
+          matchlnum = newline ? reglnum - 1 : reglnum;
+          matchcol = col;
+          break;
+        }
+        if (newline ? op == NEWL || (WITH_NL(op)) : op != NEWL && nfa_char_matches(op, nfa.arg[state], c)) {
+          nfa_addstate(nfa, nlist, nfa.out[state], clist.sub, i * nsub, clist.start[i]);
+        }
+      }
+
+      final nfa_list_T list = clist;
+      clist = nlist;
+      nlist = list;
+      col = nfa_col;
+    }
+
+    if (!matched) {
+      return 0;
+    }
+
+    /* Set the submatches like regtry() does. */
+    for (int i = 0; i < NSUBEXP; i++) {
+      final boolean set = i < nfa.nsub;
+      reg_startpos[i].lnum = set ? nfa_matchsub[4 * i] : -1;
+      reg_startpos[i].col = set ? nfa_matchsub[4 * i + 1] : -1;
+      reg_endpos[i].lnum = set ? nfa_matchsub[4 * i + 2] : -1;
+      reg_endpos[i].col = set ? nfa_matchsub[4 * i + 3] : -1;
+    }
+    if (reg_startpos[0].lnum < 0) {
+      reg_startpos[0].lnum = 0;
+      reg_startpos[0].col = matchstart;
+    }
+    if (reg_endpos[0].lnum < 0) {
+      reg_endpos[0].lnum = matchlnum;
+      reg_endpos[0].col = matchcol;
+    }
+    re_extmatch_out = null;
+
+    return 1 + matchlnum;
+  }
+
+  /*
+     * Add "state" to "list" with the states that can be reached from it without consuming a character.
+     * The thread's submatches are copied from "sub" at "subidx".
+     * "nfa_col", "reglnum" and "regline" are the position the states are added for.
+     */
+  private void nfa_addstate(@NotNull nfa_regprog_T nfa, @NotNull nfa_list_T list, int state, @NotNull int[] sub,
+                            int subidx, int start) {
+    final int nsub = 4 * nfa.nsub;
+    int sp = 0;
+
+    /*
+         * Every state is pushed at most once for each link to it.  Each item on the stack has its own copy of the
+         * submatches, only a split has to copy them.
+         */
+    final int size = 2 * nfa.nstate + 1;
+    if (nfa_stack_state == null || nfa_stack_state.length < size || nfa_stack_sub.length < size * nsub) {
+      nfa_stack_state = new int[size];
+      nfa_stack_sub = new int[size * nsub];
+    }
+
+    nfa_stack_state[sp++] = state;
+    System.arraycopy(sub, subidx, nfa_stack_sub, 0, nsub);
+    while (sp > 0) {
+      state = nfa_stack_state[--sp];
+      if (state == NFA_NONE || nfa_listids[state] == list.id) {
+        continue;
+      }
+      nfa_listids[state] = list.id;
+
+      /* The next state uses the same item of the stack, so it keeps the submatches */
+      final int op = nfa.op[state];
+      final int out = nfa.out[state];
+      switch (op) {
+        case NFA_SPLIT:
+          /* Push the second choice first, it is tried after the first one. */
+          nfa_stack_state[sp++] = nfa.out1[state];
+          System.arraycopy(nfa_stack_sub, (sp - 1) * nsub, nfa_stack_sub, sp * nsub, nsub);
+          nfa_stack_state[sp++] = out;
+          break;
+
+        case NOTHING:
+          nfa_stack_state[sp++] = out;
+          break;
+
+        case MOPEN:
+        case MOPEN + 1:
+        case MOPEN + 2:
+        case MOPEN + 3:
+        case MOPEN + 4:
+        case MOPEN + 5:
+        case MOPEN + 6:
+        case MOPEN + 7:
+        case MOPEN + 8:
+        case MOPEN + 9:
+        case MCLOSE:
+        case MCLOSE + 1:
+        case MCLOSE + 2:
+        case MCLOSE + 3:
+        case MCLOSE + 4:
+        case MCLOSE + 5:
+        case MCLOSE + 6:
+        case MCLOSE + 7:
+        case MCLOSE + 8:
+        case MCLOSE + 9: {
+          final int i = sp * nsub + (op < MCLOSE ? 4 * (op - MOPEN) : 4 * (op - MCLOSE) + 2);
+          nfa_stack_sub[i] = reglnum;
+          nfa_stack_sub[i + 1] = nfa_col;
+          nfa_stack_state[sp++] = out;
+          break;
+        }
+
+        case BOL:
+        case EOL:
+        case RE_BOF:
+        case RE_EOF:
+        case CURSOR:
+        case BOW:
+        case EOW:
+        case RE_LNUM:
+        case RE_COL:
+          if (nfa_check(op, nfa.arg[state])) {
+            nfa_stack_state[sp++] = out;
+          }
+          break;
+
+        default:
+          /* A state that consumes a character, or END */
+          list.state[list.n] = state;
+          System.arraycopy(nfa_stack_sub, sp * nsub, list.sub, list.n * nsub, nsub);
+          list.start[list.n++] = start;
+          break;
+      }
+    }
+  }
+
+  /*
+     * Check a zero-width item at the current position, like regmatch() does.
+     */
+  private boolean nfa_check(int op, int arg) {
+    final char c = regline.charAt(nfa_col);
+
+    switch (op) {
+      case BOL:
+        return nfa_col == 0;
+
+      case EOL:
+        return c == '\u0000';
+
+      case RE_BOF:
+        return reglnum == 0 && nfa_col == 0 && reg_getline(-1) == null;
+
+      case RE_EOF:
+        return reglnum == reg_maxline && c == '\u0000';
+
+      case CURSOR: {
+        if (reg_win == null) {
+          return false;
+        }
+        final LogicalPosition curpos = reg_win.getCaretModel().getLogicalPosition();
+        return reglnum + reg_firstlnum == curpos.line && nfa_col == curpos.column;
+      }
+
+      case RE_LNUM:
+        return re_num_cmp(reglnum + reg_firstlnum, arg);
+
+      case RE_COL:
+        return re_num_cmp(nfa_col + 1, arg);
+
+      case BOW:     /* \<word; reginput points to w */
+        return c != '\u0000' && vim_iswordc(c) && (nfa_col == 0 || !vim_iswordc(regline.charAt(nfa_col - 1)));
+
+      case EOW:     /* word\>; reginput points after d */
+        return nfa_col > 0 && vim_iswordc(regline.charAt(nfa_col - 1)) && (c == '\u0000' || !vim_iswordc(c));
+
+      default:
+        return false;
+    }
+  }
+
+  /*
+     * Whether character "c", which is not a NUL, matches a consuming state, like regmatch() and regrepeat() check it.
+     */
+  private boolean nfa_char_matches(int op, int arg, char c) {
+    if (WITH_NL(op)) {
+      op -= ADD_NL;
+    }
+    switch (op) {
+      case NFA_CHAR:
+        return arg == c || (ireg_ic && Character.toLowerCase((char)arg) == Character.toLowerCase(c));
+      case NFA_CHAR_STR:
+        return arg == c || (ireg_ic && (Character.toLowerCase((char)arg) == Character.toLowerCase(c) ||
+                                        Character.toUpperCase((char)arg) == Character.toUpperCase(c)));
+      case NFA_CHAR_REP:
+        return ireg_ic ? c == Character.toUpperCase((char)arg) || c == Character.toLowerCase((char)arg) : c == arg;
+      case ANY:
+        return true;
+      case ANYOF:
+        return regstrchr(arg, c);
+      case ANYBUT:
+        return !regstrchr(arg, c);
+      case IDENT:
+        return Character.isJavaIdentifierPart(c);
+      case SIDENT:
+        return !CharacterClasses.isDigit(c) && Character.isJavaIdentifierPart(c);
+      case KWORD:
+        return CharacterClasses.isWord(c);
+      case SKWORD:
+        return !CharacterClasses.isDigit(c) && CharacterClasses.isWord(c);
+      case FNAME:
+        return CharacterClasses.isFile(c);
+      case SFNAME:
+        return !CharacterClasses.isDigit(c) && CharacterClasses.isFile(c);
+      case PRINT:
+        return CharacterClasses.isPrint(c);
+      case SPRINT:
+        return !CharacterClasses.isDigit(c) && CharacterClasses.isPrint(c);
+      case WHITE:
+        return CharacterClasses.isWhite(c);
+      case NWHITE:
+        return !CharacterClasses.isWhite(c);
+      case DIGIT:
+        return CharacterClasses.isDigit(c);
+      case NDIGIT:
+        return !CharacterClasses.isDigit(c);
+      case HEX:
+        return CharacterClasses.isHex(c);
+      case NHEX:
+        return !CharacterClasses.isHex(c);
+      case OCTAL:
+        return CharacterClasses.isOctal(c);
+      case NOCTAL:
+        return !CharacterClasses.isOctal(c);
+      case WORD:
+        return CharacterClasses.isWord(c);
+      case NWORD:
+        return !CharacterClasses.isWord(c);
+      case HEAD:
+        return CharacterClasses.isHead(c);
+      case NHEAD:
+        return !CharacterClasses.isHead(c);
+      case ALPHA:
+        return CharacterClasses.isAlpha(c);
+      case NALPHA:
+        return !CharacterClasses.isAlpha(c);
+      case LOWER:
+        return CharacterClasses.isLower(c);
+      case NLOWER:
+        return !CharacterClasses.isLower(c);
+      case UPPER:
+        return CharacterClasses.isUpper(c);
+      case NUPPER:
+        return !CharacterClasses.isUpper(c);
+      default:
+        return false;
+    }
+  }
+
+  @NotNull
+  private nfa_list_T nfa_list(int i, int nstate, int nsub) {
+    if (nfa_lists[i] == null || nfa_lists[i].state.length < nstate || nfa_lists[i].sub.length < nstate * nsub) {
+      nfa_lists[i] = new nfa_list_T(nstate, nsub);
+    }
+    return nfa_lists[i];
+  }
+
+  /*
+     * java.util.regex engine.
+     *
+     * Programs that only use items with the same meaning in java.util.regex are translated to a Pattern, which the
+     * JIT compiles a lot better than the loops of regmatch().  The automatic engine uses it for every program it can
+     * be translated for.  The match is the one regmatch() finds: both try the alternatives and repeat counts in the
+     * same order.
+     *
+     * Whether a character matches is decided like nfa_char_matches() does it, classes that depend on 'ignorecase' are
+     * expanded to the characters they match.  The translated pattern is matched against jre_text, the document text
+     * where one char is one character, and the Pattern never matches a line break or NUL.
+     *
+     * Not translated: \zs, \ze, \%V and the other position items, \n and \_x, back-references, look-around, \z(\),
+     * "~", non-greedy \{-} and repeating anything that isn't a single character.  Neither are two repeats that can
+     * follow each other without a character in between, like "a*a*b".  Java backtracks over them the same way
+     * regmatch() does, while the NFA engine matches these in linear time.
+     */
+
+  /*
+     * Get the java.util.regex pattern to execute "prog" with, null when it can't be translated or another engine was
+     * selected.  The pattern depends on "ireg_ic", so one is kept for each value.
+     */
+  @Nullable
+  private Pattern jre_getprog(@NotNull regprog_T prog) {
+    final int engine = prog.regengine >= 0 ? prog.regengine : OptionsManager.INSTANCE.getRegexpengine().value();
+    if (engine != AUTOMATIC_ENGINE) {
+      return null;
+    }
+    final int i = ireg_ic ? 1 : 0;
+    final long keywords = OptionsManager.INSTANCE.getIskeyword().getModificationCount();
+    synchronized (prog) {
+      if (!prog.jre_compiled[i] || prog.jre_keywords[i] != keywords) {
+        prog.jre[i] = jre_regcomp(prog);
+        prog.jre_compiled[i] = true;
+        prog.jre_keywords[i] = keywords;
+      }
+      return prog.jre[i];
+    }
+  }
+
+  /*
+     * Get the java.util.regex class of the characters vim_iswordc() accepts with the current 'iskeyword'.
+     */
+  @NotNull
+  private static synchronized String jre_keyword() {
+    final KeywordOption iskeyword = OptionsManager.INSTANCE.getIskeyword();
+    final long count = iskeyword.getModificationCount();
+    if (jre_keyword == null || jre_keyword_count != count) {
+      final StringBuilder cls = new StringBuilder("[");
+      for (int c = 1; c < 0x100; c++) {
+        if (c == '\n' || !iskeyword.isKeyword((char)c)) {
+          continue;
+        }
+        int last = c;
+        while (last + 1 < 0x100 && last + 1 != '\n' && iskeyword.isKeyword((char)(last + 1))) {
+          last++;
+        }
+        cls.append("\\x{").append(Integer.toHexString(c)).append('}');
+        if (last > c) {
+          cls.append("-\\x{").append(Integer.toHexString(last)).append('}');
+        }
+        c = last;
+      }
+      jre_keyword = cls.append("\\x{100}-\\x{ffff}]").toString();
+      jre_keyword_count = count;
+    }
+    return jre_keyword;
+  }
+
+  /**
+   * Translates a compiled program to a java.util.regex pattern that finds the same matches in a line.
+   *
+   * @param prog The program compiled by {@link #vim_regcomp(String, int)}
+   * @param ic   Whether case is ignored, "\c" and "\C" in the pattern overrule it
+   * @return The pattern, or null when the program uses an item that isn't translated
+   */
+  @TestOnly
+  @Nullable
+  public Pattern vim_regcomp_java(@NotNull regprog_T prog, boolean ic) {
+    ireg_ic = prog_ignore_case(prog, ic);
+    return jre_regcomp(prog);
+  }
+
+  @Nullable
+  private Pattern jre_regcomp(@NotNull regprog_T prog) {
+    regprogram = prog.program;
+    regclass = prog.regclass[ireg_ic ? 1 : 0];
+    jre_pattern.setLength(0);
+    jre_ngroup = 0;
+    jre_repeat = false;
+    if (!jre_regstart(prog) || !jre_sequence(1, -1)) {
+      return null;
+    }
+    return Pattern.compile(jre_pattern.toString());
+  }
+
+  /*
+     * regexec_both() only tries a match where regline.indexOf() finds "regstart", which with 'ignorecase' is its
+     * lower or upper case version.  Returns false when it can't be translated.
+     */
+  private boolean jre_regstart(@NotNull regprog_T prog) {
+    if (prog.regstart == '\u0000' || prog.reganch != 0 || !ireg_ic) {
+      return true;
+    }
+    return jre_lookahead(prog.regstart, Character.toLowerCase(prog.regstart), Character.toUpperCase(prog.regstart));
+  }
+
+  /*
+     * Append a look-ahead for "c1" or "c2" before an EXACTLY node starting with "first", which regmatch() only tries
+     * for one of them.  With 'ignorecase' the first character also matches others, like the Kelvin sign for "k".
+     * Returns false when it can't be translated.
+     */
+  private boolean jre_lookahead(char first, char c1, char c2) {
+    if (jre_special(c1) || jre_special(c2)) {
+      return false;
+    }
+    final BitSet matches = jre_char_matches(NFA_CHAR, first);
+    final boolean other = !matches.get(c1) || !matches.get(c2) || matches.cardinality() > (c1 == c2 ? 1 : 2);
+    if (other) {
+      jre_pattern.append("(?=[");
+      jre_append_char(c1);
+      jre_append_char(c2);
+      jre_pattern.append("])");
+    }
+    return true;
+  }
+
+  /*
+     * Get the characters that the character "arg" compared like "op" says matches, see nfa_char_matches().  Only
+     * "arg", its case forms and the characters that have a case form other than themselves can match it, the others
+     * aren't tried.
+     */
+  @NotNull
+  private BitSet jre_char_matches(int op, char arg) {
+    final BitSet matches = new BitSet(Character.MAX_VALUE + 1);
+    for (char c : new char[]{arg, Character.toLowerCase(arg), Character.toUpperCase(arg)}) {
+      if (nfa_char_matches(op, arg, c)) {
+        matches.set(c);
+      }
+    }
+    if (ireg_ic) {
+      for (char c : CharClass.Cased.CHARS) {
+        if (nfa_char_matches(op, arg, c)) {
+          matches.set(c);
+        }
+      }
+    }
+    return matches;
+  }
+
+  /*
+     * Get the characters that the class "op" matches, which doesn't depend on an argument or 'ignorecase'.  They are
+     * only computed once for each class.
+     */
+  @NotNull
+  private BitSet jre_class_matches(int op) {
+    synchronized (JRE_CLASS_MATCHES) {
+      BitSet matches = JRE_CLASS_MATCHES[op];
+      if (matches == null) {
+        matches = new BitSet(Character.MAX_VALUE + 1);
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+          if (nfa_char_matches(op, 0, (char)c)) {
+            matches.set(c);
+          }
+        }
+        JRE_CLASS_MATCHES[op] = matches;
+      }
+      return matches;
+    }
+  }
+
+  /*
+     * Append the translation of the nodes from "node" up to "stop" to jre_pattern.
+     * Returns false when one of them can't be translated.
+     */
+  private boolean jre_sequence(int node, int stop) {
+    while (node != stop && node != -1) {
+      final int op = OP(node);
+      int next = regnext(node);
+
+      switch (op) {
+        case END:
+          return true;
+
+        case BOL:
+          jre_pattern.append("(?<![^\\n])");
+          break;
+
+        case EOL:
+          jre_pattern.append("(?![^\\n\\x{0}])");
+          break;
+
+        case BOW:
+          jre_pattern.append("(?<!").append(jre_keyword()).append(")(?=").append(jre_keyword()).append(')');
+          break;
+
+        case EOW:
+          jre_pattern.append("(?<=").append(jre_keyword()).append(")(?!").append(jre_keyword()).append(')');
+          break;
+
+        case NOTHING:
+          break;
+
+        case NOPEN:
+          jre_pattern.append("(?:");
+          break;
+
+        case NCLOSE:
+          jre_pattern.append(')');
+          break;
+
+        case MOPEN + 1:
+        case MOPEN + 2:
+        case MOPEN + 3:
+        case MOPEN + 4:
+        case MOPEN + 5:
+        case MOPEN + 6:
+        case MOPEN + 7:
+        case MOPEN + 8:
+        case MOPEN + 9:
+          /* Java numbers the groups like Vim does, in the order they start */
+          if (op - MOPEN != ++jre_ngroup) {
+            return false;
+          }
+          jre_pattern.append('(');
+          break;
 
-      case ANYOF:
-      case ANYOF + ADD_NL:
-        testval = 1;
-        /*FALLTHROUGH*/
+        case MCLOSE + 1:
+        case MCLOSE + 2:
+        case MCLOSE + 3:
+        case MCLOSE + 4:
+        case MCLOSE + 5:
+        case MCLOSE + 6:
+        case MCLOSE + 7:
+        case MCLOSE + 8:
+        case MCLOSE + 9:
+          jre_pattern.append(')');
+          break;
 
-      case ANYBUT:
-      case ANYBUT + ADD_NL:
-        while (count < maxcount) {
-          if (scan.isNul()) {
-            if (!WITH_NL(p.OP()) || reglnum == reg_maxline) {
-              break;
-            }
-            reg_nextline();
-            scan = reginput.ref(0);
-            if (got_int) {
-              break;
+        case EXACTLY: {
+          final int opnd = OPERAND(node);
+          final int len = regstrlen(opnd);
+
+          /* The first character is compared like regmatch() does it, the others like cstrncmp() */
+          for (int i = 0; i < len; i++) {
+            if (!jre_char(i == 0 ? NFA_CHAR : NFA_CHAR_STR, regprogram[opnd + i])) {
+              return false;
             }
           }
-          else {
-            if ((cstrchr(opnd, scan.charAt()) == null) == (testval == 1)) {
-              break;
-            }
-            scan.inc();
+          if (len > 0) {
+            jre_repeat = false;
           }
-          ++count;
+          break;
         }
-        break;
 
-      case NEWL:
-        while (count < maxcount && scan.isNul() && reglnum < reg_maxline) {
-          count++;
-          reg_nextline();
-          scan = reginput.ref(0);
-          if (got_int) {
-            break;
+        case BRANCH: {
+          /* All the alternatives continue with the node after the last BRANCH */
+          int end = next;
+          while (OP(end) == BRANCH) {
+            end = regnext(end);
+          }
+          final boolean repeat = jre_repeat;
+          boolean repeat_after = false;
+          jre_pattern.append("(?:");
+          for (int branch = node; branch != end; branch = regnext(branch)) {
+            if (branch != node) {
+              jre_pattern.append('|');
+            }
+            jre_repeat = repeat;
+            if (!jre_sequence(OPERAND(branch), end)) {
+              return false;
+            }
+            repeat_after |= jre_repeat;
           }
+          jre_pattern.append(')');
+          jre_repeat = repeat_after;
+          next = end;
+          break;
         }
-        break;
 
-      default:                  /* Oh dear.  Called inappropriately. */
-        VimPlugin.showMessage(MessageHelper.message(Msg.e_re_corr));
-        break;
-    }
+        case STAR:
+        case PLUS:
+          if (!jre_repeat(OPERAND(node), op == STAR ? 0 : 1, MAX_LIMIT) || !jre_nextb(next)) {
+            return false;
+          }
+          break;
 
-    if (mask != 0) {
-      while (count < maxcount) {
-        if (scan.isNul()) {
-          if (!WITH_NL(p.OP()) || reglnum == reg_maxline) {
-            break;
+        case BRACE_LIMITS:
+          /* Only BRACE_SIMPLE, BRACE_COMPLEX repeats more than one character */
+          if (OP(next) != BRACE_SIMPLE || !jre_repeat(OPERAND(next), OPERAND_MIN(node), OPERAND_MAX(node))) {
+            return false;
           }
-          reg_nextline();
-          scan = reginput.ref(0);
-          if (got_int) {
-            break;
+          next = regnext(next);
+          if (!jre_nextb(next)) {
+            return false;
           }
-        }
-        else if (CharacterClasses.isMask(scan.charAt(), mask, testval)) {
-          scan.inc();
-        }
-        else {
           break;
+
+        default:
+          if (WITH_NL(op) || !nfa_is_class(op)) {
+            /* \zs, \ze, NEWL, BACK, BACKREF, ZOPEN, ZCLOSE, ZREF, MATCH, NOMATCH, SUBPAT, BEHIND, NOBEHIND,
+             * BRACE_COMPLEX, RE_BOF, RE_EOF, CURSOR, RE_LNUM, RE_COL and RE_VCOL */
+            return false;
+          }
+          if (!jre_class(op, OPERAND(node))) {
+            return false;
+          }
+          jre_repeat = false;
+          break;
+      }
+      node = next;
+    }
+    return true;
+  }
+
+  /*
+     * Append the translation of the single character "operand" repeated between "minval" and "maxval" times.
+     * Returns false for a non-greedy repeat, when "operand" isn't a single character or when it directly follows
+     * another repeat.
+     */
+  private boolean jre_repeat(int operand, int minval, int maxval) {
+    final int op = OP(operand);
+    if (minval > maxval || jre_repeat) {
+      return false;
+    }
+    if (op == EXACTLY) {
+      if (regstrlen(OPERAND(operand)) != 1 || !jre_char(NFA_CHAR_REP, regprogram[OPERAND(operand)])) {
+        return false;
+      }
+    }
+    else if (WITH_NL(op) || !nfa_is_class(op) || !jre_class(op, OPERAND(operand))) {
+      return false;
+    }
+
+    if (minval == maxval) {
+      jre_pattern.append('{').append(minval).append('}');
+      jre_repeat = minval == 0 && jre_repeat;
+    }
+    else {
+      jre_pattern.append('{').append(minval).append(',');
+      if (maxval != MAX_LIMIT) {
+        jre_pattern.append(maxval);
+      }
+      jre_pattern.append('}');
+      jre_repeat = true;
+    }
+    return true;
+  }
+
+  /*
+     * After a repeat regmatch() only tries the "next" EXACTLY node where "nextb" or "nextb_ic" is found.
+     * Returns false when it can't be translated.
+     */
+  private boolean jre_nextb(int next) {
+    if (OP(next) != EXACTLY || !ireg_ic) {
+      return true;
+    }
+    final char nextb = regprogram[OPERAND(next)];
+    final char nextb_ic = Character.isUpperCase(nextb) ? Character.toLowerCase(nextb) : Character.toUpperCase(nextb);
+    return jre_lookahead(nextb, nextb, nextb_ic);
+  }
+
+  /*
+     * Append the translation of one character "arg" compared like "op" says: NFA_CHAR, NFA_CHAR_STR or NFA_CHAR_REP.
+     */
+  private boolean jre_char(int op, char arg) {
+    if (!ireg_ic && !jre_special(arg)) {
+      jre_append_char(arg);
+      return true;
+    }
+    return jre_class(op, arg);
+  }
+
+  /*
+     * Append a class for the characters "op" with argument "arg" matches, see nfa_char_matches().
+     * Returns false when it can't be translated.
+     */
+  private boolean jre_class(int op, int arg) {
+    /* These don't depend on "ireg_ic" and Java has the same class */
+    if (op < JRE_CLASSES.length && JRE_CLASSES[op] != null) {
+      jre_pattern.append(JRE_CLASSES[op]);
+      return true;
+    }
+
+    final int base = WITH_NL(op) ? op - ADD_NL : op;
+    final BitSet matches;
+    if (base == NFA_CHAR || base == NFA_CHAR_STR || base == NFA_CHAR_REP) {
+      matches = jre_char_matches(base, (char)arg);
+    }
+    else if (base == ANYOF || base == ANYBUT) {
+      matches = new BitSet(Character.MAX_VALUE + 1);
+      regclass[arg].addTo(matches);
+      if (base == ANYBUT) {
+        matches.flip(0, Character.MAX_VALUE + 1);
+      }
+    }
+    else {
+      matches = (BitSet)jre_class_matches(base).clone();
+    }
+
+    /* A surrogate is matched as U+FFFF, see jre_text_T, which only works when they all match the same way */
+    final int surrogates = matches.get(JRE_SURROGATE)
+                           ? matches.nextClearBit(Character.MIN_SURROGATE)
+                           : matches.nextSetBit(Character.MIN_SURROGATE);
+    if (surrogates != -1 && surrogates <= Character.MAX_SURROGATE) {
+      return false;
+    }
+    matches.clear('\u0000');
+    matches.clear('\n');
+    matches.clear(Character.MIN_SURROGATE, Character.MAX_SURROGATE + 1);
+
+    /* List the ranges of characters that match */
+    final int mark = jre_pattern.length();
+    jre_pattern.append('[');
+    for (int c = matches.nextSetBit(0); c != -1; c = matches.nextSetBit(c + 1)) {
+      final int last = matches.nextClearBit(c) - 1;
+      jre_append_char((char)c);
+      if (last > c) {
+        jre_pattern.append('-');
+        jre_append_char((char)last);
+      }
+      c = last;
+    }
+    jre_pattern.append(']');
+
+    if (jre_pattern.length() == mark + 2) {
+      /* Never matches */
+      jre_pattern.setLength(mark);
+      jre_pattern.append("(?!)");
+    }
+    return true;
+  }
+
+  /*
+     * Whether "c" isn't matched as itself in jre_text: NUL, surrogates and U+FFFF.
+     */
+  private static boolean jre_special(char c) {
+    return c == '\u0000' || Character.isSurrogate(c) || c == JRE_SURROGATE;
+  }
+
+  private void jre_append_char(char c) {
+    if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+      jre_pattern.append(c);
+    }
+    else {
+      jre_pattern.append("\\x{").append(Integer.toHexString(c)).append('}');
+    }
+  }
+
+  /*
+     * Try a match of "prog" with java.util.regex, starting in regline at "col".
+     * Returns 0 for failure, 1 for a match.
+     */
+  private int jre_regexec(@NotNull regprog_T prog, @NotNull Pattern pattern, int col) {
+    final CharSequence text = reg_buf.getCharsSequence();
+    final int linestart = regline.pointer();
+    final int lineend = linestart + reg_linelen();
+
+    jre_text.text = text;
+    if (jre_matcher == null) {
+      jre_matcher = pattern.matcher(jre_text);
+      jre_matcher.useTransparentBounds(true);
+      jre_matcher.useAnchoringBounds(false);
+    }
+    else if (jre_matcher.pattern() != pattern) {
+      jre_matcher.usePattern(pattern);
+    }
+    jre_matcher.region(linestart + col, lineend);
+
+    final boolean found;
+    try {
+      /* Anchored match need be tried only once. */
+      found = prog.reganch != 0 ? jre_matcher.lookingAt() : jre_matcher.find();
+    }
+    catch (jre_interrupt_T e) {
+      return 0;
+    }
+    finally {
+      jre_text.text = "";
+    }
+    if (!found) {
+      return 0;
+    }
+
+    /* regexec stops at a NUL, the pattern doesn't match it */
+    for (int i = linestart + col; i < jre_matcher.start(); i++) {
+      if (text.charAt(i) == '\u0000') {
+        return 0;
+      }
+    }
+
+    for (int i = 0; i < NSUBEXP; i++) {
+      final boolean set = i <= jre_matcher.groupCount() && jre_matcher.start(i) != -1;
+      reg_startpos[i].lnum = set ? 0 : -1;
+      reg_startpos[i].col = set ? jre_matcher.start(i) - linestart : -1;
+      reg_endpos[i].lnum = set ? 0 : -1;
+      reg_endpos[i].col = set ? jre_matcher.end(i) - linestart : -1;
+    }
+    re_extmatch_out = null;
+
+    return 1;
+  }
+
+  /*
+     * Match a program that is a literal, maybe with "\<" and "\>" around it, by searching the line for the literal and
+     * checking the word boundaries of the occurrences.
+     * Returns 0 for failure, 1 for a match.
+     */
+  private int literal_regexec(@NotNull regprog_T prog, @NotNull CharPointer line, int col) {
+    final CharSequence text = reg_buf.getCharsSequence();
+    final int linestart = line.pointer();
+    final int lineend = reg_lineend(reg_buf, reg_firstlnum);
+    /* The prefilter of a literal program is the literal itself */
+    final LiteralSearcher searcher = prog.prefilter(ireg_ic);
+    final int len = prog.regliteral.length();
+    if (searcher == null || linestart + col > lineend) {
+      return 0;
+    }
+
+    int checked = linestart + col;
+    int start = searcher.indexOf(text, checked, lineend);
+    for (; start != -1; start = searcher.indexOf(text, start + 1, lineend)) {
+      /* regexec stops at a NUL, the pattern doesn't match it */
+      for (; checked < start; checked++) {
+        if (text.charAt(checked) == '\u0000') {
+          return 0;
         }
-        ++count;
       }
+
+      final int end = start + len;
+      if (prog.regliteralbow &&
+          (!vim_iswordc(text.charAt(start)) || start > linestart && vim_iswordc(text.charAt(start - 1)))) {
+        continue;
+      }
+      if (prog.regliteraleow &&
+          (!vim_iswordc(text.charAt(end - 1)) ||
+           end < lineend && text.charAt(end) != '\u0000' && vim_iswordc(text.charAt(end)))) {
+        continue;
+      }
+
+      for (int i = 0; i < NSUBEXP; i++) {
+        reg_startpos[i].lnum = i == 0 ? 0 : -1;
+        reg_startpos[i].col = i == 0 ? start - linestart : -1;
+        reg_endpos[i].lnum = i == 0 ? 0 : -1;
+        reg_endpos[i].col = i == 0 ? end - linestart : -1;
+      }
+      re_extmatch_out = null;
+      return 1;
+    }
+    return 0;
+  }
+
+  /*
+     * The text java.util.regex matches in: the document text where surrogates are replaced with U+FFFF.  regmatch()
+     * looks at one char at a time, java.util.regex would combine a surrogate pair into one character.  Reading the
+     * text also checks the time limit, the Matcher has no other way to stop.
+     */
+  private class jre_text_T implements CharSequence {
+    @NotNull CharSequence text = "";
+
+    @Override
+    public int length() {
+      return text.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+      fast_breakcheck();
+      if (got_int) {
+        throw JRE_INTERRUPT;
+      }
+      final char c = text.charAt(index);
+      return Character.isSurrogate(c) ? JRE_SURROGATE : c;
+    }
+
+    @NotNull
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return text.subSequence(start, end);
     }
 
-    reginput = scan.ref(0);
+    @NotNull
+    @Override
+    public String toString() {
+      return text.toString();
+    }
+  }
 
-    return count;
+  /*
+     * Thrown from jre_text_T to stop the Matcher when "got_int" is set.
+     */
+  private static class jre_interrupt_T extends RuntimeException {
+    jre_interrupt_T() {
+      super(null, null, false, false);
+    }
   }
 
   /*
@@ -3572,12 +5545,77 @@ public class RegExp {
     }
   }
 
+  /*
+     * regnext - dig the "next" index out of a node of the program being executed.
+     * Returns -1 when there is no next node.
+     */
+  private int regnext(int p) {
+    int offset;
+
+    offset = NEXT(p);
+    if (offset == 0) {
+      return -1;
+    }
+
+    if (OP(p) == BACK) {
+      return p - offset;
+    }
+    else {
+      return p + offset;
+    }
+  }
+
+  /*
+     * Accessors for the nodes of the program being executed, see the macros in the header.
+     */
+  private int OP(int p) {
+    return regprogram[p];
+  }
+
+  private int NEXT(int p) {
+    return ((regprogram[p + 1] & 0xff) << 8) + (regprogram[p + 2] & 0xff);
+  }
+
+  private static int OPERAND(int p) {
+    return p + 3;
+  }
+
+  private int OPERAND_MIN(int p) {
+    return (regprogram[p + 3] << 24) + (regprogram[p + 4] << 16) + (regprogram[p + 5] << 8) + regprogram[p + 6];
+  }
+
+  private int OPERAND_MAX(int p) {
+    return (regprogram[p + 7] << 24) + (regprogram[p + 8] << 16) + (regprogram[p + 9] << 8) + regprogram[p + 10];
+  }
+
+  private char OPERAND_CMP(int p) {
+    return regprogram[p + 7];
+  }
+
+  /*
+     * Length of the NUL terminated operand string starting at "p".
+     */
+  private int regstrlen(int p) {
+    int i = p;
+    while (regprogram[i] != '\u0000') {
+      i++;
+    }
+    return i - p;
+  }
+
+  /*
+     * Check if "c" is in the bracket expression with its operand at "p", ignore case if ireg_ic set.
+     */
+  private boolean regstrchr(int p, char c) {
+    return regclass[p].contains(c);
+  }
+
   /*
      * Check the regexp program for its magic number.
      * Return true if it's wrong.
      */
   private boolean prog_magic_wrong() {
-    if ((reg_match == null ? reg_mmatch.regprog.program : reg_match.regprog.program).charAt(0) != REGMAGIC) {
+    if ((reg_match == null ? reg_mmatch.regprog.program : reg_match.regprog.program)[0] != REGMAGIC) {
       VimPlugin.showMessage(MessageHelper.message(Msg.e_re_corr));
       return true;
     }
@@ -3635,9 +5673,28 @@ public class RegExp {
      * Advance reglnum, regline and reginput to the next line.
      */
   private void reg_nextline() {
-    regline = reg_getline(++reglnum);
-    reginput = regline.ref(0);
-    // fast_breakcheck(); TODO
+    regline = reg_getline(++reglnum, regline);
+    reg_setinput(0);
+    fast_breakcheck();
+  }
+
+  /*
+     * Check the time limit and, when not running on the event dispatch thread, whether the search was cancelled.
+     * Sets "got_int" when the time limit has passed.  It's called often, so only every BREAKCHECK_SKIP time something
+     * is checked.
+     */
+  private void fast_breakcheck() {
+    if (++breakcheck_count < BREAKCHECK_SKIP) {
+      return;
+    }
+    breakcheck_count = 0;
+    if (reg_check_canceled) {
+      ProgressManager.checkCanceled();
+    }
+    if (reg_tm != 0 && System.nanoTime() - reg_tm >= 0) {
+      reg_timed_out = true;
+      got_int = true;
+    }
   }
 
   /*
@@ -3662,9 +5719,9 @@ public class RegExp {
         /* only call reg_getline() when the line number changed to save
                  * a bit of time */
         reglnum = save.pos.lnum;
-        regline = reg_getline(reglnum);
+        regline = reg_getline(reglnum, regline);
       }
-      reginput = regline.ref(save.pos.col);
+      reg_setinput(save.pos.col);
     }
     else {
       reginput = save.ptr.ref(0);
@@ -3676,7 +5733,7 @@ public class RegExp {
      */
   private boolean reg_save_equal(@NotNull regsave_T save) {
     if (reg_match == null) {
-      return reglnum == save.pos.lnum && reginput.equals(regline.ref(save.pos.col));
+      return reglnum == save.pos.lnum && reginput.pointer() - regline.pointer() == save.pos.col;
     }
     return reginput.equals(save.ptr);
   }
@@ -3716,13 +5773,13 @@ public class RegExp {
   /*
      * Compare a number with the operand of RE_LNUM, RE_COL or RE_VCOL.
      */
-  private boolean re_num_cmp(int val, @NotNull CharPointer scan) {
-    int n = scan.OPERAND_MIN();
+  private boolean re_num_cmp(int val, int scan) {
+    int n = OPERAND_MIN(scan);
 
-    if (scan.OPERAND_CMP() == '>') {
+    if (OPERAND_CMP(scan) == '>') {
       return val > n;
     }
-    if (scan.OPERAND_CMP() == '<') {
+    if (OPERAND_CMP(scan) == '<') {
       return val < n;
     }
     return val == n;
@@ -3736,6 +5793,14 @@ public class RegExp {
     return s1.strncmp(s2, n, ireg_ic);
   }
 
+  /*
+     * Compare the operand string at "p" in the program with a string, ignore case if ireg_ic set.
+     * Return 0 if strings match, non-zero otherwise.
+     */
+  private int cstrncmp(int p, @NotNull CharPointer s, int n) {
+    return s.strncmp(regprogram, p, n, ireg_ic);
+  }
+
   /*
      * cstrchr: This function is used a lot for simple searches, keep it fast!
      */
@@ -3897,7 +5962,7 @@ public class RegExp {
     reg_mmatch = rmp;
     //reg_buf = curbuf;           /* always works on the current buffer! */
     reg_firstlnum = lnum;
-    reg_maxline = EditorHelper.getLineCount(reg_buf) - lnum;
+    reg_maxline = reg_linecount(reg_buf) - lnum;
 
     return vim_regsub_both(source, magic, backslash);
   }
@@ -4222,7 +6287,7 @@ public class RegExp {
 
     res.append("\nregcomp(").append(pattern).append("):\n");
 
-    start = (new CharPointer(r.program));
+    start = new CharPointer(CharBuffer.wrap(r.program));
     s = start.ref(1);
     /*
         * Loop until we find the END that isn't before a referred next (an END
@@ -4279,8 +6344,8 @@ public class RegExp {
     if (r.reganch != 0) {
       res.append("anchored: ");
     }
-    if (r.regmust != null) {
-      res.append("must have \"").append(r.regmust.substring(r.regmust.strlen())).append("\"");
+    if (r.regmust != -1) {
+      res.append("must have \"").append(r.program, r.regmust, r.regmlen).append("\"");
     }
     res.append("\n");
 
@@ -4656,14 +6721,121 @@ public class RegExp {
     return buf.toString();
   }
 
+  /*
+     * A compiled program.  It isn't changed after vim_regcomp() so one program can be shared by any number of
+     * matchers, also in other threads.  The NFA, java.util.regex and prefilter forms are built when first needed and
+     * kept under the program's lock.
+     */
   public static class regprog_T {
-    char regstart;
-    char reganch;
-    @Nullable CharPointer regmust;
-    int regmlen;
-    int regflags;
-    char reghasz;
-    @NotNull StringBuffer program = new StringBuffer();
+    @NotNull final char[] program;
+    final int regengine;            /* engine selected with "\%#=", -1 to use 'regexpengine' */
+    final char regstart;
+    final char reganch;
+    @Nullable final String regprefix;
+    final int regmust;              /* index in program of the string that must appear, -1 if none */
+    final int regmlen;
+    final int regflags;
+    final char reghasz;
+    /* The compiled ANYOF and ANYBUT operands at their index in program: [0] matches case, [1] ignores case */
+    @NotNull final CharClass[][] regclass;
+
+    regprog_T(@NotNull char[] program, int regengine, char regstart, char reganch, @Nullable String regprefix,
+              int regmust, int regmlen, int regflags, char reghasz) {
+      this.program = program;
+      this.regengine = regengine;
+      this.regstart = regstart;
+      this.reganch = reganch;
+      this.regprefix = regprefix;
+      this.regmust = regmust;
+      this.regmlen = regmlen;
+      this.regflags = regflags;
+      this.reghasz = reghasz;
+      regclass = new CharClass[][]{regcomp_classes(program, false), regcomp_classes(program, true)};
+    }
+
+    /* The NFA for the program, built when first needed, null when the NFA engine doesn't support the program */
+    @Nullable nfa_regprog_T nfa;
+    boolean nfa_compiled;
+
+    /* The program translated to java.util.regex when first needed: [0] matches case, [1] ignores case */
+    @NotNull final Pattern[] jre = new Pattern[2];
+    @NotNull final boolean[] jre_compiled = new boolean[2];
+    /* The modification count of 'iskeyword' the translation of \< and \> is for */
+    @NotNull final long[] jre_keywords = new long[2];
+
+    /* The literal of a program that matches nothing else, maybe between BOW and EOW, null for other programs */
+    @Nullable String regliteral;
+    boolean regliteralbow;
+    boolean regliteraleow;
+
+    /* Searchers for the prefilter literal, created when first used: [0] matches case, [1] ignores case */
+    @NotNull private final LiteralSearcher[] searchers = new LiteralSearcher[2];
+
+    /*
+         * Get the searcher for the literal every match must contain on its first line, null if there is none.
+         * The "must appear" string is preferred, it is the longest literal when present.
+         */
+    @Nullable
+    synchronized LiteralSearcher prefilter(boolean ic) {
+      final String literal = regmust != -1 ? new String(program, regmust, regmlen) : regprefix;
+      if (literal == null || literal.isEmpty()) {
+        return null;
+      }
+      final int i = ic ? 1 : 0;
+      if (searchers[i] == null) {
+        searchers[i] = new LiteralSearcher(literal, ic);
+      }
+      return searchers[i];
+    }
+  }
+
+  /*
+     * The states of an NFA, kept in parallel arrays: what the state matches, its argument (a character or an index into
+     * the program) and the states that follow.
+     */
+  private static class nfa_regprog_T {
+    int nstate;
+    int start;
+    int nsub;                   /* number of submatches a thread has to keep */
+    @NotNull int[] op = new int[16];
+    @NotNull int[] arg = new int[16];
+    @NotNull int[] out = new int[16];
+    @NotNull int[] out1 = new int[16];
+
+    void add(int op, int arg, int out, int out1) {
+      if (nstate == this.op.length) {
+        final int len = nstate * 2;
+        this.op = Arrays.copyOf(this.op, len);
+        this.arg = Arrays.copyOf(this.arg, len);
+        this.out = Arrays.copyOf(this.out, len);
+        this.out1 = Arrays.copyOf(this.out1, len);
+      }
+      if (op >= MOPEN && op < MCLOSE + NSUBEXP) {
+        nsub = Math.max(nsub, (op - MOPEN) % NSUBEXP + 1);
+      }
+      this.op[nstate] = op;
+      this.arg[nstate] = arg;
+      this.out[nstate] = out;
+      this.out1[nstate++] = out1;
+    }
+  }
+
+  /*
+     * The threads of the NFA at one position, in order of priority: the state each thread is in, its submatches as
+     * line/col pairs of start and end and the column in the first line where it started.
+     */
+  private static class nfa_list_T {
+    int n;
+    int id;
+    @NotNull final int[] state;
+    @NotNull final int[] sub;
+    @NotNull final int[] start;
+
+    nfa_list_T(int size, int nsub) {
+      state = new int[size];
+      sub = new int[size * nsub];
+      start = new int[size];
+    }
   }
 
   private static class MinMax {
@@ -4707,6 +6879,27 @@ public class RegExp {
     @NotNull lpos_T pos = new lpos_T();
   }
 
+  /*
+    * Item on the regstack, which regmatch() uses instead of recursion.  Which
+    * fields are used depends on rs_state.
+    */
+  private static class regitem_T {
+    int rs_state;      /* what we are doing, one of RS_ above */
+    int rs_scan;       /* current node in program */
+    int rs_no;         /* submatch nr, BRACE_COMPLEX nr or node type */
+    @NotNull final save_se_T rs_sesave = new save_se_T();  /* for RS_MOPEN and friends */
+    @NotNull final regsave_T rs_regsave = new regsave_T(); /* for the other states */
+    /* for RS_STAR_LONG and RS_STAR_SHORT */
+    char rs_nextb;     /* next byte */
+    char rs_nextb_ic;  /* next byte reverse case */
+    int rs_count;
+    int rs_minval;
+    int rs_maxval;
+    /* for RS_BEHIND1 and RS_BEHIND2 */
+    @NotNull final regsave_T rs_save_after = new regsave_T();
+    @Nullable regsave_T rs_save_behind;
+  }
+
   private static class regmatch_T {
     regprog_T regprog;
     @NotNull CharPointer[] startp = new CharPointer[NSUBEXP];
@@ -4772,6 +6965,11 @@ public class RegExp {
     * Global work variables for vim_regexec().
     */
 
+  /* The program being executed, walked by index in regmatch() and regrepeat() */
+  private char[] regprogram;
+  /* The compiled bracket expressions of the program for the current "ireg_ic" */
+  private CharClass[] regclass;
+
   /* The current match-position is remembered with these variables: */
   private int reglnum;        /* line number, relative to first line */
   @Nullable private CharPointer regline;       /* start of current line */
@@ -4784,6 +6982,27 @@ public class RegExp {
 
   private boolean out_of_stack;   /* true when ran out of stack space */
 
+  /* Backtracking stack of regmatch(), the items are reused between matches */
+  @NotNull private final List<regitem_T> regstack = new ArrayList<>();
+  private int regstack_len;       /* number of items in use */
+  private int regstack_maxlen;    /* limit from 'maxmempattern' */
+
+  /* Work space of the NFA engine, reused between matches */
+  @NotNull private final nfa_list_T[] nfa_lists = new nfa_list_T[2];
+  @Nullable private int[] nfa_listids;       /* id of the list each state was last added to */
+  private int nfa_listid;
+  private int nfa_col;                        /* column in "regline" the states are added for */
+  @Nullable private int[] nfa_stack_state;   /* explicit stack of nfa_addstate() */
+  @Nullable private int[] nfa_stack_sub;      /* submatches of the items on the stack */
+  @Nullable private int[] nfa_matchsub;       /* submatches of the match found */
+
+  /* Work space of the java.util.regex translation and matching */
+  @NotNull private final StringBuilder jre_pattern = new StringBuilder();
+  private int jre_ngroup;                     /* number of \( translated */
+  private boolean jre_repeat;                 /* translation ends with a repeat, a next repeat isn't translated */
+  @Nullable private Matcher jre_matcher;
+  @NotNull private final jre_text_T jre_text = new jre_text_T();
+
   /*
     * Internal copy of 'ignorecase'.  It is set at each call to vim_regexec().
     * Normally it gets the value of "rm_ic" or "rmm_ic", but when the pattern
@@ -4821,8 +7040,8 @@ public class RegExp {
   @NotNull private CharPointer[] reg_endp = new CharPointer[NSUBEXP];
   @NotNull private lpos_T[] reg_startpos = new lpos_T[NSUBEXP];
   @NotNull private lpos_T[] reg_endpos = new lpos_T[NSUBEXP];
-  //static win_T            *reg_win;
-  private Editor reg_buf;
+  @Nullable private Editor reg_win;
+  private Document reg_buf;
   private int reg_firstlnum;
   private int reg_maxline;
 
@@ -4835,6 +7054,11 @@ public class RegExp {
 
   private boolean got_int = false;
 
+  private long reg_tm;                  /* time limit as a System.nanoTime() value, 0 for none */
+  private boolean reg_timed_out;        /* true when the time limit passed */
+  private boolean reg_check_canceled;   /* true when cancelling the progress stops the match */
+  private int breakcheck_count;
+
   /*
     * The arguments from BRACE_LIMITS are stored here.  They are actually local
     * to regmatch(), but they are here to reduce the amount of stack space used
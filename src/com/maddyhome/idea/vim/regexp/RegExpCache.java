@@ -0,0 +1,108 @@
+/*
+ * IdeaVim - Vim emulator for IDEs based on the IntelliJ platform
+ * Copyright (C) 2003-2019 The IdeaVim authors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.maddyhome.idea.vim.regexp;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Bounded least-recently-used cache of compiled regular expression programs.
+ * <p>
+ * The compiled program only depends on the pattern text and the magic level. Whether case is ignored is decided
+ * when the program is executed (see {@link RegExp.regmmatch_T#rmm_ic}), so the same program is shared by case
+ * sensitive and case insensitive searches.
+ */
+public class RegExpCache {
+  private static final int MAX_SIZE = 32;
+
+  private static final Map<Key, RegExp.regprog_T> cache = new LinkedHashMap<Key, RegExp.regprog_T>(MAX_SIZE, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, RegExp.regprog_T> eldest) {
+      return size() > MAX_SIZE;
+    }
+  };
+
+  private RegExpCache() {
+  }
+
+  /**
+   * Returns the compiled program for the pattern, compiling it on a cache miss.
+   * <p>
+   * Patterns that fail to compile are not cached, so the error message is reported every time they are used.
+   *
+   * @param pattern The pattern to compile
+   * @param magic   The magic level the pattern is compiled with
+   * @return The compiled program or null if the pattern is invalid
+   */
+  @Nullable
+  public static RegExp.regprog_T vim_regcomp(@Nullable String pattern, int magic) {
+    if (pattern == null) {
+      return new RegExp().vim_regcomp(null, magic);
+    }
+
+    final Key key = new Key(pattern, magic);
+    synchronized (cache) {
+      final RegExp.regprog_T prog = cache.get(key);
+      if (prog != null) {
+        return prog;
+      }
+    }
+
+    final RegExp.regprog_T prog = new RegExp().vim_regcomp(pattern, magic);
+    if (prog != null) {
+      synchronized (cache) {
+        cache.put(key, prog);
+      }
+    }
+    return prog;
+  }
+
+  public static void clear() {
+    synchronized (cache) {
+      cache.clear();
+    }
+  }
+
+  private static class Key {
+    @NotNull private final String pattern;
+    private final int magic;
+
+    Key(@NotNull String pattern, int magic) {
+      this.pattern = pattern;
+      this.magic = magic;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      final Key key = (Key)o;
+      return magic == key.magic && pattern.equals(key.pattern);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(pattern, magic);
+    }
+  }
+}
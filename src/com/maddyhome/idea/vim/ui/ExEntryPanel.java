@@ -32,6 +32,7 @@ import com.maddyhome.idea.vim.ex.CommandParser;
 import com.maddyhome.idea.vim.ex.ExCommand;
 import com.maddyhome.idea.vim.ex.LineRange;
 import com.maddyhome.idea.vim.ex.Ranges;
+import com.maddyhome.idea.vim.helper.EditorHelper;
 import com.maddyhome.idea.vim.helper.UiHelper;
 import com.maddyhome.idea.vim.option.OptionsManager;
 import com.maddyhome.idea.vim.regexp.CharPointer;
@@ -77,6 +78,9 @@ public class ExEntryPanel extends JPanel implements LafManagerListener {
     layout.setConstraints(entry, gbc);
     add(entry);
 
+    incsearchTimer = new Timer(INCSEARCH_DELAY, e -> updateIncsearch());
+    incsearchTimer.setRepeats(false);
+
     new ExShortcutKeyAction(this).registerCustomShortcutSet();
 
     LafManager.getInstance().addLafManagerListener(this);
@@ -129,69 +133,89 @@ public class ExEntryPanel extends JPanel implements LafManagerListener {
   @NotNull private final DocumentListener incSearchDocumentListener = new DocumentAdapter() {
     @Override
     protected void textChanged(@NotNull DocumentEvent e) {
-      final Editor editor = entry.getEditor();
+      /* Wait for a pause in typing, so that typing fast only searches for the last text. The search itself runs on
+         the EDT and can't be cancelled once it has started */
+      if (ApplicationManager.getApplication().isUnitTestMode()) {
+        updateIncsearch();
+      }
+      else {
+        incsearchTimer.restart();
+      }
+    }
+  };
 
-      boolean searchCommand = false;
-      LineRange searchRange = null;
-      char separator = label.getText().charAt(0);
-      String searchText = entry.getActualText();
-      if (label.getText().equals(":")) {
-        final ExCommand command = getIncsearchCommand(searchText);
-        if (command == null) {
-          return;
-        }
-        searchCommand = true;
-        searchText = "";
-        final String argument = command.getArgument();
-        if (argument.length() > 1) {  // E.g. skip '/' in `:%s/`. `%` is range, `s` is command, `/` is argument
-          separator = argument.charAt(0);
-          searchText = argument.substring(1);
-        }
-        if (searchText.length() == 0) {
-          VimPlugin.getSearch().resetIncsearchHighlights();
-          return;
-        }
-        final Ranges ranges = command.getRanges();
+  private void updateIncsearch() {
+    final Editor editor = entry.getEditor();
+
+    boolean searchCommand = false;
+    LineRange searchRange = null;
+    char separator = label.getText().charAt(0);
+    String searchText = entry.getActualText();
+    if (label.getText().equals(":")) {
+      final ExCommand command = getIncsearchCommand(searchText);
+      if (command == null) {
+        return;
+      }
+      searchCommand = true;
+      searchText = "";
+      final boolean global = !"substitute".startsWith(command.getCommand());
+      String argument = command.getArgument();
+      if (global && argument.startsWith("!")) {  // E.g. `:g!/`
+        argument = argument.substring(1);
+      }
+      if (argument.length() > 1) {  // E.g. skip '/' in `:%s/`. `%` is range, `s` is command, `/` is argument
+        separator = argument.charAt(0);
+        searchText = argument.substring(1);
+      }
+      if (searchText.length() == 0) {
+        VimPlugin.getSearch().resetIncsearchHighlights();
+        return;
+      }
+      final Ranges ranges = command.getRanges();
+      if (global && ranges.size() == 0) {  // :g and :v default to the whole file
+        searchRange = new LineRange(0, EditorHelper.getLineCount(editor) - 1);
+      }
+      else {
         ranges.setDefaultLine(CharacterPosition.Companion.fromOffset(editor, caretOffset).line);
         searchRange = command.getLineRange(editor);
       }
+    }
 
-      final String labelText = label.getText();
-      if (labelText.equals("/") || labelText.equals("?") || searchCommand) {
-        final boolean forwards = !labelText.equals("?");  // :s, :g, :v are treated as forwards
-        final String pattern;
-        if (searchText == null) {
-          pattern = "";
-        } else {
-          final CharPointer p = new CharPointer(searchText);
-          final CharPointer end = RegExp.skip_regexp(new CharPointer(searchText), separator, true);
-          pattern = p.substring(end.pointer() - p.pointer());
-        }
-
-        VimPlugin.getEditor().closeEditorSearchSession(editor);
-        VimPlugin.getSearch().updateIncsearchHighlights(editor, pattern, forwards, caretOffset, searchRange);
+    final String labelText = label.getText();
+    if (labelText.equals("/") || labelText.equals("?") || searchCommand) {
+      final boolean forwards = !labelText.equals("?");  // :s, :g, :v are treated as forwards
+      final String pattern;
+      if (searchText == null) {
+        pattern = "";
+      } else {
+        final CharPointer p = new CharPointer(searchText);
+        final CharPointer end = RegExp.skip_regexp(new CharPointer(searchText), separator, true);
+        pattern = p.substring(end.pointer() - p.pointer());
       }
+
+      VimPlugin.getEditor().closeEditorSearchSession(editor);
+      VimPlugin.getSearch().updateIncsearchHighlights(editor, pattern, forwards, caretOffset, searchRange);
     }
+  }
 
-    @Contract("null -> null")
-    @Nullable
-    private ExCommand getIncsearchCommand(@Nullable String commandText) {
-      if (commandText == null) return null;
-      try {
-        final ExCommand exCommand = CommandParser.getInstance().parse(commandText);
-        final String command = exCommand.getCommand();
-        // TODO: Add global, vglobal, smagic and snomagic here when the commands are supported
-        if ("substitute".startsWith(command)) {
-          return exCommand;
-        }
+  @Contract("null -> null")
+  @Nullable
+  private ExCommand getIncsearchCommand(@Nullable String commandText) {
+    if (commandText == null) return null;
+    try {
+      final ExCommand exCommand = CommandParser.getInstance().parse(commandText);
+      final String command = exCommand.getCommand();
+      // TODO: Add smagic and snomagic here when the commands are supported
+      if ("substitute".startsWith(command) || "global".startsWith(command) || "vglobal".startsWith(command)) {
+        return exCommand;
       }
-      catch(Exception e) {
-        logger.warn("Cannot parse command for incsearch", e);
-      }
-
-      return null;
     }
-  };
+    catch(Exception e) {
+      logger.warn("Cannot parse command for incsearch", e);
+    }
+
+    return null;
+  }
 
   /**
    * Gets the label for the ex entry. This should be one of ":", "/", or "?"
@@ -321,6 +345,7 @@ public class ExEntryPanel extends JPanel implements LafManagerListener {
   private int verticalOffset;
   private int horizontalOffset;
   private int caretOffset;
+  @NotNull private final Timer incsearchTimer;
 
   @NotNull private final ComponentListener resizePanelListener = new ComponentAdapter() {
     @Override
@@ -343,6 +368,7 @@ public class ExEntryPanel extends JPanel implements LafManagerListener {
     // incsearch won't change in the lifetime of this activation
     if (isIncSearchEnabled()) {
       entry.getDocument().removeDocumentListener(incSearchDocumentListener);
+      incsearchTimer.stop();
       final Editor editor = entry.getEditor();
       if (!editor.isDisposed() && scrollToOldPosition) {
         editor.getScrollingModel().scrollVertically(verticalOffset);
@@ -371,6 +397,9 @@ public class ExEntryPanel extends JPanel implements LafManagerListener {
     parent = null;
   }
 
+  /* Milliseconds without typing before incsearch searches for the pattern */
+  private static final int INCSEARCH_DELAY = 100;
+
   private static ExEntryPanel instance;
   private static final Logger logger = Logger.getInstance(ExEntryPanel.class.getName());
 }
@@ -0,0 +1,38 @@
+/*
+ * IdeaVim - Vim emulator for IDEs based on the IntelliJ platform
+ * Copyright (C) 2003-2019 The IdeaVim authors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jetbrains.plugins.ideavim
+
+import com.intellij.testFramework.PlatformTestUtil
+import com.maddyhome.idea.vim.helper.StringHelper.parseKeys
+
+/**
+ * Micro-benchmark of the throughput of [com.maddyhome.idea.vim.KeyHandler.handleKey] for normal mode commands
+ */
+class KeyHandlerPerformanceTest : VimTestCase() {
+  fun `test typing normal mode commands`() {
+    configureByText(c + "one two three x four\n".repeat(10))
+    // Motions, counts, a multi-key command and a command with an argument, ending up at the first line again
+    val iteration = parseKeys("w", "b", "fx", "0", "2j", "2k", "gg", "l", "h")
+    val keys = (1..1000).flatMap { iteration }
+    PlatformTestUtil.startPerformanceTest("typing ${keys.size} keys", 5000) {
+      typeText(keys)
+    }.assertTiming()
+    assertOffset(0)
+  }
+}
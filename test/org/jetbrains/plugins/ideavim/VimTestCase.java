@@ -225,6 +225,10 @@ public abstract class VimTestCase extends UsefulTestCase {
     assertEquals(isError, VimPlugin.isError());
   }
 
+  public void assertStatusLineMessage(@Nullable String expected) {
+    assertEquals(expected, VimPlugin.getMessage());
+  }
+
   protected void assertCaretsColour() {
     Color selectionColour = myFixture.getEditor().getColorsScheme().getColor(EditorColors.SELECTION_BACKGROUND_COLOR);
     Color caretColour = myFixture.getEditor().getColorsScheme().getColor(EditorColors.CARET_COLOR);
@@ -0,0 +1,150 @@
+/*
+ * IdeaVim - Vim emulator for IDEs based on the IntelliJ platform
+ * Copyright (C) 2003-2019 The IdeaVim authors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jetbrains.plugins.ideavim.ex.handler
+
+import org.jetbrains.plugins.ideavim.VimTestCase
+
+class GlobalHandlerTest : VimTestCase() {
+  fun `test delete empty lines`() {
+    doTest("g/^\\s*$/d",
+      """
+        |${c}one
+        |
+        |two
+        |
+        |three
+      """.trimMargin(),
+      """
+        |one
+        |two
+        |three
+      """.trimMargin()
+    )
+  }
+
+  fun `test delete lines without match`() {
+    doTest("v/a/d",
+      """
+        |${c}one
+        |two a
+        |three
+        |four a
+      """.trimMargin(),
+      """
+        |two a
+        |four a
+      """.trimMargin()
+    )
+  }
+
+  fun `test delete lines without match with bang`() {
+    doTest("g!/a/d",
+      """
+        |${c}one
+        |two a
+        |three
+        |four a
+      """.trimMargin(),
+      """
+        |two a
+        |four a
+      """.trimMargin()
+    )
+  }
+
+  fun `test delete with range`() {
+    doTest("2,3g/a/d",
+      """
+        |${c}a one
+        |a two
+        |three
+        |a four
+      """.trimMargin(),
+      """
+        |a one
+        |three
+        |a four
+      """.trimMargin()
+    )
+  }
+
+  fun `test substitute in matching lines`() {
+    doTest("g/x/s/a/b/",
+      """
+        |${c}a x
+        |a
+        |x a a
+      """.trimMargin(),
+      """
+        |b x
+        |a
+        |x b a
+      """.trimMargin()
+    )
+  }
+
+  fun `test reverse lines`() {
+    doTest("g/^/m0",
+      """
+        |${c}one
+        |two
+        |three
+      """.trimMargin(),
+      """
+        |three
+        |two
+        |one
+      """.trimMargin()
+    )
+  }
+
+  fun `test joined lines are not marked`() {
+    doTest("g/a/j",
+      """
+        |${c}a one
+        |a two
+        |a three
+        |four
+      """.trimMargin(),
+      """
+        |a one a two
+        |a three four
+      """.trimMargin()
+    )
+  }
+
+  fun `test no match`() {
+    doTest("g/x/d",
+      """
+        |${c}one
+        |two
+      """.trimMargin(),
+      """
+        |one
+        |two
+      """.trimMargin()
+    )
+  }
+
+  private fun doTest(command: String, before: String, after: String) {
+    myFixture.configureByText("a.txt", before)
+    typeText(commandToKeys(command))
+    myFixture.checkResult(after)
+  }
+}
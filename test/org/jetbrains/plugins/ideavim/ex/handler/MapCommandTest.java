@@ -318,6 +318,15 @@ public class MapCommandTest extends VimTestCase {
     myFixture.checkResult("Bye\n");
   }
 
+  public void testMappingsWithCommonPrefix() {
+    configureByText("\n");
+    typeText(commandToKeys("nmap ,ab iA<Esc>"));
+    typeText(commandToKeys("nmap ,ac aC<Esc>"));
+    typeText(commandToKeys("nmap ,d aD<Esc>"));
+    typeText(parseKeys(",ab", ",ac", ",d"));
+    myFixture.checkResult("ACD\n");
+  }
+
   public void testPlugMapping() {
     configureByText("\n");
     typeText(commandToKeys("nmap ,f <Plug>Foo"));
@@ -269,6 +269,25 @@ class SubstituteHandlerTest : VimOptionTestCase(SmartCaseOptionsData.name, Ignor
     doTest("s/foo/bar", "\tfoo", "\tbar")
   }
 
+  @VimOptionDefaultAll
+  fun `test start of line only matches once`() {
+    doTest("s/^a//g", "${c}aaa", "aa")
+  }
+
+  @VimOptionDefaultAll
+  fun `test many matches`() {
+    doTest("%s/a/bc/g",
+      "${c}" + "a-a\n".repeat(200),
+      "bc-bc\n".repeat(200))
+  }
+
+  @VimOptionDefaultAll
+  fun `test count flag does not change text`() {
+    doTest("%s/a/b/gn",
+      "a${c}ba\nab\n",
+      "a${c}ba\nab\n")
+  }
+
   private fun doTest(command: String, before: String, after: String) {
     myFixture.configureByText("a.java", before)
     typeText(commandToKeys(command))
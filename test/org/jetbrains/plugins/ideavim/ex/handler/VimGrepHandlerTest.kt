@@ -0,0 +1,115 @@
+/*
+ * IdeaVim - Vim emulator for IDEs based on the IntelliJ platform
+ * Copyright (C) 2003-2019 The IdeaVim authors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jetbrains.plugins.ideavim.ex.handler
+
+import com.maddyhome.idea.vim.VimPlugin
+import org.jetbrains.plugins.ideavim.VimTestCase
+
+class VimGrepHandlerTest : VimTestCase() {
+  fun `test jump to first match`() {
+    doTest("vimgrep /two/ %",
+      """
+        |${c}one
+        |one two
+        |two
+      """.trimMargin(),
+      """
+        |one
+        |one ${c}two
+        |two
+      """.trimMargin()
+    )
+    assertEquals(2, VimPlugin.getQuickfix().entries.size)
+  }
+
+  fun `test all matches in a line`() {
+    doTest("vimgrep /two/gj %",
+      """
+        |${c}one
+        |two two
+      """.trimMargin(),
+      """
+        |${c}one
+        |two two
+      """.trimMargin()
+    )
+    assertEquals(2, VimPlugin.getQuickfix().entries.size)
+  }
+
+  fun `test next and previous match`() {
+    configureByText("""
+        |${c}one
+        |one two
+        |two
+        |three two
+      """.trimMargin())
+    typeText(commandToKeys("vimgrep two %"))
+    typeText(commandToKeys("cn"))
+    typeText(commandToKeys("cn"))
+    myFixture.checkResult("""
+        |one
+        |one two
+        |two
+        |three ${c}two
+      """.trimMargin())
+    typeText(commandToKeys("cp"))
+    myFixture.checkResult("""
+        |one
+        |one two
+        |${c}two
+        |three two
+      """.trimMargin())
+  }
+
+  fun `test no match`() {
+    doTest("vimgrep /four/ %",
+      """
+        |one
+        |${c}two
+      """.trimMargin(),
+      """
+        |one
+        |${c}two
+      """.trimMargin()
+    )
+    assertTrue(VimPlugin.getQuickfix().entries.isEmpty())
+  }
+
+  fun `test invalid file pattern`() {
+    doTest("vimgrep /two/ % [a",
+      """
+        |${c}one
+        |two
+      """.trimMargin(),
+      """
+        |${c}one
+        |two
+      """.trimMargin()
+    )
+    assertPluginError(true)
+    assertStatusLineMessage("E683: File name missing or invalid pattern")
+    assertTrue(VimPlugin.getQuickfix().entries.isEmpty())
+  }
+
+  private fun doTest(command: String, before: String, after: String) {
+    myFixture.configureByText("a.txt", before)
+    typeText(commandToKeys(command))
+    myFixture.checkResult(after)
+  }
+}
@@ -18,6 +18,7 @@
 
 package org.jetbrains.plugins.ideavim.group
 
+import com.intellij.openapi.editor.EditorFactory
 import com.intellij.openapi.editor.colors.EditorColors
 import com.intellij.openapi.editor.colors.EditorColorsManager
 import com.intellij.openapi.editor.markup.EffectType
@@ -28,6 +29,7 @@ import com.maddyhome.idea.vim.helper.RunnableHelper
 import com.maddyhome.idea.vim.helper.StringHelper.parseKeys
 import com.maddyhome.idea.vim.helper.VimTestFunction
 import com.maddyhome.idea.vim.option.OptionsManager
+import com.maddyhome.idea.vim.regexp.RegExp
 import org.jetbrains.plugins.ideavim.VimTestCase
 import java.util.*
 
@@ -111,6 +113,20 @@ class SearchGroupTest : VimTestCase() {
     assertEquals(-1, pos)
   }
 
+  fun `test character class with non-ascii range case insensitive`() {
+    OptionsManager.regexpengine.set(1)
+    val pos = search("\\c[à-ö]\\+x",
+      "${c}ab ÄÖX\n")
+    assertEquals(3, pos)
+  }
+
+  fun `test negated character class with non-ascii range case insensitive`() {
+    OptionsManager.regexpengine.set(1)
+    val pos = search("\\c[^a-zà-ö ]",
+      "${c}aÄ b Ø\n")
+    assertEquals(5, pos)
+  }
+
   // VIM-856
   fun `test negative lookbehind regression`() {
     val pos = search("a\\@<!b",
@@ -227,6 +243,147 @@ class SearchGroupTest : VimTestCase() {
     assertOffset(6)
   }
 
+  fun `test search for literal skips lines without it`() {
+    typeTextInFile(parseKeys("/", "lavender", "<Enter>"),
+      """${c}I found it in a legendary land
+        |all rocks and lavender and tufted grass,
+        |where it was settled on some sodden sand
+        |hard by the torrent of a mountain pass.
+      """.trimMargin())
+    assertOffset(45)
+  }
+
+  fun `test search backwards for literal wraps around`() {
+    typeTextInFile(parseKeys("?", "\\<torrent", "<Enter>"),
+      """I found it in a legendary land
+        |all rocks and lavender and tufted grass,
+        |where it was ${c}settled on some sodden sand
+        |hard by the torrent of a mountain pass.
+      """.trimMargin())
+    assertOffset(125)
+  }
+
+  fun `test search with many backtracking points on a long line`() {
+    OptionsManager.regexpengine.set(1)
+    val pos = search("x\\(ab\\)*c", "x" + "ab".repeat(4000) + "c\n")
+    assertEquals(0, pos)
+  }
+
+  fun `test search fails when pattern uses more memory than maxmempattern`() {
+    OptionsManager.regexpengine.set(1)
+    OptionsManager.maxmempattern.set(1)
+    val pos = search("x\\(ab\\)*c", "x" + "ab".repeat(4000) + "c\n")
+    assertEquals(-1, pos)
+  }
+
+  fun `test search with nested repetition on a long line`() {
+    val pos = search("\\(a\\+\\)\\+b", "a".repeat(5000) + "\n" + "a".repeat(10) + "b\n")
+    assertEquals(5001, pos)
+  }
+
+  fun `test search with nested repetition with nfa engine`() {
+    OptionsManager.regexpengine.set(2)
+    val pos = search("\\(a\\+\\)\\+b", "a".repeat(5000) + "\n")
+    assertEquals(-1, pos)
+  }
+
+  fun `test search with back-reference with nfa engine`() {
+    OptionsManager.regexpengine.set(2)
+    val pos = search("\\(ab\\)\\1", "ab abab\n")
+    assertEquals(3, pos)
+  }
+
+  fun `test search selects backtracking engine in pattern`() {
+    val pos = search("\\%#=1\\(a\\|ab\\)c", "abc ac\n")
+    assertEquals(0, pos)
+  }
+
+  fun `test search translates simple pattern to java regex`() {
+    val regExp = RegExp()
+    val prog = regExp.vim_regcomp("\\<\\(a\\|ab\\)\\s*x\\d\\{2,3}", 1)
+    assertNotNull(regExp.vim_regcomp_java(prog, false))
+    val pos = search("\\<\\(a\\|ab\\)\\s*x\\d\\{2,3}", "xab x1 ab x12\n")
+    assertEquals(7, pos)
+  }
+
+  fun `test search does not translate pattern with back-reference to java regex`() {
+    val regExp = RegExp()
+    val prog = regExp.vim_regcomp("\\(ab\\)\\1", 1)
+    assertNull(regExp.vim_regcomp_java(prog, false))
+  }
+
+  fun `test search reuses released matcher`() {
+    val matcher = RegExp.obtain()
+    matcher.release()
+    assertSame(matcher, RegExp.obtain())
+  }
+
+  fun `test search with one program in two matchers`() {
+    myFixture.configureByText("a.java", "one two\nthree two\n")
+    val prog = RegExp().vim_regcomp("t\\w*", 1)
+    val first = RegExp.regmmatch_T().apply { regprog = prog }
+    val second = RegExp.regmmatch_T().apply { regprog = prog }
+    val firstMatcher = RegExp.obtain()
+    val secondMatcher = RegExp.obtain()
+    assertEquals(1, firstMatcher.vim_regexec_multi(first, myFixture.editor, 2, 0, 0))
+    assertEquals(1, secondMatcher.vim_regexec_multi(second, myFixture.editor, 2, 1, 0))
+    assertEquals(4, first.startpos[0].col)
+    assertEquals(0, second.startpos[0].col)
+    firstMatcher.release()
+    secondMatcher.release()
+  }
+
+  fun `test search with ignorecase skips characters the backtracking engine skips`() {
+    setIgnoreCase()
+    val pos = search("x*k", "\u212A xK\n")
+    assertEquals(2, pos)
+  }
+
+  fun `test search next after changing text`() {
+    typeTextInFile(parseKeys("/", "a\\d", "<Enter>", "n", "gg", "O", "a0", "<Esc>", "n"),
+      """${c}one a1
+        |two a2""".trimMargin())
+    assertOffset(7)
+  }
+
+  fun `test search previous with count wraps around`() {
+    typeTextInFile(parseKeys("/", "a\\d", "<Enter>", "3N"),
+      "${c}a1 a2 a3")
+    assertOffset(3)
+  }
+
+  fun `test search count after changing text`() {
+    OptionsManager.maxsearchcount.set(2)
+    typeTextInFile(parseKeys("/", "a\\d", "<Enter>"),
+      "${c}a1 a2 a3")
+    assertEquals("[2/>2]", VimPlugin.getSearch().getSearchCount(myFixture.editor, 3))
+    assertEquals("[>2/>2]", VimPlugin.getSearch().getSearchCount(myFixture.editor, 6))
+    typeText(parseKeys("x"))
+    assertEquals("[2/2]", VimPlugin.getSearch().getSearchCount(myFixture.editor, 5))
+  }
+
+  fun `test search shows count`() {
+    typeTextInFile(parseKeys("/", "a\\d", "<Enter>", "n"),
+      """${c}one a1
+        |two a2 a3""".trimMargin())
+    assertOffset(11)
+    assertStatusLineMessage("/a\\d  [2/3]")
+    typeText(parseKeys("N"))
+    assertStatusLineMessage("?a\\d  [1/3]")
+  }
+
+  fun `test search count stops after maxsearchcount matches`() {
+    OptionsManager.maxsearchcount.set(2)
+    typeTextInFile(parseKeys("/", "a\\d", "<Enter>"),
+      """${c}a1
+        |a2
+        |a3
+        |a4
+        |a5""".trimMargin())
+    assertStatusLineMessage("/a\\d  [2/>2]")
+    assertEquals("[>2/>2]", VimPlugin.getSearch().getSearchCount(myFixture.editor, 12))
+  }
+
   @VimTestFunction("com.maddyhome.idea.vim.action.motion.search.SearchWholeWordForwardAction")
   fun `test search word matches case`() {
     typeTextInFile(parseKeys("*"),
@@ -273,6 +430,35 @@ class SearchGroupTest : VimTestCase() {
     assertOffset(14)
   }
 
+  @VimTestFunction("com.maddyhome.idea.vim.action.motion.search.SearchWholeWordForwardAction")
+  fun `test search word matches special characters literally`() {
+    typeTextInFile(parseKeys("*"),
+      "${c}.\n. x")
+    assertOffset(2)
+  }
+
+  @VimTestFunction("com.maddyhome.idea.vim.action.motion.search.SearchWholeWordForwardAction")
+  fun `test search word only matches whole words`() {
+    typeTextInFile(parseKeys("*"),
+      "${c}value values getValue value_x value")
+    assertOffset(30)
+  }
+
+  @VimTestFunction("com.maddyhome.idea.vim.action.motion.search.SearchWholeWordForwardAction")
+  fun `test search word uses iskeyword for whole words`() {
+    OptionsManager.iskeyword.append("-")
+    typeTextInFile(parseKeys("*"),
+      "${c}foo-bar a-foo-bar foo-bar")
+    assertOffset(18)
+  }
+
+  @VimTestFunction("com.maddyhome.idea.vim.action.motion.search.SearchWholeWordForwardAction")
+  fun `test search word matches non-ascii keyword as whole word`() {
+    typeTextInFile(parseKeys("*"),
+      "${c}€ x€ €")
+    assertOffset(5)
+  }
+
   fun `test incsearch moves caret to start of first match`() {
     setIncrementalSearch()
     configureByText(
@@ -370,6 +556,16 @@ class SearchGroupTest : VimTestCase() {
            |hard by the torrent of a mountain pass.""".trimMargin())
   }
 
+  fun `test incsearch highlights current match after lines around visible area`() {
+    setIncrementalSearch()
+    setHighlightSearch()
+    configureByText("found\n${c}start\n" + "text\n".repeat(300) + "found\n")
+
+    typeText(parseKeys("/", "found"))
+
+    assertSearchHighlights("found", "«found»\nstart\n" + "text\n".repeat(300) + "‷found‴\n")
+  }
+
   fun `test incsearch removes all highlights if no match`() {
     setIncrementalSearch()
     setHighlightSearch()
@@ -533,6 +729,24 @@ class SearchGroupTest : VimTestCase() {
            |hard by the torrent and rush of a mountain pass.""".trimMargin())
   }
 
+  fun `test incsearch highlights for substitute command as pattern is extended`() {
+    setIncrementalSearch()
+    setHighlightSearch()
+    configureByText(
+      """I found it in a legendary land
+           |${c}all rocks and lavender and tufted grass,
+           |where it was settled on some sodden sand
+           |hard by the torrent of a mountain pass.""".trimMargin())
+
+    typeText(parseKeys(":", "%s/and t"))
+
+    assertSearchHighlights("and t",
+      """I found it in a legendary land
+           |all rocks and lavender ‷and t‴ufted grass,
+           |where it was settled on some sodden sand
+           |hard by the torrent of a mountain pass.""".trimMargin())
+  }
+
   fun `test incsearch highlights for substitute command in current line with no range`() {
     setIncrementalSearch()
     setHighlightSearch()
@@ -659,6 +873,46 @@ class SearchGroupTest : VimTestCase() {
            |hard by the torrent of a mountain pass.""".trimMargin())
   }
 
+  fun `test highlight search results stops after redrawtime`() {
+    setHighlightSearch()
+    OptionsManager.redrawtime.set(100)
+    configureByText(
+      """${c}I found it in a legendary land
+           |${"a".repeat(40)}
+           |all rocks and lavender and tufted grass,""".trimMargin())
+
+    val pattern = "\\%#=1\\(a\\+\\)\\+b\\|and"
+    enterSearch(pattern)
+
+    assertSearchHighlights(pattern,
+      """I found it in a legendary l«and»
+           |${"a".repeat(40)}
+           |all rocks and lavender and tufted grass,""".trimMargin())
+  }
+
+  fun `test highlight search results in parallel`() {
+    setHighlightSearch()
+    OptionsManager.ideaparallelsearch.set(1)
+    val text = (0 until 3000).joinToString("\n") { if (it % 700 == 699) "y" else "x x" }
+    configureByText(text)
+
+    enterSearch("\\_.\\{-}y")
+    assertEquals(Regex("(?s).*?y").findAll(text).map { it.range.first..it.range.last + 1 }.toList(), searchHighlightRanges())
+    enterSearch("x\\ny")
+    assertEquals(Regex("x\ny").findAll(text).map { it.range.first..it.range.last + 1 }.toList(), searchHighlightRanges())
+  }
+
+  fun `test highlight search results around visible area only`() {
+    setHighlightSearch()
+    OptionsManager.ideamaxhighlights.set(3)
+    configureByText("${c}a\na\na\na\na\n")
+    enterSearch("a")
+    assertEquals(listOf(0..1, 2..3, 4..5), searchHighlightRanges())
+
+    typeText(parseKeys("dd"))
+    assertEquals(listOf(0..1, 2..3, 4..5), searchHighlightRanges())
+  }
+
   fun `test search removes previous search highlights`() {
     setHighlightSearch()
     configureByText(
@@ -903,6 +1157,57 @@ class SearchGroupTest : VimTestCase() {
            |hard by the torrent of a mountain pass.""".trimMargin())
   }
 
+  fun `test changing text in several lines updates search highlights`() {
+    setHighlightSearch()
+    configureByText(
+      """I found it in a legendary land
+         |${c}all rocks and lavender and tufted grass,
+         |where it was settled on some sodden sand
+         |hard by the torrent of a mountain pass.""".trimMargin())
+
+    val pattern = "and"
+    enterSearch(pattern)
+    typeText(parseKeys("G", "A", " and", "<Esc>", "gg", "$", "x", "j", "0", "dw"))
+
+    assertSearchHighlights(pattern,
+      """I found it in a legendary lan
+           |rocks «and» lavender «and» tufted grass,
+           |where it was settled on some sodden s«and»
+           |hard by the torrent of a mountain pass. «and»""".trimMargin())
+  }
+
+  fun `test search highlights in all editors of the document`() {
+    setHighlightSearch()
+    configureByText("${c}one and two and three")
+    val other = EditorFactory.getInstance().createEditor(myFixture.editor.document, myFixture.project)
+    try {
+      enterSearch("and")
+      typeText(parseKeys("A", " and", "<Esc>"))
+
+      val expected = listOf(4..7, 12..15, 22..25)
+      assertEquals(expected, searchHighlightRanges())
+      assertEquals(expected, other.markupModel.allHighlighters.map { it.startOffset..it.endOffset }.sortedBy { it.first })
+    }
+    finally {
+      EditorFactory.getInstance().releaseEditor(other)
+    }
+  }
+
+  fun `test search highlights of a line and cursor pattern in each editor of the document`() {
+    setHighlightSearch()
+    configureByText("one\n${c}two\nthree\n")
+    val other = EditorFactory.getInstance().createEditor(myFixture.editor.document, myFixture.project)
+    try {
+      enterSearch("\\%2l\\%#.")
+
+      assertEquals(listOf(4..5), searchHighlightRanges())
+      assertEquals(emptyList<IntRange>(), other.markupModel.allHighlighters.map { it.startOffset..it.endOffset })
+    }
+    finally {
+      EditorFactory.getInstance().releaseEditor(other)
+    }
+  }
+
   fun `test replacing text moves search highlights`() {
     val pattern = "and"
     setHighlightSearch()
@@ -1018,6 +1323,9 @@ class SearchGroupTest : VimTestCase() {
     return ref.get()
   }
 
+  private fun searchHighlightRanges() =
+    myFixture.editor.markupModel.allHighlighters.map { it.startOffset..it.endOffset }.sortedBy { it.first }
+
   private fun assertNoSearchHighlights() {
     assertEquals(0, myFixture.editor.markupModel.allHighlighters.size)
   }
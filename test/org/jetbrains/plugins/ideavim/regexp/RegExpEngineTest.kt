@@ -0,0 +1,130 @@
+/*
+ * IdeaVim - Vim emulator for IDEs based on the IntelliJ platform
+ * Copyright (C) 2003-2019 The IdeaVim authors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jetbrains.plugins.ideavim.regexp
+
+import com.intellij.openapi.editor.impl.DocumentImpl
+import com.maddyhome.idea.vim.option.OptionsManager
+import com.maddyhome.idea.vim.regexp.RegExp
+import org.jetbrains.plugins.ideavim.VimTestCase
+import java.util.*
+
+/**
+ * Checks that the backtracking engine, the NFA engine and the automatic engine, which translates simple patterns to
+ * java.util.regex, find the same matches and submatches at every position of the text
+ */
+class RegExpEngineTest : VimTestCase() {
+  fun `test engines find the same matches of fixed patterns`() {
+    for (pattern in PATTERNS) {
+      for (text in TEXTS) {
+        assertSameMatches(pattern, text, false)
+        assertSameMatches(pattern, text, true)
+      }
+    }
+  }
+
+  fun `test engines find the same matches of generated patterns`() {
+    val random = Random(42)
+    repeat(1000) {
+      val pattern = (0..random.nextInt(6)).joinToString("") { TOKENS[random.nextInt(TOKENS.size)] }
+      val text = (0 until random.nextInt(25)).map { TEXT_CHARS[random.nextInt(TEXT_CHARS.length)] }.joinToString("")
+      assertSameMatches(pattern, text, random.nextBoolean())
+    }
+  }
+
+  fun `test engines find the same matches of characters with several case forms`() {
+    // The Kelvin sign, the long s and the characters with a title case form have more than two case forms
+    val patterns = listOf("k", "K", "s\\+", "ſ", "[ſk]x", "\\u212a", "ǆ\\+", "Ǆx", "[ǅ]",
+      "straße", "[^k]\\+", "\\%(k\\|s\\)\\{2}")
+    // Like in Vim, after a repeat the backtracking engine only tries the two case forms of the next character, while
+    // the NFA engine tries all of them. The automatic engine does what the backtracking engine does.
+    val repeatPatterns = listOf("x*k", "\\a\\+k", "x*s")
+    val texts = listOf("k K K xK xk\n", "sſS ſx kx Kx sx\n", "ǄǅǆDž ǆx Ǆx\n",
+      "STRASSE straße Straße\n")
+    for (text in texts) {
+      for (pattern in patterns) {
+        assertSameMatches(pattern, text, false)
+        assertSameMatches(pattern, text, true)
+      }
+      for (pattern in repeatPatterns) {
+        assertSameMatches(pattern, text, false)
+        assertSameMatches(pattern, text, true, listOf(0))
+      }
+    }
+  }
+
+  private fun assertSameMatches(pattern: String, text: String, ignoreCase: Boolean, engines: List<Int> = listOf(2, 0)) {
+    val expected = findMatches(pattern, text, ignoreCase, 1)
+    for (engine in engines) {
+      assertEquals("pattern '$pattern' ignorecase $ignoreCase engine $engine text '$text'", expected,
+        findMatches(pattern, text, ignoreCase, engine))
+    }
+  }
+
+  /**
+   * Lists the match and the submatches at every line and column of the text
+   */
+  private fun findMatches(pattern: String, text: String, ignoreCase: Boolean, engine: Int): String {
+    OptionsManager.regexpengine.set(engine)
+    val regExp = RegExp()
+    val prog = regExp.vim_regcomp(pattern, 1) ?: return "invalid"
+    val match = RegExp.regmmatch_T().apply {
+      regprog = prog
+      rmm_ic = ignoreCase
+    }
+    val document = DocumentImpl(text)
+    val lineCount = maxOf(document.lineCount, 1)
+    val result = StringBuilder()
+    for (line in 0 until lineCount) {
+      val length = if (document.lineCount == 0) 0 else document.getLineEndOffset(line) - document.getLineStartOffset(line)
+      for (col in 0..length) {
+        val lines = regExp.vim_regexec_multi(match, null, document, lineCount, line, col, 0)
+        if (lines > 0) {
+          result.append("$line,$col:$lines")
+          for (i in match.startpos.indices) {
+            if (match.startpos[i].lnum >= 0) {
+              result.append(" $i=${match.startpos[i].lnum}.${match.startpos[i].col}-${match.endpos[i].lnum}.${match.endpos[i].col}")
+            }
+          }
+          result.append('\n')
+        }
+      }
+    }
+    return result.toString()
+  }
+
+  companion object {
+    private val PATTERNS = listOf("a", "ab", "a*", "a\\+", "a\\=", "a\\{2}", "a\\{1,3}", "a\\{-1,}", "a\\{-}", "\\<ab",
+      "ab\\>", "^a", "a$", "^$", "\\(a\\)\\(b\\)", "\\(a\\|b\\)\\+", "\\%(ab\\)*c", "a.b", ".*", ".\\{-}b", "[ab]\\+",
+      "[^ab ]", "[a-c]*x", "[[:alpha:]]\\+", "[[:digit:]]", "\\d\\+", "\\w\\+", "\\s\\+", "\\S", "\\a", "\\l\\u",
+      "\\x\\x", "\\h\\w*", "\\k\\+", "\\i", "\\f\\+", "a\\nb", "a\\_s*b", "\\_.\\{-}b", "foo\\zsbar", "foo\\zebar",
+      "\\(ab\\)\\1", "a\\(b\\)\\@=", "a\\(b\\)\\@!", "\\(a\\)\\@<=b", "\\(a\\)\\@<!b", "\\(a\\+\\)\\@>a", "\\cAB", "\\Cab",
+      "\\vab+", "\\v(a|b){2}", "\\Va.b", "a\\|b\\|c", "\\%^a", "b\\%$", "\\%2l.", "\\%3c.", "\\%d97",
+      "[\\x61-\\x63]", "[]a]", "[-a]", "a\\{,2}", "\\(a*\\)*", "\\(a\\+\\)\\+b", "\\%(a\\|ab\\)\\(c\\|bcd\\)\\(d*\\)",
+      "\\<\\(\\w\\+\\)\\s\\+\\1\\>", "x\\?", "[^\\n]\\+", "\\zs", "a\\zs", "ab\\{-2,3}", "[[:upper:][:lower:]]",
+      "[[:punct:]]\\+", "\\O", "\\X", "\\D", "\\W", "\\A", "\\L", "\\U", "\\H", "\\K", "\\I", "\\F", "\\P", "\\p",
+      "\\<ab\\>", "\\<the\\>", "\\<a.b\\>", "äb", "ÄB", "Straße", "^\\s*$", "a\\{1,}b", "\\(a\\)\\{2}")
+    private val TEXTS = listOf("ab\nabab\n\naab ba\nfoobar foo bar\n", "aaa\nbbb\naabbaa\n  \t x\n",
+      "Hello World\nfoo_bar 123 0x1F\nAB ab Ab aB\n", "a\nb\na\nb", "", "Ünïcödé straße ÄB\näb\n",
+      "(a) [b] {c} a.b a*b\n~\n", "the the cat cat\nsat sat\n")
+    private val TOKENS = listOf("a", "b", "c", " ", ".", "*", "\\+", "\\=", "\\{1,2}", "\\{-}", "\\(", "\\)", "\\%(",
+      "\\|", "^", "$", "\\<", "\\>", "\\n", "\\_s", "\\zs", "\\ze", "\\1", "\\@=", "\\@!", "\\@<=", "\\w", "\\s",
+      "[ab]", "[^b]", "\\_.", "\\{2}", "\\c", "ab", "\\a", "x", "\\@>", "\\{-1,}", "\\d")
+    private const val TEXT_CHARS = "ab c\nAB_x1."
+  }
+}
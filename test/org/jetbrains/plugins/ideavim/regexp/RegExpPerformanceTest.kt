@@ -0,0 +1,64 @@
+/*
+ * IdeaVim - Vim emulator for IDEs based on the IntelliJ platform
+ * Copyright (C) 2003-2019 The IdeaVim authors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jetbrains.plugins.ideavim.regexp
+
+import com.intellij.openapi.editor.impl.DocumentImpl
+import com.intellij.testFramework.PlatformTestUtil
+import com.maddyhome.idea.vim.option.OptionsManager
+import com.maddyhome.idea.vim.regexp.RegExp
+import org.jetbrains.plugins.ideavim.VimTestCase
+
+/**
+ * Micro-benchmark of finding all matches of a pattern that the automatic engine translates to java.util.regex, compared
+ * to the backtracking and the NFA engine
+ */
+class RegExpPerformanceTest : VimTestCase() {
+  fun `test find all matches with java regex`() = doTest(0)
+
+  fun `test find all matches with backtracking engine`() = doTest(1)
+
+  fun `test find all matches with nfa engine`() = doTest(2)
+
+  private fun doTest(engine: Int) {
+    OptionsManager.regexpengine.set(engine)
+    val document = DocumentImpl((0 until LINES).joinToString("") { "val item_$it = compute(item_${it - 1}, 42)\n" })
+    PlatformTestUtil.startPerformanceTest("finding '$PATTERN' in $LINES lines with regexpengine=$engine", 5000) {
+      assertEquals(2 * LINES - 1, countMatches(document))
+    }.assertTiming()
+  }
+
+  private fun countMatches(document: DocumentImpl): Int {
+    val regExp = RegExp()
+    val match = RegExp.regmmatch_T().apply { regprog = regExp.vim_regcomp(PATTERN, 1) }
+    var count = 0
+    for (line in 0 until LINES) {
+      var col = 0
+      while (regExp.vim_regexec_multi(match, null, document, LINES, line, col, 0) > 0) {
+        count++
+        col = match.endpos[0].col
+      }
+    }
+    return count
+  }
+
+  companion object {
+    private const val PATTERN = "\\<item_\\d\\+\\>"
+    private const val LINES = 20000
+  }
+}